@@ -0,0 +1,67 @@
+package com.feritoth.multistreamapp.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+import com.feritoth.multistreamapp.utility.JsonResponseEncoder;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+
+/* Serialization of the whole aggregate into the JSON response, for the original map and for the primitive store (converted into a string
+ * and streamed by the generator of the JsonResponseEncoder). The largest sizes need a big heap, hence the forked JVM runs with 8 GB. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Dlog4j.configuration=benchmark-log4j.properties"})
+public class AmountsToJsonBenchmark {
+	
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	private int nbOfEntries;
+	
+	private Map<Timestamp, Double> amountMap;
+	private TimeSeriesStore amountStore;
+	private final ByteArrayOutputStream jsonOutput = new ByteArrayOutputStream();
+	
+	@Setup
+	public void createAggregate() {
+		amountMap = BenchmarkData.createAmountMap(nbOfEntries);
+		amountStore = BenchmarkData.createAmountStore(nbOfEntries);
+	}
+	
+	@Benchmark
+	public String convertMapToJSON() throws JsonProcessingException {
+		return MultistreamProcessor.convertAmountsToJSON(amountMap);
+	}
+	
+	@Benchmark
+	public String convertStoreToJSON() throws IOException {
+		return MultistreamProcessor.convertAmountsToJSON(amountStore);
+	}
+	
+	@Benchmark
+	public int streamStoreToJSON() throws IOException {
+		//The output is reused, as the server reuses its pooled buffers - only the encoding itself is measured
+		jsonOutput.reset();
+		JsonResponseEncoder.writeAmounts(amountStore, jsonOutput);
+		return jsonOutput.size();
+	}
+
+}
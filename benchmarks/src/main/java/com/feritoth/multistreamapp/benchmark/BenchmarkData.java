@@ -0,0 +1,61 @@
+package com.feritoth.multistreamapp.benchmark;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+
+/* Generators of the inputs shared by the benchmarks - seeded, so that every run measures the same data */
+final class BenchmarkData {
+	
+	//First timestamp of the generated series
+	static final long START_TIME = 1_600_000_000_000L;
+	
+	private BenchmarkData(){}
+	
+	//Console lines holding the given number of amounts
+	static List<String> createAmountLines(int nbOfAmounts) {
+		Random random = new Random(42);
+		List<String> amountLines = new ArrayList<>(nbOfAmounts);
+		for (int i = 0; i < nbOfAmounts; i++){
+			amountLines.add(String.valueOf(random.nextInt(100000) / 100.0));
+		}
+		return amountLines;
+	}
+	
+	//XML batch holding one record per millisecond, as if the amounts had been received over time
+	static String createHistoryBatch(int nbOfRecords) {
+		Random random = new Random(42);
+		StringBuilder historyBatch = new StringBuilder();
+		for (int i = 0; i < nbOfRecords; i++){
+			historyBatch.append("<data><timestamp>").append(START_TIME + i).append("</timestamp><amount>")
+					.append(random.nextInt(100000) / 100.0).append("</amount></data>\n");
+		}
+		return historyBatch.toString();
+	}
+	
+	//Aggregate in the original map representation, one entry per millisecond
+	static Map<Timestamp, Double> createAmountMap(int nbOfEntries) {
+		Random random = new Random(42);
+		Map<Timestamp, Double> amountMap = new TreeMap<>();
+		for (int i = 0; i < nbOfEntries; i++){
+			amountMap.put(new Timestamp(START_TIME + i), random.nextInt(100000) / 100.0);
+		}
+		return amountMap;
+	}
+	
+	//Aggregate in the primitive store representation, one entry per millisecond
+	static TimeSeriesStore createAmountStore(int nbOfEntries) {
+		Random random = new Random(42);
+		TimeSeriesStore amountStore = new TimeSeriesStore();
+		for (int i = 0; i < nbOfEntries; i++){
+			amountStore.add(START_TIME + i, random.nextInt(100000) / 100.0);
+		}
+		return amountStore;
+	}
+
+}
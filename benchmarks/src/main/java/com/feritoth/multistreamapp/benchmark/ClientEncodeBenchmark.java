@@ -0,0 +1,50 @@
+package com.feritoth.multistreamapp.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+
+/* Client side encoding of the console amounts into XML records (convertAmountValues together with createDataRecord) */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class ClientEncodeBenchmark {
+	
+	@Param({"1", "100", "10000"})
+	private int batchSize;
+	
+	private List<String> amountLines;
+	
+	@Setup
+	public void createAmounts() {
+		amountLines = BenchmarkData.createAmountLines(batchSize);
+	}
+	
+	@Benchmark
+	public String convertAmountValues() throws JsonProcessingException {
+		return MultistreamProcessor.convertAmountValues(amountLines);
+	}
+	
+	@Benchmark
+	public byte[] convertAmountValuesToBinary() throws Exception {
+		return MultistreamProcessor.convertXMLDataToBinary(MultistreamProcessor.convertAmountValues(amountLines));
+	}
+
+}
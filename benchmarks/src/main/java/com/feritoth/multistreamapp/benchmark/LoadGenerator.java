@@ -0,0 +1,422 @@
+package com.feritoth.multistreamapp.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.server.LatencyHistogram;
+import com.feritoth.multistreamapp.server.LatencySummary;
+import com.feritoth.multistreamapp.utility.FrameCodec;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+
+/* End-to-end load tool driving a live server over loopback: the configured number of connections is spread over the server ports and
+ * every connection sends its batches on a fixed schedule, so that together they produce the target number of records per second. The
+ * batches are encoded like the ones of MultistreamClientA and MultistreamClientB, a share of them ending with the quit record after which
+ * the connection is opened again.
+ * The round-trip latency is measured from the time a batch was due rather than from the time it could be sent: a server falling behind
+ * delays all the following batches of a connection, and measuring them from their actual sending would hide that wait (coordinated
+ * omission). The service time without the correction is reported next to it.
+ * Usage (with the server already running): java -Dlog4j.configuration=benchmark-log4j.properties -cp target/benchmarks.jar
+ *   com.feritoth.multistreamapp.benchmark.LoadGenerator [configuration file] */
+public class LoadGenerator {
+
+	//Path to the configuration file of the load
+	public static final String LOAD_CONFIGURATION_FILE = "loadgen.properties";
+	//Number of distinct batches sent in turn, encoded again every second so that their timestamps keep advancing
+	private static final int PREPARED_BATCHES = 64;
+	//Delay before a failed connection is opened again
+	private static final long RECONNECT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final String host;
+	private final int[] ports;
+	private final int nbOfConnections;
+	private final double targetRecordsPerSecond;
+	private final int batchSize;
+	private final double quitRatio;
+	private final long warmupSeconds;
+	private final long durationSeconds;
+	private final int driverThreads;
+	private final boolean binaryProtocol;
+	private final boolean deltaResponses;
+	private final String appTerminator;
+	//Interval between the batches of a single connection
+	private final long batchIntervalNanos;
+	//The frames sent in turn: the regular batches, the ones ending with the quit record and the ones opening a delta connection
+	private volatile ByteBuffer[] regularFrames;
+	private volatile ByteBuffer[] quitFrames;
+	private volatile ByteBuffer[] openingFrames;
+	//The measurements, only taken once the warmup is over
+	private final LatencyHistogram correctedHistogram = new LatencyHistogram();
+	private final LatencyHistogram serviceHistogram = new LatencyHistogram();
+	private final LongAdder nbOfBatches = new LongAdder();
+	private final LongAdder nbOfReplyBytes = new LongAdder();
+	private final LongAdder nbOfReconnects = new LongAdder();
+	private final LongAdder nbOfErrors = new LongAdder();
+	private volatile String lastError;
+	private volatile boolean measuring;
+	private volatile boolean running = true;
+
+	public LoadGenerator(Properties loadProps) {
+		host = loadProps.getProperty("host", "127.0.0.1").trim();
+		String[] portList = loadProps.getProperty("ports", "1111").split(",");
+		ports = new int[portList.length];
+		for (int i = 0; i < portList.length; i++){
+			ports[i] = Integer.parseInt(portList[i].trim());
+		}
+		nbOfConnections = Integer.parseInt(loadProps.getProperty("connections", "1000").trim());
+		targetRecordsPerSecond = Double.parseDouble(loadProps.getProperty("targetRecordsPerSecond", "50000").trim());
+		batchSize = Integer.parseInt(loadProps.getProperty("batchSize", "10").trim());
+		quitRatio = Double.parseDouble(loadProps.getProperty("quitRatio", "0.01").trim());
+		warmupSeconds = Long.parseLong(loadProps.getProperty("warmupSeconds", "5").trim());
+		durationSeconds = Long.parseLong(loadProps.getProperty("durationSeconds", "30").trim());
+		String configuredDrivers = loadProps.getProperty("driverThreads", "").trim();
+		driverThreads = configuredDrivers.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(configuredDrivers);
+		binaryProtocol = "binary".equalsIgnoreCase(loadProps.getProperty("protocol", "xml").trim());
+		deltaResponses = Boolean.parseBoolean(loadProps.getProperty("deltaResponses", "false").trim());
+		appTerminator = loadProps.getProperty("appTerminator", "Quit").trim();
+		batchIntervalNanos = (long) (1e9 * nbOfConnections * batchSize / targetRecordsPerSecond);
+	}
+
+	//Drive the load for the warmup and the measured duration, then report the measurements
+	public void run() throws IOException, InterruptedException {
+		prepareFrames();
+		ScheduledExecutorService frameRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread refresherThread = new Thread(runnable, "load-refresher");
+			refresherThread.setDaemon(true);
+			return refresherThread;
+		});
+		frameRefresher.scheduleAtFixedRate(() -> {
+			try {
+				prepareFrames();
+			} catch (IOException e) {
+				System.err.println("Unable to encode the batches: " + e);
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+		//The connections are dealt out to the drivers and their first batches spread over one interval
+		long startNanos = System.nanoTime();
+		List<LoadDriver> loadDrivers = new ArrayList<>();
+		for (int i = 0; i < driverThreads; i++){
+			loadDrivers.add(new LoadDriver(i));
+		}
+		for (int i = 0; i < nbOfConnections; i++){
+			loadDrivers.get(i % driverThreads).addConnection(new LoadConnection(ports[i % ports.length], startNanos + batchIntervalNanos * i / nbOfConnections));
+		}
+		List<Thread> driverThreadList = new ArrayList<>();
+		for (LoadDriver loadDriver : loadDrivers){
+			Thread driverThread = new Thread(loadDriver, "load-driver-" + driverThreadList.size());
+			driverThread.start();
+			driverThreadList.add(driverThread);
+		}
+		System.out.println("Driving " + nbOfConnections + " connection(s) to " + host + " on the port(s) " + Arrays.toString(ports) + " with "
+				+ driverThreads + " driver(s): " + targetRecordsPerSecond + " records/s in batches of " + batchSize + ", one batch every "
+				+ String.format("%.3f", batchIntervalNanos / 1e6) + " ms per connection, " + (quitRatio * 100) + "% of them quitting");
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+		measuring = true;
+		long measureStartNanos = System.nanoTime();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+		measuring = false;
+		double measuredSeconds = (System.nanoTime() - measureStartNanos) / 1e9;
+		running = false;
+		for (Thread driverThread : driverThreadList){
+			driverThread.join();
+		}
+		frameRefresher.shutdownNow();
+		report(measuredSeconds);
+	}
+
+	private void report(double measuredSeconds) {
+		long batches = nbOfBatches.sum();
+		System.out.println(String.format("Throughput over %.1f s: %.0f records/s (target %.0f), %.0f batches/s, %.2f MB/s of replies, %d reconnects, %d errors",
+				measuredSeconds, batches * batchSize / measuredSeconds, targetRecordsPerSecond, batches / measuredSeconds,
+				nbOfReplyBytes.sum() / measuredSeconds / (1024 * 1024), nbOfReconnects.sum(), nbOfErrors.sum()));
+		if (lastError != null){
+			System.out.println("Last connection error: " + lastError);
+		}
+		System.out.println("Round-trip latency corrected for coordinated omission: " + formatSummary(correctedHistogram.summarize()));
+		System.out.println("Service time (from the actual sending, uncorrected):   " + formatSummary(serviceHistogram.summarize()));
+	}
+
+	private static String formatSummary(LatencySummary latencySummary) {
+		return String.format("p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms (%d batches)", latencySummary.getP50Nanos() / 1e6,
+				latencySummary.getP99Nanos() / 1e6, latencySummary.getP999Nanos() / 1e6, latencySummary.getMaxNanos() / 1e6, latencySummary.getCount());
+	}
+
+	//Encode the batches the way the interactive clients do, with the current time as their timestamps
+	private void prepareFrames() throws IOException {
+		Random random = new Random();
+		ByteBuffer[] newRegularFrames = new ByteBuffer[PREPARED_BATCHES];
+		ByteBuffer[] newQuitFrames = new ByteBuffer[PREPARED_BATCHES];
+		ByteBuffer[] newOpeningFrames = new ByteBuffer[PREPARED_BATCHES];
+		for (int i = 0; i < PREPARED_BATCHES; i++){
+			List<String> amounts = new ArrayList<>(batchSize);
+			for (int j = 0; j < batchSize; j++){
+				amounts.add(String.valueOf(random.nextInt(100000) / 100.0));
+			}
+			String regularBatch = MultistreamProcessor.mergeDataForGeneralCase(amounts);
+			newRegularFrames[i] = encodeFrame(regularBatch);
+			newQuitFrames[i] = encodeFrame(MultistreamProcessor.mergeDataForQuitCase(amounts, appTerminator));
+			newOpeningFrames[i] = encodeFrame(MultistreamProcessor.prependControlRecords(regularBatch, ControlCommand.DELTA_MODE, ControlCommand.SNAPSHOT));
+		}
+		regularFrames = newRegularFrames;
+		quitFrames = newQuitFrames;
+		openingFrames = newOpeningFrames;
+	}
+
+	private ByteBuffer encodeFrame(String batch) throws IOException {
+		return FrameCodec.encodeFrame(binaryProtocol ? MultistreamProcessor.convertXMLDataToBinary(batch) : batch.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/* A single connection and its schedule - only accessed by the thread of its driver */
+	private class LoadConnection implements Comparable<LoadConnection> {
+
+		private final int port;
+		private SocketChannel channel;
+		private SelectionKey selectionKey;
+		private boolean connected;
+		private boolean awaitingReply;
+		private boolean quitSent;
+		private boolean opened;
+		//Time the connection needs the attention of its driver: the next batch falling due or the next connection attempt
+		private long wakeNanos;
+		//Time the next batch is due, and the time the current one was due and actually sent
+		private long dueNanos;
+		private long intendedNanos;
+		private long sentNanos;
+		private ByteBuffer outboundFrame;
+		private final ByteBuffer replyHeader = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH);
+		private ByteBuffer replyPayload;
+
+		LoadConnection(int port, long firstDueNanos) {
+			this.port = port;
+			this.dueNanos = firstDueNanos;
+			this.wakeNanos = firstDueNanos;
+		}
+
+		@Override
+		public int compareTo(LoadConnection otherConnection) {
+			return Long.compare(wakeNanos, otherConnection.wakeNanos);
+		}
+
+	}
+
+	/* Thread driving its share of the connections through a selector - it sends the batches as they fall due and reads the replies */
+	private class LoadDriver implements Runnable {
+
+		private final Selector selector;
+		private final Random random;
+		//The connections ready to send their next batch (or to be opened again), by wake-up time
+		private final PriorityQueue<LoadConnection> scheduledConnections = new PriorityQueue<>();
+
+		LoadDriver(int driverIndex) throws IOException {
+			selector = Selector.open();
+			random = new Random(driverIndex);
+		}
+
+		void addConnection(LoadConnection loadConnection) {
+			scheduledConnections.add(loadConnection);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running){
+					long now = System.nanoTime();
+					LoadConnection loadConnection;
+					while ((loadConnection = scheduledConnections.peek()) != null && loadConnection.wakeNanos <= now){
+						scheduledConnections.poll();
+						if (loadConnection.channel == null){
+							connect(loadConnection);
+						} else {
+							sendBatch(loadConnection, now);
+						}
+					}
+					long waitNanos = loadConnection == null ? TimeUnit.MILLISECONDS.toNanos(10) : loadConnection.wakeNanos - now;
+					//The selector waits for whole milliseconds - polling instead would take the cores away from the server on the same host, so
+					//the batches may leave up to a millisecond late (which the corrected latency includes)
+					if (waitNanos <= 0){
+						selector.selectNow();
+					} else {
+						selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+					}
+					Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+					while (selectedKeys.hasNext()){
+						SelectionKey selectionKey = selectedKeys.next();
+						selectedKeys.remove();
+						handleKey(selectionKey);
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("The load driver stopped due to the following exception: " + e);
+			} finally {
+				for (SelectionKey selectionKey : selector.keys()){
+					closeQuietly(selectionKey.channel());
+				}
+				closeQuietly(selector);
+			}
+		}
+
+		private void connect(LoadConnection loadConnection) {
+			try {
+				loadConnection.channel = SocketChannel.open();
+				loadConnection.channel.configureBlocking(false);
+				loadConnection.connected = loadConnection.channel.connect(new InetSocketAddress(host, loadConnection.port));
+				loadConnection.opened = false;
+				loadConnection.selectionKey = loadConnection.channel.register(selector, loadConnection.connected ? 0 : SelectionKey.OP_CONNECT, loadConnection);
+				if (loadConnection.connected){
+					schedule(loadConnection, loadConnection.dueNanos);
+				}
+			} catch (IOException e) {
+				fail(loadConnection, e);
+			}
+		}
+
+		private void sendBatch(LoadConnection loadConnection, long now) {
+			ByteBuffer[] frames = regularFrames;
+			loadConnection.quitSent = random.nextDouble() < quitRatio;
+			if (loadConnection.quitSent){
+				frames = quitFrames;
+			} else if (deltaResponses && !loadConnection.opened){
+				frames = openingFrames;
+			}
+			loadConnection.opened = true;
+			loadConnection.outboundFrame = frames[random.nextInt(frames.length)].duplicate();
+			loadConnection.intendedNanos = loadConnection.dueNanos;
+			loadConnection.sentNanos = now;
+			loadConnection.awaitingReply = true;
+			loadConnection.replyHeader.clear();
+			loadConnection.replyPayload = null;
+			try {
+				writeOutbound(loadConnection);
+			} catch (IOException e) {
+				fail(loadConnection, e);
+			}
+		}
+
+		private void writeOutbound(LoadConnection loadConnection) throws IOException {
+			loadConnection.channel.write(loadConnection.outboundFrame);
+			loadConnection.selectionKey.interestOps(loadConnection.outboundFrame.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		private void handleKey(SelectionKey selectionKey) {
+			LoadConnection loadConnection = (LoadConnection) selectionKey.attachment();
+			try {
+				if (selectionKey.isConnectable() && loadConnection.channel.finishConnect()){
+					loadConnection.connected = true;
+					selectionKey.interestOps(0);
+					schedule(loadConnection, loadConnection.dueNanos);
+					return;
+				}
+				if (selectionKey.isWritable()){
+					writeOutbound(loadConnection);
+				}
+				if (selectionKey.isReadable()){
+					readReply(loadConnection);
+				}
+			} catch (IOException e) {
+				fail(loadConnection, e);
+			}
+		}
+
+		private void readReply(LoadConnection loadConnection) throws IOException {
+			SocketChannel channel = loadConnection.channel;
+			if (loadConnection.replyHeader.hasRemaining() && channel.read(loadConnection.replyHeader) < 0){
+				throw new IOException("The server closed the connection before answering");
+			}
+			if (loadConnection.replyHeader.hasRemaining()){
+				return;
+			}
+			if (loadConnection.replyPayload == null){
+				loadConnection.replyPayload = ByteBuffer.allocate(loadConnection.replyHeader.getInt(0));
+			}
+			if (loadConnection.replyPayload.hasRemaining() && channel.read(loadConnection.replyPayload) < 0){
+				throw new IOException("The server closed the connection in the middle of a reply");
+			}
+			if (loadConnection.replyPayload.hasRemaining() || !loadConnection.awaitingReply){
+				return;
+			}
+			long now = System.nanoTime();
+			if (measuring){
+				correctedHistogram.record(now - loadConnection.intendedNanos);
+				serviceHistogram.record(now - loadConnection.sentNanos);
+				nbOfBatches.increment();
+				nbOfReplyBytes.add(FrameCodec.HEADER_LENGTH + loadConnection.replyPayload.capacity());
+			}
+			loadConnection.awaitingReply = false;
+			//The following batch keeps its place in the schedule however late this one was
+			loadConnection.dueNanos = loadConnection.intendedNanos + batchIntervalNanos;
+			if (loadConnection.quitSent){
+				//The server closes the connection after answering the quit record, the client opens a new one like a restarted client would
+				closeQuietly(channel);
+				loadConnection.channel = null;
+				loadConnection.connected = false;
+				nbOfReconnects.increment();
+				connect(loadConnection);
+				return;
+			}
+			loadConnection.selectionKey.interestOps(0);
+			schedule(loadConnection, loadConnection.dueNanos);
+		}
+
+		private void schedule(LoadConnection loadConnection, long wakeNanos) {
+			loadConnection.wakeNanos = wakeNanos;
+			scheduledConnections.add(loadConnection);
+		}
+
+		//Drop the failed connection and open it again after a short delay - the batch in flight is lost, while the following ones keep
+		//their place in the schedule, so the outage shows up in their latency
+		private void fail(LoadConnection loadConnection, IOException e) {
+			if (running){
+				nbOfErrors.increment();
+				lastError = "port " + loadConnection.port + ": " + e;
+			}
+			closeQuietly(loadConnection.channel);
+			loadConnection.channel = null;
+			loadConnection.connected = false;
+			if (loadConnection.awaitingReply){
+				loadConnection.awaitingReply = false;
+				loadConnection.dueNanos = loadConnection.intendedNanos + batchIntervalNanos;
+			}
+			scheduledConnections.remove(loadConnection);
+			schedule(loadConnection, System.nanoTime() + RECONNECT_DELAY_NANOS);
+		}
+
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null){
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			//Nothing left to do with the failed connection
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Properties loadProps = MultistreamProcessor.loadEntityConfiguration(args.length > 0 ? args[0] : LOAD_CONFIGURATION_FILE);
+		if (loadProps == null){
+			System.err.println("Unable to load the configuration of the load...Please check the configuration file path!");
+			return;
+		}
+		new LoadGenerator(loadProps).run();
+	}
+
+}
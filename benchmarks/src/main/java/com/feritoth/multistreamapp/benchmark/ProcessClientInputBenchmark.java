@@ -0,0 +1,55 @@
+package com.feritoth.multistreamapp.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.feritoth.multistreamapp.server.MultistreamServer;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+
+/* Whole server processing of a client batch: decoding, merging into the aggregate and serializing the response. The aggregate is
+ * pre-filled with a fixed history, every invocation merges its batch into the same timestamp, so the response size stays stable. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class ProcessClientInputBenchmark {
+	
+	private static final String TERMINATOR = "Quit";
+	
+	@Param({"1", "100", "10000"})
+	private int batchSize;
+	
+	@Param({"1000"})
+	private int historySize;
+	
+	private MultistreamServer multistreamServer;
+	private String clientBatch;
+	
+	@Setup(Level.Trial)
+	public void createServer() throws IOException {
+		multistreamServer = new MultistreamServer();
+		multistreamServer.processClientInput(BenchmarkData.createHistoryBatch(historySize), TERMINATOR);
+		clientBatch = MultistreamProcessor.convertAmountValues(BenchmarkData.createAmountLines(batchSize));
+	}
+	
+	@Benchmark
+	public String processClientInput() throws IOException {
+		return multistreamServer.processClientInput(clientBatch, TERMINATOR);
+	}
+
+}
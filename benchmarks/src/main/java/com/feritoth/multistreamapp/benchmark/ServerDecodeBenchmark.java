@@ -0,0 +1,81 @@
+package com.feritoth.multistreamapp.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.CoreData;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+import com.feritoth.multistreamapp.utility.RecordHandler;
+import com.feritoth.multistreamapp.utility.XmlRecordDecoder;
+
+/* Server side decoding of the XML records - the original per-line Jackson mapping next to the streaming decoder of whole batches */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class ServerDecodeBenchmark {
+	
+	@Param({"1", "100", "10000"})
+	private int batchSize;
+	
+	private String[] recordLines;
+	private byte[] batchPayload;
+	
+	@Setup
+	public void createRecords() throws IOException {
+		String batch = MultistreamProcessor.convertAmountValues(BenchmarkData.createAmountLines(batchSize));
+		recordLines = batch.split("\n");
+		batchPayload = batch.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Benchmark
+	public void convertXMLDataRecordToCoreData(Blackhole blackhole) throws IOException {
+		for (String recordLine : recordLines){
+			CoreData coreData = MultistreamProcessor.convertXMLDataRecordToCoreData(recordLine);
+			blackhole.consume(coreData);
+		}
+	}
+	
+	@Benchmark
+	public int decodeRecords(Blackhole blackhole) throws IOException {
+		return XmlRecordDecoder.decodeRecords(ByteBuffer.wrap(batchPayload), new RecordHandler() {
+			@Override
+			public void onAmount(long timestamp, double amount) {
+				blackhole.consume(timestamp);
+				blackhole.consume(amount);
+			}
+			@Override
+			public void onHalt(long timestamp, String haltMessage) {
+				blackhole.consume(haltMessage);
+			}
+			@Override
+			public void onControl(ControlCommand controlCommand) {
+				blackhole.consume(controlCommand);
+			}
+			@Override
+			public void onQuery(QueryRequest queryRequest) {
+				blackhole.consume(queryRequest);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.feritoth.multistreamapp.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.server.MultistreamServer;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.FrameCodec;
+
+/* Load comparison of the server modes: every benchmark thread is an active client doing round trips of small binary batches over its own
+ * connection, while the given number of idle connections stays open next to them. The server runs inside the forked benchmark JVM, a new
+ * one for every mode, so the results are only comparable between the modes of the same run. */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Threads(8)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class ServerModeLoadBenchmark {
+
+	private static final String HOST = "127.0.0.1";
+	private static final int PORT = 21111;
+
+	@Param({MultistreamServer.SINGLE_REACTOR_MODE, MultistreamServer.MULTI_REACTOR_MODE, MultistreamServer.VIRTUAL_THREAD_MODE})
+	private String serverMode;
+
+	@Param({"100", "5000"})
+	private int idleConnections;
+
+	@Param({"10"})
+	private int batchSize;
+
+	private List<SocketChannel> idleChannels;
+
+	@Setup(Level.Trial)
+	public void startServer() throws IOException, InterruptedException {
+		Properties serverProps = new Properties();
+		serverProps.setProperty("ports", String.valueOf(PORT));
+		serverProps.setProperty("mainHost", HOST);
+		serverProps.setProperty("appTerminator", "Quit");
+		serverProps.setProperty("bufferCapacity", "4096");
+		serverProps.setProperty("temporaryMessage", "No values available for the moment unfortunately!");
+		serverProps.setProperty("serverMode", serverMode);
+		serverProps.setProperty("ioThreads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		serverProps.setProperty("pooledBuffers", "1024");
+		Thread serverThread = new Thread(() -> {
+			try {
+				new MultistreamServer().startMultistreamServer(serverProps);
+			} catch (IOException | NumberFormatException | ClassNotFoundException e) {
+				throw new IllegalStateException(e);
+			}
+		}, "benchmark-server");
+		serverThread.setDaemon(true);
+		serverThread.start();
+		idleChannels = new ArrayList<>(idleConnections);
+		idleChannels.add(connect());
+		for (int i = 1; i < idleConnections; i++){
+			idleChannels.add(SocketChannel.open(new InetSocketAddress(HOST, PORT)));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void closeIdleConnections() throws IOException {
+		for (SocketChannel idleChannel : idleChannels){
+			idleChannel.close();
+		}
+	}
+
+	//Wait for the server to listen
+	static SocketChannel connect() throws IOException, InterruptedException {
+		for (int attempt = 0; ; attempt++){
+			try {
+				return SocketChannel.open(new InetSocketAddress(HOST, PORT));
+			} catch (IOException e) {
+				if (attempt == 100){
+					throw e;
+				}
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/* The connection of a single active client, switched to the delta responses so that the replies stay small */
+	@State(Scope.Thread)
+	public static class ActiveClient {
+
+		private SocketChannel clientChannel;
+		private byte[] clientBatch;
+
+		@Setup(Level.Trial)
+		public void connectClient(ServerModeLoadBenchmark benchmark) throws IOException, InterruptedException {
+			clientChannel = connect();
+			FrameCodec.writeFrame(clientChannel, new BinaryRecordCodec.RequestBuilder(1).addControl(ControlCommand.DELTA_MODE).build().array());
+			FrameCodec.readFrame(clientChannel);
+			BinaryRecordCodec.RequestBuilder requestBuilder = new BinaryRecordCodec.RequestBuilder(benchmark.batchSize);
+			for (int i = 0; i < benchmark.batchSize; i++){
+				requestBuilder.addAmount(BenchmarkData.START_TIME + i, 1.0);
+			}
+			clientBatch = requestBuilder.build().array();
+		}
+
+		@TearDown(Level.Trial)
+		public void disconnectClient() throws IOException {
+			clientChannel.close();
+		}
+
+	}
+
+	@Benchmark
+	public byte[] roundTrip(ActiveClient activeClient) throws IOException {
+		FrameCodec.writeFrame(activeClient.clientChannel, activeClient.clientBatch);
+		return FrameCodec.readFrame(activeClient.clientChannel);
+	}
+
+}
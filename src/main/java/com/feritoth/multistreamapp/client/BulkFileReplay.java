@@ -0,0 +1,89 @@
+package com.feritoth.multistreamapp.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.utility.AmountFileParser;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+import com.feritoth.multistreamapp.utility.RecordHandler;
+
+/* Bulk ingestion mode of the clients: the amounts of a history file are parsed out of the memory-mapped file and streamed to the
+ * configured port through a pipelined client (one per shard of a cluster) using large batches, the throughput being reported at the end of the replay */
+public class BulkFileReplay {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(BulkFileReplay.class);
+	//Batch size used for the replays unless the configuration tells otherwise
+	public static final int DEFAULT_REPLAY_BATCH_SIZE = 10000;
+
+	private BulkFileReplay(){}
+
+	/* Static method for replaying the given file with the connection settings of the given client configuration */
+	public static void replay(Properties clientProps, Path amountFile) throws IOException {
+		Properties replayProps = new Properties();
+		replayProps.putAll(clientProps);
+		replayProps.setProperty("batchSize", clientProps.getProperty("replayBatchSize", String.valueOf(DEFAULT_REPLAY_BATCH_SIZE)));
+		//The compact binary records are the cheapest to encode and decode, while only the final totals matter so the replies are kept small
+		replayProps.setProperty("protocol", "binary");
+		replayProps.setProperty("deltaResponses", "true");
+		AmountFileParser amountFileParser = new AmountFileParser(System.currentTimeMillis());
+		long startTime = System.nanoTime();
+		//The amounts go straight to the shards owning them when the configuration lists the shards of a cluster
+		try (ShardedClient shardedClient = ShardedClient.fromProperties(replayProps)){
+			amountFileParser.parse(amountFile, new RecordHandler() {
+				@Override
+				public void onAmount(long timestamp, double amount) throws IOException {
+					CompletableFuture<String> reply = shardedClient.submit(timestamp, amount);
+					//Stop reading the file as soon as the connection is lost
+					if (reply.isCompletedExceptionally()){
+						throw new IOException("The replay of " + amountFile + " has been aborted after " + amountFileParser.getNbOfAmounts() + " amounts");
+					}
+				}
+				@Override
+				public void onHalt(long timestamp, String haltMessage) {
+					//The amount files hold no halt records
+				}
+				@Override
+				public void onControl(ControlCommand controlCommand) {
+					//The amount files hold no control records
+				}
+				@Override
+				public void onQuery(QueryRequest queryRequest) {
+					//The amount files hold no queries
+				}
+			});
+		}
+		//The pipelined clients wait for all the replies before closing
+		double elapsedSeconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+		LOGGER.info("Replayed " + amountFileParser.getNbOfAmounts() + " amounts (" + amountFileParser.getNbOfSkippedLines() + " malformed lines skipped) out of "
+				+ amountFileParser.getNbOfBytes() + " bytes in " + String.format("%.3f", elapsedSeconds) + " s: "
+				+ String.format("%.0f amounts/s, %.2f MB/s", amountFileParser.getNbOfAmounts() / elapsedSeconds, amountFileParser.getNbOfBytes() / elapsedSeconds / (1024 * 1024)));
+	}
+
+	//Usage: BulkFileReplay <amount file> [client configuration file]
+	public static void main(String[] args){
+		if (args.length == 0){
+			LOGGER.error("Please specify the file to be replayed and optionally the client configuration file (" + MultistreamClientA.FIRST_CLIENT_CONFIGURATION_FILE + " by default)");
+			return;
+		}
+		Properties clientProps = MultistreamProcessor.loadEntityConfiguration(args.length > 1 ? args[1] : MultistreamClientA.FIRST_CLIENT_CONFIGURATION_FILE);
+		if (clientProps == null){
+			LOGGER.error("Unable to proceed with client configuration due to unavailable properties...Please check the configuration file path and restart the app!");
+			return;
+		}
+		try {
+			replay(clientProps, Paths.get(args[0]));
+		} catch (IOException | NumberFormatException e) {
+			LOGGER.error("Unable to replay the amount file due to the following exception:" + e);
+		}
+	}
+
+}
@@ -2,8 +2,9 @@ package com.feritoth.multistreamapp.client;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Properties;
 
@@ -11,6 +12,9 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.utility.CompressionCodec;
+import com.feritoth.multistreamapp.utility.FrameCodec;
 import com.feritoth.multistreamapp.utility.MultistreamProcessor;
 
 public class MultistreamClientA {
@@ -35,28 +39,68 @@ public class MultistreamClientA {
 		Integer port = Integer.valueOf(firstClientProps.getProperty("port"));
 		String appTerminatorKeyword = firstClientProps.getProperty("appTerminator");
 		String processingTerminatorKeyword = firstClientProps.getProperty("processingTerminator");
-		String bufferCapacity = firstClientProps.getProperty("bufferCapacity");
+		boolean deltaResponses = Boolean.parseBoolean(firstClientProps.getProperty("deltaResponses", "false"));
+		boolean binaryProtocol = "binary".equalsIgnoreCase(firstClientProps.getProperty("protocol", "xml").trim());
+		boolean compressResponses = Boolean.parseBoolean(firstClientProps.getProperty("compressResponses", "false").trim());
 		
+		//A configured history file is replayed in bulk instead of reading any amounts from the console
+		String replayFile = firstClientProps.getProperty("replayFile", "").trim();
+		if (!replayFile.isEmpty()){
+			BulkFileReplay.replay(firstClientProps, Paths.get(replayFile));
+			return;
+		}
+		//The non-interactive producers stream their amounts from the standard input through the pipelined client
+		if (!Boolean.parseBoolean(firstClientProps.getProperty("interactive", "true").trim())){
+			PipelinedClient.produceAmounts(firstClientProps, System.in);
+			return;
+		}
+
 		//Create next the connection channel and its address
 		InetSocketAddress multistreamAddress = new InetSocketAddress(hostname, port);
 		SocketChannel multistreamClient = SocketChannel.open(multistreamAddress);
 		LOGGER.info("Connecting to Server on host " + hostname + " and port " + port + "...");
+		//The last aggregate version seen in delta mode - a snapshot is requested first and whenever versions have been skipped
+		long lastSeenVersion = -1;
+		boolean snapshotNeeded = true;
+		//The large responses are compressed by the server once asked for it along with the first message
+		CompressionCodec compressionCodec = compressResponses ? new CompressionCodec() : null;
+		boolean compressionNeeded = compressResponses;
 		while (true){
 			//Get the final input
 			String finalTestInput = processConsoleInput(appTerminatorKeyword, processingTerminatorKeyword);
 			LOGGER.info("The final test input is:\n" + finalTestInput);
 			//Check if the message is not null
 			if (StringUtils.isNotBlank(finalTestInput)){
+				//Opt in for the delta responses if configured so
+				if (deltaResponses && snapshotNeeded){
+					finalTestInput = MultistreamProcessor.prependControlRecords(finalTestInput, ControlCommand.DELTA_MODE, ControlCommand.SNAPSHOT);
+				}
+				if (compressionNeeded){
+					finalTestInput = MultistreamProcessor.prependControlRecords(finalTestInput, ControlCommand.COMPRESS);
+					compressionNeeded = false;
+				}
 				//Encode it and send it over the server via an output byte buffer
-				byte[] finalMessage = finalTestInput.getBytes();
-				ByteBuffer outputBuffer = ByteBuffer.wrap(finalMessage);
-				multistreamClient.write(outputBuffer);
+				//The queries have no binary representation, so their frames always go as XML records
+				byte[] finalMessage = binaryProtocol && !MultistreamProcessor.containsQueryRecords(finalTestInput) ? MultistreamProcessor.convertXMLDataToBinary(finalTestInput) : finalTestInput.getBytes(StandardCharsets.UTF_8);
+				FrameCodec.writeFrame(multistreamClient, finalMessage);
 				LOGGER.info("Sending: " + finalTestInput);
-				//Log out the result received from the server via an input buffer
-				ByteBuffer inputBuffer = ByteBuffer.allocate(Integer.valueOf(bufferCapacity));
-				multistreamClient.read(inputBuffer);
-				String response = new String(inputBuffer.array()).trim();
+				//Log out the result received from the server once its complete frame arrived
+				byte[] responseFrame = FrameCodec.readFrame(multistreamClient);
+				if (responseFrame == null){
+					LOGGER.warn("The server closed the connection before answering...");
+					break;
+				}
+				if (compressionCodec != null){
+					responseFrame = compressionCodec.decompress(responseFrame);
+				}
+				String response = binaryProtocol ? MultistreamProcessor.convertBinaryResponseToJSON(responseFrame) : new String(responseFrame, StandardCharsets.UTF_8).trim();
 				LOGGER.info("The current status of processed values is:\n" + response);
+				if (deltaResponses && !MultistreamProcessor.containsQueryRecords(finalTestInput) && !MultistreamProcessor.containsStatsRecord(finalTestInput)){
+					//Other clients produced the skipped versions, which are not covered by the received deltas
+					long responseVersion = MultistreamProcessor.extractResponseVersion(response);
+					snapshotNeeded = responseVersion < 0 || (!snapshotNeeded && responseVersion > lastSeenVersion + 1);
+					lastSeenVersion = responseVersion;
+				}
 				//Break the loop in case of detecting a "Quit" command
 				if (StringUtils.containsIgnoreCase(finalTestInput, appTerminatorKeyword)){
 					break;
@@ -67,7 +111,10 @@ public class MultistreamClientA {
 		}
 		
 		//Close the client if "Quit" command is detected inside the transmitted input
-		multistreamClient.close();		
+		multistreamClient.close();
+		if (compressionCodec != null){
+			compressionCodec.close();
+		}		
 	}
 	
 	//method used for triggering the processing of the console input information
@@ -0,0 +1,385 @@
+package com.feritoth.multistreamapp.client;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.FrameCodec;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+
+/* Programmatic client for the non-interactive producers: the submitted amounts are coalesced into batches, which are sent once they are
+ * full or once their first amount waited for the linger time. Several batches can be in flight on the same connection - the server
+ * answers the frames of a connection in order, so every reply completes the future of the oldest unanswered batch. The bytes in flight
+ * are also kept within the credit window granted by the server when connecting, so the client pauses instead of flooding the server. */
+public class PipelinedClient implements Closeable {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedClient.class);
+	//Defaults used whenever the configuration does not tell otherwise
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final long DEFAULT_LINGER_MILLIS = 5;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+	private final SocketChannel channel;
+	private final int batchSize;
+	private final long lingerNanos;
+	private final boolean binaryProtocol;
+	private final boolean deltaResponses;
+	private final String appTerminatorKeyword;
+	//Bounds the number of batches sent but not answered yet
+	private final Semaphore inFlightPermits;
+	//Bounds the number of request bytes sent but not answered yet to the credit window of the server
+	private final int creditBytes;
+	private final Semaphore creditPermits;
+	//The batches sent over, in the order of their replies
+	private final ConcurrentLinkedQueue<PendingBatch> inFlightBatches;
+	//The batches waiting for the sender thread, guarded by the client itself
+	private final ArrayDeque<PendingBatch> readyBatches;
+	private PendingBatch openBatch;
+	private boolean closing;
+	private volatile IOException failure;
+	private boolean firstFrameSent;
+	private final Thread senderThread;
+	private final Thread receiverThread;
+
+	public PipelinedClient(String hostname, int port, int batchSize, long lingerMillis, int maxInFlight, boolean binaryProtocol, boolean deltaResponses, String appTerminatorKeyword) throws IOException {
+		this.channel = SocketChannel.open(new InetSocketAddress(hostname, port));
+		this.batchSize = Math.max(1, batchSize);
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+		this.binaryProtocol = binaryProtocol;
+		this.deltaResponses = deltaResponses;
+		this.appTerminatorKeyword = appTerminatorKeyword;
+		this.inFlightPermits = new Semaphore(Math.max(1, maxInFlight));
+		this.inFlightBatches = new ConcurrentLinkedQueue<>();
+		this.readyBatches = new ArrayDeque<>();
+		this.creditBytes = requestCredit();
+		this.creditPermits = new Semaphore(creditBytes);
+		LOGGER.info("Pipelined client connected to server on host " + hostname + " and port " + port + " with a credit window of " + creditBytes + " bytes...");
+		this.senderThread = new Thread(this::runSender, "multistream-client-sender");
+		this.receiverThread = new Thread(this::runReceiver, "multistream-client-receiver");
+		senderThread.setDaemon(true);
+		receiverThread.setDaemon(true);
+		senderThread.start();
+		receiverThread.start();
+	}
+
+	/* Static factory method creating the client out of the client configuration file properties */
+	public static PipelinedClient fromProperties(Properties clientProps) throws IOException {
+		return new PipelinedClient(clientProps.getProperty("host"), Integer.valueOf(clientProps.getProperty("port").trim()),
+				Integer.valueOf(clientProps.getProperty("batchSize", String.valueOf(DEFAULT_BATCH_SIZE)).trim()),
+				Long.valueOf(clientProps.getProperty("lingerMillis", String.valueOf(DEFAULT_LINGER_MILLIS)).trim()),
+				Integer.valueOf(clientProps.getProperty("maxInFlight", String.valueOf(DEFAULT_MAX_IN_FLIGHT)).trim()),
+				"binary".equalsIgnoreCase(clientProps.getProperty("protocol", "xml").trim()),
+				Boolean.parseBoolean(clientProps.getProperty("deltaResponses", "false").trim()),
+				clientProps.getProperty("appTerminator"));
+	}
+
+	//Submit an amount stamped with the current time - the future completes with the JSON reply of the batch holding it
+	public CompletableFuture<String> submit(double amount) {
+		return submit(System.currentTimeMillis(), amount);
+	}
+
+	//Submit an amount for the given timestamp without blocking - the future completes with the JSON reply of the batch holding it
+	public synchronized CompletableFuture<String> submit(long timestamp, double amount) {
+		if (closing || failure != null){
+			CompletableFuture<String> rejectedReply = new CompletableFuture<>();
+			rejectedReply.completeExceptionally(failure != null ? failure : new IOException("The client is closed"));
+			return rejectedReply;
+		}
+		if (openBatch == null){
+			openBatch = new PendingBatch(batchSize);
+			//The sender has to start measuring the linger time of the new batch
+			notifyAll();
+		}
+		PendingBatch currentBatch = openBatch;
+		currentBatch.add(timestamp, amount);
+		if (currentBatch.nbOfAmounts >= batchSize){
+			sealOpenBatch();
+		}
+		return currentBatch.reply;
+	}
+
+	//Send the amounts submitted so far without waiting for the linger time - returns the future of their batch
+	public synchronized CompletableFuture<String> flush() {
+		if (openBatch == null){
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<String> reply = openBatch.reply;
+		sealOpenBatch();
+		return reply;
+	}
+
+	public int getNbOfInFlightBatches() {
+		return inFlightBatches.size();
+	}
+
+	//Send the remaining amounts, wait for all the replies and resign from the server
+	@Override
+	public void close() throws IOException {
+		PendingBatch haltBatch;
+		synchronized (this){
+			if (closing){
+				return;
+			}
+			if (failure != null){
+				closing = true;
+				channel.close();
+				return;
+			}
+			sealOpenBatch();
+			haltBatch = new PendingBatch(0);
+			haltBatch.halt = true;
+			readyBatches.add(haltBatch);
+			closing = true;
+			notifyAll();
+		}
+		try {
+			haltBatch.reply.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the last replies of the server");
+		} catch (ExecutionException e) {
+			LOGGER.warn("The client did not resign cleanly due to the following exception:" + e.getCause());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* Static method for streaming the amounts found on the given input (one per line) through a pipelined client (one per shard
+	 * when the shards of a cluster are configured) - it replaces the console loop for the producers which are not interactive, the input
+	 * ending on the application terminator or on its end */
+	public static void produceAmounts(Properties clientProps, InputStream input) throws IOException {
+		String appTerminatorKeyword = clientProps.getProperty("appTerminator");
+		long nbOfAmounts = 0;
+		long startTime = System.currentTimeMillis();
+		try (ShardedClient shardedClient = ShardedClient.fromProperties(clientProps);
+			 BufferedReader inputReader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))){
+			String inputLine;
+			while ((inputLine = inputReader.readLine()) != null && !StringUtils.equals(inputLine.trim(), appTerminatorKeyword)){
+				try {
+					shardedClient.submit(Double.parseDouble(inputLine.trim()));
+					nbOfAmounts++;
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Unable to convert the given amount " + inputLine + " as it is not a valid number unfortunately...");
+				}
+			}
+		}
+		LOGGER.info(nbOfAmounts + " amounts sent over to the server in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	//Move the open batch to the ones waiting for the sender - called while holding the client
+	private void sealOpenBatch() {
+		if (openBatch != null){
+			readyBatches.add(openBatch);
+			openBatch = null;
+			notifyAll();
+		}
+	}
+
+	//Take the next batch to be sent: a sealed one or the open one once it lingered long enough - null once the client is closed
+	private synchronized PendingBatch takeNextBatch() throws InterruptedException {
+		while (true){
+			if (!readyBatches.isEmpty()){
+				return readyBatches.poll();
+			}
+			if (failure != null || (closing && openBatch == null)){
+				return null;
+			}
+			if (openBatch == null){
+				wait();
+				continue;
+			}
+			long lingerLeft = openBatch.createdNanos + lingerNanos - System.nanoTime();
+			if (lingerLeft <= 0){
+				PendingBatch lingeredBatch = openBatch;
+				openBatch = null;
+				return lingeredBatch;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, lingerLeft);
+		}
+	}
+
+	private void runSender() {
+		try {
+			PendingBatch nextBatch;
+			while ((nextBatch = takeNextBatch()) != null){
+				//Wait for a free slot before sending - the producers keep filling new batches meanwhile
+				inFlightPermits.acquire();
+				byte[] payload = encodeBatch(nextBatch);
+				//A batch larger than the whole window is only sent once nothing else is in flight
+				nextBatch.creditBytes = Math.min(payload.length, creditBytes);
+				creditPermits.acquire(nextBatch.creditBytes);
+				//The batch goes in flight before being written, so that its reply always finds it
+				inFlightBatches.add(nextBatch);
+				//A failure which drained the batches in flight before this one got added would never answer it
+				if (failure != null){
+					inFlightBatches.remove(nextBatch);
+					nextBatch.reply.completeExceptionally(failure);
+					return;
+				}
+				FrameCodec.writeFrame(channel, payload);
+				if (nextBatch.halt){
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(new IOException("The sender thread has been interrupted"));
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void runReceiver() {
+		try {
+			byte[] responseFrame;
+			while ((responseFrame = FrameCodec.readFrame(channel)) != null){
+				PendingBatch answeredBatch = inFlightBatches.poll();
+				if (answeredBatch == null){
+					throw new IOException("Reply received without any batch in flight");
+				}
+				inFlightPermits.release();
+				creditPermits.release(answeredBatch.creditBytes);
+				String response = binaryProtocol ? MultistreamProcessor.convertBinaryResponseToJSON(responseFrame) : new String(responseFrame, StandardCharsets.UTF_8).trim();
+				answeredBatch.reply.complete(response);
+				if (answeredBatch.halt){
+					return;
+				}
+			}
+			fail(new IOException("The server closed the connection"));
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	//Ask the server for the credit window of the connection - the replies of the later frames give the credit of their requests back
+	private int requestCredit() throws IOException {
+		FrameCodec.writeFrame(channel, MultistreamProcessor.createControlRecord(ControlCommand.CREDIT).getBytes(StandardCharsets.UTF_8));
+		byte[] responseFrame = FrameCodec.readFrame(channel);
+		if (responseFrame == null){
+			throw new IOException("The server closed the connection before granting any credit");
+		}
+		long grantedBytes = MultistreamProcessor.extractCreditBytes(new String(responseFrame, StandardCharsets.UTF_8).trim());
+		if (grantedBytes <= 0){
+			LOGGER.warn("The server did not grant any credit window, only the number of batches in flight will be bounded");
+			return Integer.MAX_VALUE / 2;
+		}
+		return (int) Math.min(grantedBytes, Integer.MAX_VALUE / 2);
+	}
+
+	//Encode the batch in the configured protocol - the first frame switches the connection to the delta responses if configured so
+	private byte[] encodeBatch(PendingBatch pendingBatch) throws IOException {
+		boolean deltaModeNeeded = deltaResponses && !firstFrameSent;
+		firstFrameSent = true;
+		if (binaryProtocol){
+			BinaryRecordCodec.RequestBuilder requestBuilder = new BinaryRecordCodec.RequestBuilder(pendingBatch.nbOfAmounts + 2);
+			if (deltaModeNeeded){
+				requestBuilder.addControl(ControlCommand.DELTA_MODE);
+			}
+			for (int i = 0; i < pendingBatch.nbOfAmounts; i++){
+				requestBuilder.addAmount(pendingBatch.timestamps[i], pendingBatch.amounts[i]);
+			}
+			if (pendingBatch.halt){
+				requestBuilder.addHalt(System.currentTimeMillis());
+			}
+			return requestBuilder.build().array();
+		}
+		StringBuilder records = new StringBuilder();
+		if (deltaModeNeeded){
+			records.append(MultistreamProcessor.createControlRecord(ControlCommand.DELTA_MODE)).append("\n");
+		}
+		for (int i = 0; i < pendingBatch.nbOfAmounts; i++){
+			records.append(MultistreamProcessor.convertDataRecordToXMLLine(pendingBatch.amounts[i], pendingBatch.timestamps[i])).append("\n");
+		}
+		if (pendingBatch.halt){
+			records.append(MultistreamProcessor.createSpecialXMLDataRecord(appTerminatorKeyword, System.currentTimeMillis()));
+		}
+		return records.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	//Fail every batch which will never be answered
+	private void fail(IOException cause) {
+		boolean firstFailure;
+		synchronized (this){
+			firstFailure = failure == null;
+			if (firstFailure){
+				LOGGER.warn("The pipelined client failed due to the following exception:" + cause);
+				failure = cause;
+			}
+			if (openBatch != null){
+				readyBatches.add(openBatch);
+				openBatch = null;
+			}
+			PendingBatch pendingBatch;
+			while ((pendingBatch = readyBatches.poll()) != null){
+				pendingBatch.reply.completeExceptionally(failure);
+			}
+			notifyAll();
+		}
+		PendingBatch inFlightBatch;
+		while ((inFlightBatch = inFlightBatches.poll()) != null){
+			inFlightBatch.reply.completeExceptionally(failure);
+		}
+		if (firstFailure){
+			//No reply is read anymore, so nothing may be written either
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOGGER.warn("Unable to close the channel of the failed client due to the following exception:" + e);
+			}
+			//Unblock the sender if it waits for a slot or for credit
+			inFlightPermits.release(Integer.MAX_VALUE / 2);
+			creditPermits.release(Integer.MAX_VALUE / 2);
+		}
+	}
+
+	/* The amounts of a single batch together with the future of its reply */
+	private static final class PendingBatch {
+
+		private final CompletableFuture<String> reply;
+		private final long createdNanos;
+		private long[] timestamps;
+		private double[] amounts;
+		private int nbOfAmounts;
+		private boolean halt;
+		private int creditBytes;
+
+		private PendingBatch(int expectedAmounts) {
+			this.reply = new CompletableFuture<>();
+			this.createdNanos = System.nanoTime();
+			this.timestamps = new long[Math.max(1, Math.min(expectedAmounts, 1024))];
+			this.amounts = new double[timestamps.length];
+		}
+
+		private void add(long timestamp, double amount) {
+			if (nbOfAmounts == timestamps.length){
+				timestamps = Arrays.copyOf(timestamps, nbOfAmounts * 2);
+				amounts = Arrays.copyOf(amounts, nbOfAmounts * 2);
+			}
+			timestamps[nbOfAmounts] = timestamp;
+			amounts[nbOfAmounts] = amount;
+			nbOfAmounts++;
+		}
+
+	}
+
+}
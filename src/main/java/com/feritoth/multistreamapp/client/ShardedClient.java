@@ -0,0 +1,94 @@
+package com.feritoth.multistreamapp.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.cluster.ShardMap;
+
+/* Client routing every amount straight to the shard owning its timestamp, through one pipelined client per shard - without any shards
+ * configured it is a plain pipelined client of the configured server. The replies of the shards only cover their own timestamps, the
+ * merged view of the cluster is served by the coordinator. */
+public class ShardedClient implements Closeable {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShardedClient.class);
+
+	private final ShardMap shardMap;
+	private final PipelinedClient[] shardClients;
+
+	public ShardedClient(ShardMap shardMap, PipelinedClient[] shardClients) {
+		if (shardMap != null && shardMap.getNbOfShards() != shardClients.length){
+			throw new IllegalArgumentException("The cluster has " + shardMap.getNbOfShards() + " shards, but " + shardClients.length + " clients were given");
+		}
+		this.shardMap = shardMap;
+		this.shardClients = shardClients;
+	}
+
+	/* Static factory method creating the client out of the client configuration file properties - the shards property takes precedence
+	 * over the host and port of the server */
+	public static ShardedClient fromProperties(Properties clientProps) throws IOException {
+		ShardMap shardMap = ShardMap.fromProperties(clientProps);
+		if (shardMap == null){
+			return new ShardedClient(null, new PipelinedClient[] {PipelinedClient.fromProperties(clientProps)});
+		}
+		PipelinedClient[] shardClients = new PipelinedClient[shardMap.getNbOfShards()];
+		try {
+			for (int i = 0; i < shardClients.length; i++){
+				Properties shardProps = new Properties();
+				shardProps.putAll(clientProps);
+				shardProps.setProperty("host", shardMap.getShardAddress(i).getHostString());
+				shardProps.setProperty("port", String.valueOf(shardMap.getShardAddress(i).getPort()));
+				shardClients[i] = PipelinedClient.fromProperties(shardProps);
+			}
+		} catch (IOException e) {
+			//Do not leave the shards connected so far behind
+			new ShardedClient(shardMap, shardClients).close();
+			throw e;
+		}
+		LOGGER.info("Sharded client connected to all the shards of " + shardMap);
+		return new ShardedClient(shardMap, shardClients);
+	}
+
+	//Submit an amount stamped with the current time - the future completes with the JSON reply of the owning shard
+	public CompletableFuture<String> submit(double amount) {
+		return submit(System.currentTimeMillis(), amount);
+	}
+
+	//Submit an amount for the given timestamp to the shard owning it - the future completes with the JSON reply of that shard
+	public CompletableFuture<String> submit(long timestamp, double amount) {
+		return shardClients[shardMap == null ? 0 : shardMap.shardOf(timestamp)].submit(timestamp, amount);
+	}
+
+	//Send the amounts submitted so far to all the shards - the future completes once all of them answered
+	public CompletableFuture<Void> flush() {
+		CompletableFuture<?>[] replies = new CompletableFuture<?>[shardClients.length];
+		for (int i = 0; i < shardClients.length; i++){
+			replies[i] = shardClients[i].flush();
+		}
+		return CompletableFuture.allOf(replies);
+	}
+
+	//Close the clients of all the shards, reporting the first failure once all of them are closed
+	@Override
+	public void close() throws IOException {
+		IOException closeFailure = null;
+		for (PipelinedClient shardClient : shardClients){
+			try {
+				if (shardClient != null){
+					shardClient.close();
+				}
+			} catch (IOException e) {
+				closeFailure = closeFailure == null ? e : closeFailure;
+			}
+		}
+		if (closeFailure != null){
+			throw closeFailure;
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.feritoth.multistreamapp.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.DataWrapper;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.core.VersionedResponse;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.FrameCodec;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+import com.feritoth.multistreamapp.utility.RecordHandler;
+
+/* Read-only client following the aggregate through the updates pushed by the server, instead of polling the whole aggregate like the
+ * console clients do: it subscribes once, receives the snapshot answering the subscription and then the new totals of the changed
+ * timestamps, at most once per subscription interval of the server. */
+public class UpdateSubscriber implements Closeable {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(UpdateSubscriber.class);
+	//Shared reader of the JSON batches, the mapper being thread-safe
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+	/* Callback receiving the snapshot first and the pushed updates afterwards, in the order of their versions */
+	public interface UpdateListener {
+		void onUpdate(long version, boolean snapshot, SortedMap<Long, Double> changedTotals);
+	}
+
+	private final SocketChannel channel;
+	private final boolean binaryProtocol;
+	//The totals received so far
+	private final TreeMap<Long, Double> totals;
+
+	public UpdateSubscriber(String hostname, int port, boolean binaryProtocol) throws IOException {
+		this.channel = SocketChannel.open(new InetSocketAddress(hostname, port));
+		this.binaryProtocol = binaryProtocol;
+		this.totals = new TreeMap<>();
+	}
+
+	/* Static factory method creating the subscriber out of the client configuration file properties */
+	public static UpdateSubscriber fromProperties(Properties clientProps) throws IOException {
+		return new UpdateSubscriber(clientProps.getProperty("host"), Integer.valueOf(clientProps.getProperty("port").trim()),
+				"binary".equalsIgnoreCase(clientProps.getProperty("protocol", "xml").trim()));
+	}
+
+	//Subscribe and hand the snapshot and every pushed update over to the listener - returns once the connection is closed
+	public void run(UpdateListener updateListener) throws IOException {
+		FrameCodec.writeFrame(channel, binaryProtocol ? new BinaryRecordCodec.RequestBuilder(1).addControl(ControlCommand.SUBSCRIBE).build().array()
+				: MultistreamProcessor.createControlRecord(ControlCommand.SUBSCRIBE).getBytes(StandardCharsets.UTF_8));
+		byte[] frame;
+		while ((frame = FrameCodec.readFrame(channel)) != null){
+			TreeMap<Long, Double> changedTotals = new TreeMap<>();
+			ByteBuffer batch = ByteBuffer.wrap(frame);
+			long version;
+			boolean snapshot;
+			if (BinaryRecordCodec.isBinaryBatch(batch)){
+				version = BinaryRecordCodec.getVersion(batch);
+				snapshot = BinaryRecordCodec.getBatchType(batch) == BinaryRecordCodec.FULL_RESPONSE;
+				BinaryRecordCodec.decodeRecords(batch, new TotalCollector(changedTotals));
+			} else {
+				VersionedResponse versionedResponse = JSON_MAPPER.readValue(frame, VersionedResponse.class);
+				version = versionedResponse.getVersion();
+				snapshot = !versionedResponse.isDelta();
+				if (versionedResponse.getAmounts() != null){
+					for (DataWrapper amountData : versionedResponse.getAmounts()){
+						changedTotals.put(amountData.getCoreElement().getTimestamp().getTime(), amountData.getCoreElement().getAmount());
+					}
+				}
+			}
+			//Every update holds the new totals of its timestamps, a snapshot replaces all of them
+			if (snapshot){
+				totals.clear();
+			}
+			totals.putAll(changedTotals);
+			updateListener.onUpdate(version, snapshot, changedTotals);
+		}
+	}
+
+	public SortedMap<Long, Double> getTotals() {
+		return Collections.unmodifiableSortedMap(totals);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	//Usage: UpdateSubscriber [client configuration file]
+	public static void main(String[] args){
+		Properties clientProps = MultistreamProcessor.loadEntityConfiguration(args.length > 0 ? args[0] : MultistreamClientA.FIRST_CLIENT_CONFIGURATION_FILE);
+		if (clientProps == null){
+			LOGGER.error("Unable to proceed with client configuration due to unavailable properties...Please check the configuration file path and restart the app!");
+			return;
+		}
+		try (UpdateSubscriber updateSubscriber = fromProperties(clientProps)){
+			updateSubscriber.run((version, snapshot, changedTotals) -> LOGGER.info((snapshot ? "Snapshot" : "Update") + " of version " + version + " received with "
+					+ changedTotals.size() + " totals, " + updateSubscriber.getTotals().size() + " timestamps followed: " + changedTotals));
+		} catch (IOException | NumberFormatException e) {
+			LOGGER.error("Unable to follow the aggregate updates due to the following exception:" + e);
+		}
+	}
+
+	/* Handler collecting the totals of a binary batch */
+	private static final class TotalCollector implements RecordHandler {
+
+		private final SortedMap<Long, Double> collectedTotals;
+
+		private TotalCollector(SortedMap<Long, Double> collectedTotals) {
+			this.collectedTotals = collectedTotals;
+		}
+
+		@Override
+		public void onAmount(long timestamp, double total) {
+			collectedTotals.put(timestamp, total);
+		}
+
+		@Override
+		public void onHalt(long timestamp, String haltMessage) {
+			LOGGER.warn("Unexpected halt record found inside the pushed update");
+		}
+
+		@Override
+		public void onControl(ControlCommand controlCommand) {
+			LOGGER.warn("Unexpected control record found inside the pushed update");
+		}
+
+		@Override
+		public void onQuery(QueryRequest queryRequest) {
+			LOGGER.warn("Unexpected query record found inside the pushed update");
+		}
+
+	}
+
+}
@@ -0,0 +1,315 @@
+package com.feritoth.multistreamapp.cluster;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.DataWrapper;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.core.QueryResult;
+import com.feritoth.multistreamapp.storage.QuantileSketch;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.CompressionCodec;
+import com.feritoth.multistreamapp.utility.FrameCodec;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+import com.feritoth.multistreamapp.utility.XmlRecordDecoder;
+
+/* A client connection of the coordinator, served on its own thread with blocking calls. Every connection owns its own connections to the
+ * shards, so the frames of a client are forwarded and answered in order without any locking. The replies look exactly like the ones of a
+ * single server, the version of the cluster being the sum of the versions reported last by the shards. */
+class CoordinatorSession implements Runnable {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(CoordinatorSession.class);
+	//Shared reader of the shard statistics, the mapper being thread-safe
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+	private final MultistreamCoordinator coordinator;
+	private final SocketChannel clientChannel;
+	private final ShardConnection[] shardConnections;
+	private boolean deltaResponses;
+	//The compression of the large replies, once the client opted in for it
+	private CompressionCodec compressionCodec;
+
+	CoordinatorSession(MultistreamCoordinator coordinator, SocketChannel clientChannel) {
+		this.coordinator = coordinator;
+		this.clientChannel = clientChannel;
+		ShardMap shardMap = coordinator.getShardMap();
+		this.shardConnections = new ShardConnection[shardMap.getNbOfShards()];
+		for (int i = 0; i < shardConnections.length; i++){
+			shardConnections[i] = new ShardConnection(shardMap, i, coordinator.getMaxFrameLength());
+		}
+	}
+
+	@Override
+	public void run() {
+		int localPort = clientChannel.socket().getLocalPort();
+		try {
+			byte[] payload;
+			while ((payload = FrameCodec.readFrame(clientChannel, coordinator.getMaxFrameLength())) != null){
+				RoutedBatch routedBatch = new RoutedBatch(coordinator.getShardMap(), coordinator.getHaltCommand(), this);
+				byte[] reply = processClientFrame(ByteBuffer.wrap(payload), routedBatch);
+				if (compressionCodec != null && reply.length >= coordinator.getCompressionThreshold()){
+					reply = compressionCodec.compress(reply);
+				}
+				FrameCodec.writeFrame(clientChannel, reply);
+				if (routedBatch.isHaltReceived()){
+					LOGGER.info("The client on port " + localPort + " will be shut down on request.");
+					break;
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Dropping the client on port " + localPort + " due to the following exception:" + e);
+		} finally {
+			closeQuietly();
+		}
+	}
+
+	void setDeltaResponses(boolean deltaResponses) {
+		this.deltaResponses = deltaResponses;
+	}
+
+	void enableCompression() {
+		if (compressionCodec == null){
+			compressionCodec = new CompressionCodec();
+		}
+	}
+
+	//Route the amounts of the frame to their shards and answer it out of the merged shard replies
+	private byte[] processClientFrame(ByteBuffer payload, RoutedBatch routedBatch) throws IOException {
+		LOGGER.info("Message of " + payload.remaining() + " bytes received on thread:" + Thread.currentThread().getName());
+		boolean binaryRequest = BinaryRecordCodec.isBinaryBatch(payload);
+		if (binaryRequest){
+			BinaryRecordCodec.decodeRecords(payload, routedBatch);
+		} else {
+			XmlRecordDecoder.decodeRecords(payload, routedBatch);
+		}
+		TimeSeriesStore touchedTotals = forwardAmounts(routedBatch);
+		//Same reply precedence as a single server: queries, statistics, credit, then the amounts
+		if (routedBatch.getQueries() != null){
+			return toBytes(MultistreamProcessor.convertQueryResultsToJSON(executeQueries(routedBatch.getQueries())));
+		}
+		if (routedBatch.isStatsRequested()){
+			return toBytes(MultistreamProcessor.convertStatsToJSON(collectShardStats()));
+		}
+		if (routedBatch.isCreditRequested()){
+			return toBytes(MultistreamProcessor.convertCreditToJSON(coordinator.getCreditBytes()));
+		}
+		if (deltaResponses && !routedBatch.isSnapshotRequested()){
+			long version = getClusterVersion();
+			return binaryRequest ? BinaryRecordCodec.encodeResponse(version, true, touchedTotals) : toBytes(MultistreamProcessor.convertAmountsToVersionedJSON(version, true, touchedTotals));
+		}
+		TimeSeriesStore mergedTotals = fetchSnapshot();
+		long version = getClusterVersion();
+		if (binaryRequest){
+			return BinaryRecordCodec.encodeResponse(version, false, mergedTotals);
+		}
+		if (deltaResponses){
+			return toBytes(MultistreamProcessor.convertAmountsToVersionedJSON(version, false, mergedTotals));
+		}
+		return toBytes(mergedTotals.isEmpty() ? coordinator.getTemporaryMessage() : MultistreamProcessor.convertAmountsToJSON(mergedTotals));
+	}
+
+	//Send every shard its part of the amounts and merge the totals they touched out of the delta replies
+	private TimeSeriesStore forwardAmounts(RoutedBatch routedBatch) throws IOException {
+		TimeSeriesStore touchedTotals = new TimeSeriesStore();
+		for (int i = 0; i < shardConnections.length; i++){
+			if (routedBatch.getShardBatch(i) != null){
+				shardConnections[i].send(routedBatch.getShardBatch(i).build().array());
+			}
+		}
+		for (int i = 0; i < shardConnections.length; i++){
+			if (routedBatch.getShardBatch(i) != null){
+				ShardConnection.ShardTotals shardTotals = shardConnections[i].receiveTotals();
+				for (int j = 0; j < shardTotals.size(); j++){
+					touchedTotals.add(shardTotals.getTimestamp(j), shardTotals.getTotal(j));
+				}
+			}
+		}
+		return touchedTotals;
+	}
+
+	//Fetch the snapshots of all the shards and merge their sorted totals into a single store
+	private TimeSeriesStore fetchSnapshot() throws IOException {
+		byte[] snapshotRequest = new BinaryRecordCodec.RequestBuilder(1).addControl(ControlCommand.SNAPSHOT).build().array();
+		for (ShardConnection shardConnection : shardConnections){
+			shardConnection.send(snapshotRequest);
+		}
+		List<ShardConnection.ShardTotals> shardSnapshots = new ArrayList<>(shardConnections.length);
+		for (ShardConnection shardConnection : shardConnections){
+			shardSnapshots.add(shardConnection.receiveTotals());
+		}
+		return mergeSortedTotals(shardSnapshots);
+	}
+
+	//k-way merge of the sorted shard totals, so that the merged store is only ever appended to - a timestamp found on several shards
+	//(after a change of the shard map) has its totals added up
+	private static TimeSeriesStore mergeSortedTotals(List<ShardConnection.ShardTotals> shardTotals) {
+		TimeSeriesStore mergedTotals = new TimeSeriesStore();
+		int[] positions = new int[shardTotals.size()];
+		while (true){
+			int smallest = -1;
+			for (int i = 0; i < positions.length; i++){
+				if (positions[i] < shardTotals.get(i).size() && (smallest < 0
+						|| shardTotals.get(i).getTimestamp(positions[i]) < shardTotals.get(smallest).getTimestamp(positions[smallest]))){
+					smallest = i;
+				}
+			}
+			if (smallest < 0){
+				return mergedTotals;
+			}
+			mergedTotals.add(shardTotals.get(smallest).getTimestamp(positions[smallest]), shardTotals.get(smallest).getTotal(positions[smallest]));
+			positions[smallest]++;
+		}
+	}
+
+	//Fan the queries out to all the shards and merge the partial results query by query
+	private List<QueryResult> executeQueries(List<QueryRequest> queries) throws IOException {
+		byte[] queryRequest = toBytes(MultistreamProcessor.convertQueriesToXML(queries));
+		for (ShardConnection shardConnection : shardConnections){
+			shardConnection.send(queryRequest);
+		}
+		List<List<QueryResult>> shardResults = new ArrayList<>(shardConnections.length);
+		for (ShardConnection shardConnection : shardConnections){
+			shardResults.add(MultistreamProcessor.convertJSONToQueryResults(new String(shardConnection.receive(), StandardCharsets.UTF_8)));
+		}
+		List<QueryResult> mergedResults = new ArrayList<>(queries.size());
+		for (int i = 0; i < queries.size(); i++){
+			QueryResult mergedResult = null;
+			for (List<QueryResult> queryResults : shardResults){
+				mergedResult = mergeQueryResult(mergedResult, queryResults.get(i));
+			}
+			if (mergedResult.getAmounts() != null && mergedResult.getLimit() != null){
+				//The top totals of the cluster are the top ones among the top totals of every shard
+				mergedResult.getAmounts().sort(Comparator.comparingDouble((DataWrapper amount) -> amount.getCoreElement().getAmount()).reversed());
+				if (mergedResult.getAmounts().size() > mergedResult.getLimit()){
+					mergedResult.setAmounts(new ArrayList<>(mergedResult.getAmounts().subList(0, mergedResult.getLimit())));
+				}
+			}
+			mergedResults.add(mergedResult);
+		}
+		return mergedResults;
+	}
+
+	//Merge the partial result of a shard into the result merged so far: the counts, sums and versions are added up, a point total is only
+	//found on the shard owning it, the top totals are collected for the final cut, the extremes of the summaries are combined and the
+	//quantiles are estimated again out of the merged sketches
+	private static QueryResult mergeQueryResult(QueryResult mergedResult, QueryResult shardResult) {
+		if (mergedResult == null){
+			if (shardResult.getAmounts() != null){
+				shardResult.setAmounts(new ArrayList<>(shardResult.getAmounts()));
+			}
+			return shardResult;
+		}
+		mergedResult.setVersion(mergedResult.getVersion() + shardResult.getVersion());
+		if (mergedResult.getSketch() != null && shardResult.getSketch() != null){
+			mergeQuantileSketches(mergedResult, shardResult);
+			return mergedResult;
+		}
+		if (mergedResult.getCount() != null && shardResult.getCount() != null){
+			mergedResult.setCount(mergedResult.getCount() + shardResult.getCount());
+		}
+		if (mergedResult.getSum() != null && shardResult.getSum() != null){
+			mergedResult.setSum(mergedResult.getSum() + shardResult.getSum());
+		}
+		if (shardResult.getAmount() != null){
+			mergedResult.setAmount(mergedResult.getAmount() != null ? mergedResult.getAmount() + shardResult.getAmount() : shardResult.getAmount());
+		}
+		if (shardResult.getAmounts() != null){
+			if (mergedResult.getAmounts() == null){
+				mergedResult.setAmounts(new ArrayList<>());
+			}
+			mergedResult.getAmounts().addAll(shardResult.getAmounts());
+		}
+		if (shardResult.getRecords() != null){
+			mergedResult.setRecords(mergedResult.getRecords() != null ? mergedResult.getRecords() + shardResult.getRecords() : shardResult.getRecords());
+		}
+		if (shardResult.getMinimum() != null && (mergedResult.getMinimum() == null || shardResult.getMinimum() < mergedResult.getMinimum())){
+			mergedResult.setMinimum(shardResult.getMinimum());
+		}
+		if (shardResult.getMaximum() != null && (mergedResult.getMaximum() == null || shardResult.getMaximum() > mergedResult.getMaximum())){
+			mergedResult.setMaximum(shardResult.getMaximum());
+		}
+		if (mergedResult.getMean() != null || shardResult.getMean() != null){
+			//The mean of the cluster is its total over its number of amounts, a point total being the total of a single timestamp
+			Double total = mergedResult.getSum() != null ? mergedResult.getSum() : mergedResult.getAmount();
+			mergedResult.setMean(total != null && mergedResult.getRecords() != null && mergedResult.getRecords() > 0 ? total / mergedResult.getRecords() : null);
+		}
+		if (mergedResult.getError() == null){
+			mergedResult.setError(shardResult.getError());
+		}
+		return mergedResult;
+	}
+
+	//Merge the quantile sketch of a shard into the merged one and estimate the quantile of the cluster out of the result
+	private static void mergeQuantileSketches(QueryResult mergedResult, QueryResult shardResult) {
+		try {
+			QuantileSketch mergedSketch = QuantileSketch.fromBytes(Base64.getDecoder().decode(mergedResult.getSketch()));
+			mergedSketch.merge(QuantileSketch.fromBytes(Base64.getDecoder().decode(shardResult.getSketch())));
+			mergedResult.setSketch(Base64.getEncoder().encodeToString(mergedSketch.toBytes()));
+			mergedResult.setRecords(mergedSketch.getCount());
+			mergedResult.setAmount(mergedSketch.isEmpty() ? null : mergedSketch.getQuantile(mergedResult.getQuantile()));
+		} catch (IOException | IllegalArgumentException e) {
+			mergedResult.setError("Unable to merge the quantile sketches of the shards: " + e.getMessage());
+		}
+	}
+
+	//Collect the statistics of every shard under its name
+	private Map<String, Object> collectShardStats() throws IOException {
+		byte[] statsRequest = new BinaryRecordCodec.RequestBuilder(1).addControl(ControlCommand.STATS).build().array();
+		for (ShardConnection shardConnection : shardConnections){
+			shardConnection.send(statsRequest);
+		}
+		Map<String, Object> clusterStats = new LinkedHashMap<>();
+		for (ShardConnection shardConnection : shardConnections){
+			clusterStats.put(shardConnection.getShardName(), JSON_MAPPER.readTree(shardConnection.receive()));
+		}
+		return clusterStats;
+	}
+
+	//The version of the cluster only grows as long as the versions of its shards do
+	private long getClusterVersion() {
+		long clusterVersion = 0;
+		for (ShardConnection shardConnection : shardConnections){
+			clusterVersion += shardConnection.getVersion();
+		}
+		return clusterVersion;
+	}
+
+	private static byte[] toBytes(String reply) {
+		return StringUtils.defaultString(reply).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void closeQuietly() {
+		if (compressionCodec != null){
+			compressionCodec.close();
+		}
+		for (ShardConnection shardConnection : shardConnections){
+			try {
+				shardConnection.close();
+			} catch (IOException e) {
+				LOGGER.warn("Unable to close the shard connection due to the following exception:" + e);
+			}
+		}
+		try {
+			clientChannel.close();
+		} catch (IOException e) {
+			LOGGER.warn("Unable to close the client channel due to the following exception:" + e);
+		}
+	}
+
+}
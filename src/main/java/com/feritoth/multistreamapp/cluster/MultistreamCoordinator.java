@@ -0,0 +1,109 @@
+package com.feritoth.multistreamapp.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.server.ThreadPerConnectionAcceptor;
+import com.feritoth.multistreamapp.utility.CompressionCodec;
+import com.feritoth.multistreamapp.utility.FrameCodec;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+
+/* Thin coordinator in front of a sharded cluster: it speaks the protocol of a single server to the clients, routes their amounts to the
+ * shards owning the timestamps and answers the snapshots and queries by fanning them out to all the shards and merging the sorted partial
+ * results. The shards are regular server instances, the clients knowing the shard map can also send their amounts to them directly. */
+public class MultistreamCoordinator {
+
+	//Path to the configuration file for the coordinator setup
+	public static final String COORDINATOR_CONFIGURATION_FILE = "coordinator.properties";
+	//The application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(MultistreamCoordinator.class);
+
+	private ShardMap shardMap;
+	private String haltCommand;
+	private String temporaryMessage;
+	private int maxFrameLength;
+	private long creditBytes;
+	private int compressionThreshold;
+
+	//The coordinator starter method for the given configuration - it keeps accepting the connections on the calling thread
+	public void startMultistreamCoordinator(Properties coordinatorProps) throws IOException {
+		shardMap = ShardMap.fromProperties(coordinatorProps);
+		if (shardMap == null){
+			LOGGER.error("No shards are configured for the coordinator...Please list them inside the shards property and restart the app!");
+			return;
+		}
+		haltCommand = coordinatorProps.getProperty("appTerminator");
+		temporaryMessage = coordinatorProps.getProperty("temporaryMessage");
+		maxFrameLength = Integer.valueOf(coordinatorProps.getProperty("maxFrameLength", String.valueOf(FrameCodec.DEFAULT_MAX_FRAME_LENGTH)).trim());
+		creditBytes = Long.valueOf(coordinatorProps.getProperty("creditBytesPerConnection", "1048576").trim());
+		compressionThreshold = Integer.valueOf(coordinatorProps.getProperty("compressionThresholdBytes", String.valueOf(CompressionCodec.DEFAULT_COMPRESSION_THRESHOLD)).trim());
+		int port = Integer.valueOf(coordinatorProps.getProperty("port").trim());
+
+		//Every client connection is served on its own (virtual) thread, as it blocks on the shards while its requests are fanned out
+		ThreadFactory sessionThreadFactory = ThreadPerConnectionAcceptor.createConnectionThreadFactory("multistream-coordinator-");
+		try (ServerSocketChannel coordinatorSocket = ServerSocketChannel.open()){
+			coordinatorSocket.socket().bind(new InetSocketAddress(coordinatorProps.getProperty("mainHost").trim(), port), 1024);
+			LOGGER.info("Coordinator started on port " + port + " in front of " + shardMap);
+			while (coordinatorSocket.isOpen()){
+				try {
+					SocketChannel clientChannel = coordinatorSocket.accept();
+					LOGGER.info("Connection accepted from client on:" + clientChannel.getLocalAddress());
+					sessionThreadFactory.newThread(new CoordinatorSession(this, clientChannel)).start();
+				} catch (ClosedChannelException e) {
+					return;
+				} catch (IOException e) {
+					LOGGER.error("Unable to accept a connection due to the following exception:" + e);
+				}
+			}
+		}
+	}
+
+	ShardMap getShardMap() {
+		return shardMap;
+	}
+
+	String getHaltCommand() {
+		return haltCommand;
+	}
+
+	String getTemporaryMessage() {
+		return temporaryMessage;
+	}
+
+	int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+
+	long getCreditBytes() {
+		return creditBytes;
+	}
+
+	int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	//Usage: MultistreamCoordinator [coordinator configuration file]
+	public static void main(String[] args){
+		Properties coordinatorProps = MultistreamProcessor.loadEntityConfiguration(args.length > 0 ? args[0] : COORDINATOR_CONFIGURATION_FILE);
+		if (coordinatorProps == null){
+			LOGGER.error("Unable to proceed with coordinator configuration due to unavailable properties...Please check the configuration file path and restart the app!");
+			return;
+		}
+		try {
+			new MultistreamCoordinator().startMultistreamCoordinator(coordinatorProps);
+		} catch (IOException e) {
+			LOGGER.error("Unable to run the coordinator due to the following exception:" + e);
+		} catch (IllegalArgumentException e) {
+			LOGGER.error("Unable to run the coordinator due to the following configuration exception:" + e);
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.feritoth.multistreamapp.cluster;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.core.QuitCommand;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.RecordHandler;
+
+/* Handler splitting the decoded records of a single client frame among the shards: the amounts are transcoded into one binary batch per
+ * shard owning some of them, while the queries and control commands are kept for the coordinator */
+class RoutedBatch implements RecordHandler {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(RoutedBatch.class);
+
+	private final ShardMap shardMap;
+	private final String terminatorKeyword;
+	private final CoordinatorSession coordinatorSession;
+	private final BinaryRecordCodec.RequestBuilder[] shardBatches;
+	private List<QueryRequest> queries;
+	private boolean snapshotRequested;
+	private boolean statsRequested;
+	private boolean creditRequested;
+	private boolean haltReceived;
+
+	RoutedBatch(ShardMap shardMap, String terminatorKeyword, CoordinatorSession coordinatorSession) {
+		this.shardMap = shardMap;
+		this.terminatorKeyword = terminatorKeyword;
+		this.coordinatorSession = coordinatorSession;
+		this.shardBatches = new BinaryRecordCodec.RequestBuilder[shardMap.getNbOfShards()];
+	}
+
+	@Override
+	public void onAmount(long timestamp, double amount) {
+		int shardIndex = shardMap.shardOf(timestamp);
+		if (shardBatches[shardIndex] == null){
+			shardBatches[shardIndex] = new BinaryRecordCodec.RequestBuilder(16);
+		}
+		shardBatches[shardIndex].addAmount(timestamp, amount);
+	}
+
+	@Override
+	public void onHalt(long timestamp, String haltMessage) {
+		//The halt only ends the client connection, the shard connections of the coordinator stay open until then
+		if (haltMessage == null || StringUtils.containsIgnoreCase(haltMessage, terminatorKeyword)){
+			LOGGER.info("Client resignation command has been received:" + new QuitCommand(new Timestamp(timestamp), haltMessage));
+			haltReceived = true;
+		} else {
+			LOGGER.warn("Ignoring the unknown halt message received from the client: " + haltMessage);
+		}
+	}
+
+	@Override
+	public void onControl(ControlCommand controlCommand) {
+		String command = StringUtils.trimToEmpty(controlCommand.getCommand());
+		if (command.equalsIgnoreCase(ControlCommand.STATS)){
+			statsRequested = true;
+		} else if (command.equalsIgnoreCase(ControlCommand.CREDIT)){
+			creditRequested = true;
+		} else if (command.equalsIgnoreCase(ControlCommand.SNAPSHOT)){
+			snapshotRequested = true;
+		} else if (command.equalsIgnoreCase(ControlCommand.DELTA_MODE)){
+			coordinatorSession.setDeltaResponses(true);
+		} else if (command.equalsIgnoreCase(ControlCommand.FULL_MODE)){
+			coordinatorSession.setDeltaResponses(false);
+		} else if (command.equalsIgnoreCase(ControlCommand.COMPRESS)){
+			coordinatorSession.enableCompression();
+		} else {
+			LOGGER.warn("Unknown control command received from the client: " + command);
+		}
+	}
+
+	@Override
+	public void onQuery(QueryRequest queryRequest) {
+		if (queries == null){
+			queries = new ArrayList<>();
+		}
+		queries.add(queryRequest);
+	}
+
+	//The batch of amounts owned by the given shard, null if the frame held none
+	BinaryRecordCodec.RequestBuilder getShardBatch(int shardIndex) {
+		return shardBatches[shardIndex];
+	}
+
+	//The queries of the frame, null if there were none
+	List<QueryRequest> getQueries() {
+		return queries;
+	}
+
+	boolean isSnapshotRequested() {
+		return snapshotRequested;
+	}
+
+	boolean isStatsRequested() {
+		return statsRequested;
+	}
+
+	boolean isCreditRequested() {
+		return creditRequested;
+	}
+
+	boolean isHaltReceived() {
+		return haltReceived;
+	}
+
+}
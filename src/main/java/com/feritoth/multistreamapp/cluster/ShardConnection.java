@@ -0,0 +1,133 @@
+package com.feritoth.multistreamapp.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.FrameCodec;
+import com.feritoth.multistreamapp.utility.RecordHandler;
+
+/* Blocking connection of the coordinator to a single shard, opened on first use and switched to the delta responses, so that forwarding
+ * amounts only brings back the totals they touched. The requests are written to all the shards first and their replies read afterwards,
+ * so the shards work on a fanned out request at the same time. */
+class ShardConnection implements Closeable {
+
+	private final ShardMap shardMap;
+	private final int shardIndex;
+	private final int maxFrameLength;
+	private SocketChannel shardChannel;
+	//The aggregate version reported last by the shard
+	private long version;
+
+	ShardConnection(ShardMap shardMap, int shardIndex, int maxFrameLength) {
+		this.shardMap = shardMap;
+		this.shardIndex = shardIndex;
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	void send(byte[] payload) throws IOException {
+		if (shardChannel == null){
+			connect();
+		}
+		FrameCodec.writeFrame(shardChannel, payload);
+	}
+
+	//Read the reply of the oldest request sent - the binary replies update the version of the shard
+	byte[] receive() throws IOException {
+		byte[] reply = FrameCodec.readFrame(shardChannel, maxFrameLength);
+		if (reply == null){
+			throw new IOException("The shard " + shardMap.getShardName(shardIndex) + " closed the connection");
+		}
+		ByteBuffer replyBatch = ByteBuffer.wrap(reply);
+		if (BinaryRecordCodec.isBinaryBatch(replyBatch)){
+			version = BinaryRecordCodec.getVersion(replyBatch);
+		}
+		return reply;
+	}
+
+	//Read the totals of a binary reply, which the shard sends in ascending timestamp order
+	ShardTotals receiveTotals() throws IOException {
+		byte[] reply = receive();
+		ByteBuffer replyBatch = ByteBuffer.wrap(reply);
+		if (!BinaryRecordCodec.isBinaryBatch(replyBatch)){
+			throw new IOException("The shard " + shardMap.getShardName(shardIndex) + " did not answer with a binary batch");
+		}
+		ShardTotals shardTotals = new ShardTotals();
+		BinaryRecordCodec.decodeRecords(replyBatch, shardTotals);
+		return shardTotals;
+	}
+
+	long getVersion() {
+		return version;
+	}
+
+	String getShardName() {
+		return shardMap.getShardName(shardIndex);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (shardChannel != null){
+			shardChannel.close();
+		}
+	}
+
+	private void connect() throws IOException {
+		shardChannel = SocketChannel.open(shardMap.getShardAddress(shardIndex));
+		FrameCodec.writeFrame(shardChannel, new BinaryRecordCodec.RequestBuilder(1).addControl(ControlCommand.DELTA_MODE).build().array());
+		receive();
+	}
+
+	/* The totals of a shard reply as parallel arrays, kept in the order of the reply */
+	static final class ShardTotals implements RecordHandler {
+
+		private long[] timestamps = new long[16];
+		private double[] totals = new double[16];
+		private int size;
+
+		@Override
+		public void onAmount(long timestamp, double total) {
+			if (size == timestamps.length){
+				timestamps = Arrays.copyOf(timestamps, size * 2);
+				totals = Arrays.copyOf(totals, size * 2);
+			}
+			timestamps[size] = timestamp;
+			totals[size] = total;
+			size++;
+		}
+
+		@Override
+		public void onHalt(long timestamp, String haltMessage) throws IOException {
+			throw new IOException("Unexpected halt record found inside the shard reply");
+		}
+
+		@Override
+		public void onControl(ControlCommand controlCommand) throws IOException {
+			throw new IOException("Unexpected control record found inside the shard reply");
+		}
+
+		@Override
+		public void onQuery(QueryRequest queryRequest) throws IOException {
+			throw new IOException("Unexpected query record found inside the shard reply");
+		}
+
+		long getTimestamp(int index) {
+			return timestamps[index];
+		}
+
+		double getTotal(int index) {
+			return totals[index];
+		}
+
+		int size() {
+			return size;
+		}
+
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.feritoth.multistreamapp.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+
+/* Partitioning of the timestamp space among the shards of a cluster, every shard being a regular server instance owning the totals of
+ * its timestamps. The timestamps are either hashed onto the shards or cut into ranges of a fixed width dealt out to the shards in turn -
+ * the clients, the coordinator and every shard configuration need to list the same shards in the same order. */
+public class ShardMap {
+
+	//The partitioning strategies
+	public static final String HASH_PARTITIONING = "hash";
+	public static final String RANGE_PARTITIONING = "range";
+	//Width of the ranges unless the configuration tells otherwise
+	public static final long DEFAULT_RANGE_MILLIS = 3600000;
+
+	private final List<InetSocketAddress> shardAddresses;
+	private final boolean rangePartitioning;
+	private final long rangeMillis;
+
+	public ShardMap(List<InetSocketAddress> shardAddresses, String partitioning, long rangeMillis) {
+		if (shardAddresses.isEmpty()){
+			throw new IllegalArgumentException("A cluster needs at least one shard");
+		}
+		if (!HASH_PARTITIONING.equalsIgnoreCase(partitioning) && !RANGE_PARTITIONING.equalsIgnoreCase(partitioning)){
+			throw new IllegalArgumentException("Unknown shard partitioning: " + partitioning);
+		}
+		if (rangeMillis <= 0){
+			throw new IllegalArgumentException("The shard ranges need to be at least 1 ms wide, got " + rangeMillis);
+		}
+		this.shardAddresses = Collections.unmodifiableList(new ArrayList<>(shardAddresses));
+		this.rangePartitioning = RANGE_PARTITIONING.equalsIgnoreCase(partitioning);
+		this.rangeMillis = rangeMillis;
+	}
+
+	/* Static factory method creating the shard map out of the "shards" property (host:port pairs separated by commas) and the partitioning
+	 * properties - returns null if no shards are configured */
+	public static ShardMap fromProperties(Properties entityProps) {
+		String shards = StringUtils.trimToEmpty(entityProps.getProperty("shards"));
+		if (shards.isEmpty()){
+			return null;
+		}
+		List<InetSocketAddress> shardAddresses = new ArrayList<>();
+		for (String shard : StringUtils.split(shards, ',')){
+			shard = shard.trim();
+			int separator = shard.lastIndexOf(':');
+			if (separator <= 0){
+				throw new IllegalArgumentException("The shard " + shard + " is not given as host:port");
+			}
+			shardAddresses.add(new InetSocketAddress(shard.substring(0, separator), Integer.parseInt(shard.substring(separator + 1))));
+		}
+		return new ShardMap(shardAddresses, entityProps.getProperty("shardPartitioning", HASH_PARTITIONING).trim(),
+				Long.parseLong(entityProps.getProperty("shardRangeMillis", String.valueOf(DEFAULT_RANGE_MILLIS)).trim()));
+	}
+
+	//Return the index of the shard owning the given timestamp
+	public int shardOf(long timestamp) {
+		if (rangePartitioning){
+			return (int) Math.floorMod(Math.floorDiv(timestamp, rangeMillis), (long) shardAddresses.size());
+		}
+		//Mix the bits first, the timestamps of a stream are often multiples of the same period
+		long hash = timestamp * 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 32;
+		return (int) Math.floorMod(hash, (long) shardAddresses.size());
+	}
+
+	public int getNbOfShards() {
+		return shardAddresses.size();
+	}
+
+	public InetSocketAddress getShardAddress(int shardIndex) {
+		return shardAddresses.get(shardIndex);
+	}
+
+	//Return the host:port name of the given shard as configured
+	public String getShardName(int shardIndex) {
+		return shardAddresses.get(shardIndex).getHostString() + ":" + shardAddresses.get(shardIndex).getPort();
+	}
+
+	@Override
+	public String toString() {
+		return "ShardMap [shards=" + shardAddresses + ", partitioning=" + (rangePartitioning ? RANGE_PARTITIONING + " of " + rangeMillis + " ms" : HASH_PARTITIONING) + "]";
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.feritoth.multistreamapp.core;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
+
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JacksonXmlRootElement(localName = "control")
+public class ControlCommand implements Serializable {
+
+	private static final long serialVersionUID = 3546120917383624805L;
+	
+	//Switches the connection to versioned delta responses
+	public static final String DELTA_MODE = "delta";
+	//Switches the connection back to the full responses
+	public static final String FULL_MODE = "full";
+	//Asks for a versioned snapshot of the whole aggregate
+	public static final String SNAPSHOT = "snapshot";
+	//Asks for the counters and latency histograms of the server instead of the amounts
+	public static final String STATS = "stats";
+	//Asks for the credit window granted to the connection
+	public static final String CREDIT = "credit";
+	//Registers the connection for the updates pushed by the server, or cancels the registration
+	public static final String SUBSCRIBE = "subscribe";
+	public static final String UNSUBSCRIBE = "unsubscribe";
+	//Opts in for the compression of the large responses
+	public static final String COMPRESS = "compress";
+	
+	private String command;
+	
+	public ControlCommand() {
+		super();
+	}
+
+	public ControlCommand(String command) {
+		super();
+		this.command = command;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public void setCommand(String command) {
+		this.command = command;
+	}
+
+	@Override
+	public String toString() {
+		return "ControlCommand [command=" + command + "]";
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.feritoth.multistreamapp.core;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
+
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JacksonXmlRootElement(localName = "query")
+public class QueryRequest implements Serializable {
+
+	private static final long serialVersionUID = -2206390384121455036L;
+	
+	//Sum and count of the totals inside [from, to]
+	public static final String RANGE = "range";
+	//Total of a single timestamp
+	public static final String POINT = "point";
+	//The limit largest totals, optionally restricted to [from, to]
+	public static final String TOP = "top";
+	//Number of amounts, minimum, maximum and mean of a single timestamp or of the timestamps inside [from, to]
+	public static final String SUMMARY = "summary";
+	//Estimated quantile of the single amounts, optionally restricted to the sketch windows overlapping [from, to]
+	public static final String QUANTILE = "quantile";
+	
+	private String type;
+	private Long from;
+	private Long to;
+	private Long timestamp;
+	private Integer limit;
+	private Double quantile;
+	
+	public QueryRequest() {
+		super();
+	}
+
+	public QueryRequest(String type) {
+		super();
+		this.type = type;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public Long getFrom() {
+		return from;
+	}
+
+	public void setFrom(Long from) {
+		this.from = from;
+	}
+
+	public Long getTo() {
+		return to;
+	}
+
+	public void setTo(Long to) {
+		this.to = to;
+	}
+
+	public Long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(Long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Integer limit) {
+		this.limit = limit;
+	}
+
+	public Double getQuantile() {
+		return quantile;
+	}
+
+	public void setQuantile(Double quantile) {
+		this.quantile = quantile;
+	}
+
+	@Override
+	public String toString() {
+		return "QueryRequest [type=" + type + ", from=" + from + ", to=" + to + ", timestamp=" + timestamp + ", limit=" + limit + ", quantile=" + quantile + "]";
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.feritoth.multistreamapp.core;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class QueryResult implements Serializable {
+
+	private static final long serialVersionUID = 6114820753300712449L;
+	
+	private String type;
+	private long version;
+	private Long from;
+	private Long to;
+	private Long timestamp;
+	private Integer limit;
+	private Integer count;
+	private Double sum;
+	private Double amount;
+	private List<DataWrapper> amounts;
+	//The statistics of the single amounts: their number, extremes and mean
+	private Long records;
+	private Double minimum;
+	private Double maximum;
+	private Double mean;
+	//The requested quantile together with the Base64 encoded sketch it was estimated out of, which the coordinator merges across the shards
+	private Double quantile;
+	private String sketch;
+	private String error;
+	
+	public QueryResult() {
+		super();
+	}
+
+	public QueryResult(String type, long version) {
+		super();
+		this.type = type;
+		this.version = version;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public Long getFrom() {
+		return from;
+	}
+
+	public void setFrom(Long from) {
+		this.from = from;
+	}
+
+	public Long getTo() {
+		return to;
+	}
+
+	public void setTo(Long to) {
+		this.to = to;
+	}
+
+	public Long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(Long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Integer limit) {
+		this.limit = limit;
+	}
+
+	public Integer getCount() {
+		return count;
+	}
+
+	public void setCount(Integer count) {
+		this.count = count;
+	}
+
+	public Double getSum() {
+		return sum;
+	}
+
+	public void setSum(Double sum) {
+		this.sum = sum;
+	}
+
+	public Double getAmount() {
+		return amount;
+	}
+
+	public void setAmount(Double amount) {
+		this.amount = amount;
+	}
+
+	public List<DataWrapper> getAmounts() {
+		return amounts;
+	}
+
+	public void setAmounts(List<DataWrapper> amounts) {
+		this.amounts = amounts;
+	}
+
+	public Long getRecords() {
+		return records;
+	}
+
+	public void setRecords(Long records) {
+		this.records = records;
+	}
+
+	public Double getMinimum() {
+		return minimum;
+	}
+
+	public void setMinimum(Double minimum) {
+		this.minimum = minimum;
+	}
+
+	public Double getMaximum() {
+		return maximum;
+	}
+
+	public void setMaximum(Double maximum) {
+		this.maximum = maximum;
+	}
+
+	public Double getMean() {
+		return mean;
+	}
+
+	public void setMean(Double mean) {
+		this.mean = mean;
+	}
+
+	public Double getQuantile() {
+		return quantile;
+	}
+
+	public void setQuantile(Double quantile) {
+		this.quantile = quantile;
+	}
+
+	public String getSketch() {
+		return sketch;
+	}
+
+	public void setSketch(String sketch) {
+		this.sketch = sketch;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	@Override
+	public String toString() {
+		return "QueryResult [type=" + type + ", version=" + version + ", from=" + from + ", to=" + to + ", timestamp=" + timestamp + ", limit=" + limit
+				+ ", count=" + count + ", sum=" + sum + ", amount=" + amount + ", amounts=" + amounts + ", records=" + records + ", minimum=" + minimum
+				+ ", maximum=" + maximum + ", mean=" + mean + ", quantile=" + quantile + ", error=" + error + "]";
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.feritoth.multistreamapp.core;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class VersionedResponse implements Serializable {
+
+	private static final long serialVersionUID = -4529840131706521477L;
+	
+	private long version;
+	private boolean delta;
+	private List<DataWrapper> amounts;
+	//Only set on the updates pushed to the subscribers, which are not replies to any request
+	private Boolean pushed;
+	
+	public VersionedResponse() {
+		super();
+	}
+
+	public VersionedResponse(long version, boolean delta, List<DataWrapper> amounts) {
+		super();
+		this.version = version;
+		this.delta = delta;
+		this.amounts = amounts;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public boolean isDelta() {
+		return delta;
+	}
+
+	public void setDelta(boolean delta) {
+		this.delta = delta;
+	}
+
+	public List<DataWrapper> getAmounts() {
+		return amounts;
+	}
+
+	public void setAmounts(List<DataWrapper> amounts) {
+		this.amounts = amounts;
+	}
+
+	public Boolean getPushed() {
+		return pushed;
+	}
+
+	public void setPushed(Boolean pushed) {
+		this.pushed = pushed;
+	}
+
+	@Override
+	public String toString() {
+		return "VersionedResponse [version=" + version + ", delta=" + delta + ", amounts=" + amounts + ", pushed=" + pushed + "]";
+	}
+
+}
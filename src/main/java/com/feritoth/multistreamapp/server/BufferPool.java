@@ -0,0 +1,59 @@
+package com.feritoth.multistreamapp.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Pool of reusable direct buffers of a fixed capacity - larger buffers are handed out on demand, but never retained */
+public class BufferPool {
+
+	private final int bufferCapacity;
+	private final int maxPooledBuffers;
+	private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers;
+	private final AtomicInteger pooledCount;
+
+	public BufferPool(int bufferCapacity, int maxPooledBuffers) {
+		this.bufferCapacity = bufferCapacity;
+		this.maxPooledBuffers = maxPooledBuffers;
+		this.freeBuffers = new ConcurrentLinkedQueue<>();
+		this.pooledCount = new AtomicInteger();
+	}
+
+	//Hand out a cleared buffer of the standard capacity
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = freeBuffers.poll();
+		if (buffer == null){
+			return ByteBuffer.allocateDirect(bufferCapacity);
+		}
+		pooledCount.decrementAndGet();
+		return buffer;
+	}
+
+	//Hand out a cleared buffer able to hold at least the given number of bytes
+	public ByteBuffer acquire(int minCapacity) {
+		if (minCapacity <= bufferCapacity){
+			return acquire();
+		}
+		//Round up to the next multiple of the standard capacity to limit the number of regrowths
+		int capacity = (int) Math.min(Integer.MAX_VALUE, ((long) minCapacity + bufferCapacity - 1) / bufferCapacity * bufferCapacity);
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	//Give a buffer back - only standard sized buffers are kept for reuse
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferCapacity){
+			return;
+		}
+		if (pooledCount.incrementAndGet() > maxPooledBuffers){
+			pooledCount.decrementAndGet();
+			return;
+		}
+		buffer.clear();
+		freeBuffers.offer(buffer);
+	}
+
+	public int getBufferCapacity() {
+		return bufferCapacity;
+	}
+
+}
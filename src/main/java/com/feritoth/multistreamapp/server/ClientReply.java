@@ -0,0 +1,60 @@
+package com.feritoth.multistreamapp.server;
+
+import java.nio.ByteBuffer;
+
+import com.feritoth.multistreamapp.utility.FrameCodec;
+
+/* Outcome of processing a client frame - the response to be sent back and whether the connection needs to be closed afterwards. The
+ * response is either a payload array (possibly shared with other replies, hence never modified) or a frame already streamed into pooled
+ * buffers */
+public class ClientReply {
+
+	private final byte[] payload;
+	private final ByteBuffer[] frameBuffers;
+	private final boolean closeRequested;
+
+	public ClientReply(byte[] payload, boolean closeRequested) {
+		this.payload = payload;
+		this.frameBuffers = null;
+		this.closeRequested = closeRequested;
+	}
+
+	public ClientReply(ByteBuffer[] frameBuffers, boolean closeRequested) {
+		this.payload = null;
+		this.frameBuffers = frameBuffers;
+		this.closeRequested = closeRequested;
+	}
+
+	//The payload of the reply - null once it has been streamed into a frame
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public boolean isStreamed() {
+		return frameBuffers != null;
+	}
+
+	//The buffers of the whole frame, ready for a gathering write - the payload array is wrapped behind its header without being copied
+	public ByteBuffer[] getFrameBuffers() {
+		if (frameBuffers != null){
+			return frameBuffers;
+		}
+		ByteBuffer header = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH);
+		header.putInt(0, payload.length);
+		return new ByteBuffer[]{header, ByteBuffer.wrap(payload)};
+	}
+
+	//Give the streamed buffers back to the pool when the reply is not going to be sent
+	public void releaseFrame(BufferPool bufferPool) {
+		if (frameBuffers != null){
+			for (ByteBuffer frameBuffer : frameBuffers){
+				bufferPool.release(frameBuffer);
+			}
+		}
+	}
+
+	public boolean isCloseRequested() {
+		return closeRequested;
+	}
+
+}
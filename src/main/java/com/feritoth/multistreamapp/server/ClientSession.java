@@ -0,0 +1,209 @@
+package com.feritoth.multistreamapp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.utility.CompressionCodec;
+
+/* Per-connection state attached to the selection key of every accepted client */
+public class ClientSession {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(ClientSession.class);
+
+	//Largest number of queued buffers handed to a single gathering write
+	private static final int MAX_GATHERED_BUFFERS = 64;
+
+	private final FrameAccumulator frameAccumulator;
+	//The pool the streamed replies are borrowed from, null when the replies are written by blocking calls
+	private final BufferPool outboundPool;
+	//The buffers of the frames waiting for the channel to accept them, together with their total size and its upper bound
+	private final ArrayDeque<ByteBuffer> outboundQueue;
+	private final ByteBuffer[] gatheredBuffers;
+	private final long maxQueuedBytes;
+	private long queuedBytes;
+	//The queued bytes above which the connection stops being read and the ones below which it is read again
+	private final long outboundHighWatermark;
+	private final long outboundLowWatermark;
+	private boolean outboundPaused;
+	//Whether some frames of the connection are being processed by a worker
+	private boolean processing;
+	//Whether the connection needs to be closed as soon as the queued frames have been written
+	private boolean closeAfterFlush;
+	//Whether the client opted in for versioned delta responses
+	private boolean deltaResponses;
+	//The delivery of the pushed updates, set by the server mode serving the connection
+	private PushTarget pushTarget;
+	//The compression of the large replies, once the client opted in for it
+	private volatile CompressionCodec compressionCodec;
+
+	public ClientSession(FrameAccumulator frameAccumulator, long maxQueuedBytes) {
+		this(frameAccumulator, null, maxQueuedBytes, maxQueuedBytes, maxQueuedBytes);
+	}
+
+	public ClientSession(FrameAccumulator frameAccumulator, BufferPool outboundPool, long maxQueuedBytes, long outboundHighWatermark, long outboundLowWatermark) {
+		this.frameAccumulator = frameAccumulator;
+		this.outboundPool = outboundPool;
+		this.outboundQueue = new ArrayDeque<>();
+		this.gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+		this.maxQueuedBytes = maxQueuedBytes;
+		this.outboundHighWatermark = outboundHighWatermark;
+		this.outboundLowWatermark = Math.min(outboundLowWatermark, outboundHighWatermark);
+	}
+
+	//Queue the buffers of a frame for sending - returns false if the queue would grow beyond its configured bound
+	public boolean enqueueOutbound(ByteBuffer... frameBuffers) {
+		long frameLength = 0;
+		for (ByteBuffer frameBuffer : frameBuffers){
+			frameLength += frameBuffer.remaining();
+		}
+		if (queuedBytes + frameLength > maxQueuedBytes){
+			return false;
+		}
+		for (ByteBuffer frameBuffer : frameBuffers){
+			outboundQueue.addLast(frameBuffer);
+		}
+		queuedBytes += frameLength;
+		if (queuedBytes > outboundHighWatermark){
+			outboundPaused = true;
+		}
+		return true;
+	}
+
+	//Write as much of the queued frames as the channel accepts without blocking, several buffers per gathering write - returns true once
+	//the queue is empty
+	public boolean flushOutbound(SocketChannel clientChannel) throws IOException {
+		while (!outboundQueue.isEmpty()){
+			int nbOfBuffers = 0;
+			long gatheredBytes = 0;
+			for (ByteBuffer frameBuffer : outboundQueue){
+				gatheredBuffers[nbOfBuffers++] = frameBuffer;
+				gatheredBytes += frameBuffer.remaining();
+				if (nbOfBuffers == gatheredBuffers.length){
+					break;
+				}
+			}
+			long writtenBytes = clientChannel.write(gatheredBuffers, 0, nbOfBuffers);
+			queuedBytes -= writtenBytes;
+			if (queuedBytes <= outboundLowWatermark){
+				outboundPaused = false;
+			}
+			boolean channelFull = writtenBytes < gatheredBytes;
+			Arrays.fill(gatheredBuffers, 0, nbOfBuffers, null);
+			ByteBuffer frameBuffer;
+			while ((frameBuffer = outboundQueue.peekFirst()) != null && !frameBuffer.hasRemaining()){
+				releaseBuffer(outboundQueue.pollFirst());
+			}
+			if (channelFull){
+				return false;
+			}
+		}
+		outboundPaused = false;
+		return true;
+	}
+
+	//Drop whatever is still queued once the connection is closed
+	public void clearOutbound() {
+		ByteBuffer frameBuffer;
+		while ((frameBuffer = outboundQueue.pollFirst()) != null){
+			releaseBuffer(frameBuffer);
+		}
+		queuedBytes = 0;
+	}
+
+	//The direct buffers of the queue all come from the pool (the payload arrays are only wrapped), the pool itself ignoring the others
+	private void releaseBuffer(ByteBuffer frameBuffer) {
+		if (outboundPool != null && frameBuffer.isDirect()){
+			outboundPool.release(frameBuffer);
+		}
+	}
+
+	//Apply a control command received from the client - returns true if a full snapshot has been requested
+	public boolean applyControlCommand(ControlCommand controlCommand) {
+		LOGGER.info("Client control command has been received:" + controlCommand.toString());
+		String command = StringUtils.trimToEmpty(controlCommand.getCommand());
+		if (command.equalsIgnoreCase(ControlCommand.DELTA_MODE)){
+			deltaResponses = true;
+		} else if (command.equalsIgnoreCase(ControlCommand.FULL_MODE)){
+			deltaResponses = false;
+		} else if (command.equalsIgnoreCase(ControlCommand.SNAPSHOT)){
+			return true;
+		} else if (command.equalsIgnoreCase(ControlCommand.COMPRESS)){
+			if (compressionCodec == null){
+				compressionCodec = new CompressionCodec();
+			}
+		} else {
+			LOGGER.warn("Unknown control command received from the client: " + command);
+		}
+		return false;
+	}
+
+	public FrameAccumulator getFrameAccumulator() {
+		return frameAccumulator;
+	}
+
+	public BufferPool getOutboundPool() {
+		return outboundPool;
+	}
+
+	public long getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	//Whether the replies waiting for the client passed the high watermark and did not get below the low one yet
+	public boolean isOutboundPaused() {
+		return outboundPaused;
+	}
+
+	public boolean isProcessing() {
+		return processing;
+	}
+
+	public void setProcessing(boolean processing) {
+		this.processing = processing;
+	}
+
+	public boolean isCloseAfterFlush() {
+		return closeAfterFlush;
+	}
+
+	public void setCloseAfterFlush(boolean closeAfterFlush) {
+		this.closeAfterFlush = closeAfterFlush;
+	}
+
+	public CompressionCodec getCompressionCodec() {
+		return compressionCodec;
+	}
+
+	//Release the compression codec once the connection is closed
+	public void releaseCompressionCodec() {
+		if (compressionCodec != null){
+			compressionCodec.close();
+		}
+	}
+
+	PushTarget getPushTarget() {
+		return pushTarget;
+	}
+
+	void setPushTarget(PushTarget pushTarget) {
+		this.pushTarget = pushTarget;
+	}
+
+	public boolean isDeltaResponses() {
+		return deltaResponses;
+	}
+
+	public void setDeltaResponses(boolean deltaResponses) {
+		this.deltaResponses = deltaResponses;
+	}
+
+}
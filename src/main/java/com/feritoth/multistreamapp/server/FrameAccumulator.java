@@ -0,0 +1,104 @@
+package com.feritoth.multistreamapp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import com.feritoth.multistreamapp.utility.FrameCodec;
+
+/* Per-connection accumulator collecting the bytes read from a channel until complete length-prefixed frames are available */
+public class FrameAccumulator {
+
+	/* Callback receiving the payload of each complete frame - the buffer is only valid for the duration of the call */
+	public interface FrameHandler {
+		boolean onFrame(ByteBuffer payload) throws IOException;
+	}
+
+	private final BufferPool bufferPool;
+	private final int maxFrameLength;
+	//The buffer is borrowed from the pool only while there are pending bytes
+	private ByteBuffer accumulator;
+
+	public FrameAccumulator(BufferPool bufferPool, int maxFrameLength) {
+		this.bufferPool = bufferPool;
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	//Read whatever the channel has to offer into the accumulator
+	public int readFrom(SocketChannel channel) throws IOException {
+		if (accumulator == null){
+			accumulator = bufferPool.acquire();
+		} else if (!accumulator.hasRemaining()){
+			grow(accumulator.capacity() * 2);
+		}
+		return channel.read(accumulator);
+	}
+
+	//Hand at most the given number of complete frames to the handler, keeping the remaining bytes for the next call - the handler may stop the draining by returning false
+	public int drainFrames(FrameHandler handler, int maxFrames) throws IOException {
+		if (accumulator == null){
+			return 0;
+		}
+		accumulator.flip();
+		int nbOfFrames = 0;
+		int pendingFrameLength = -1;
+		boolean proceed = true;
+		while (proceed && nbOfFrames < maxFrames && accumulator.remaining() >= FrameCodec.HEADER_LENGTH){
+			int frameStart = accumulator.position();
+			int payloadLength = accumulator.getInt(frameStart);
+			if (payloadLength < 0 || payloadLength > maxFrameLength){
+				throw new IOException("Invalid frame length received from the client: " + payloadLength);
+			}
+			if (accumulator.remaining() - FrameCodec.HEADER_LENGTH < payloadLength){
+				pendingFrameLength = FrameCodec.HEADER_LENGTH + payloadLength;
+				break;
+			}
+			int payloadStart = frameStart + FrameCodec.HEADER_LENGTH;
+			ByteBuffer payload = accumulator.duplicate();
+			payload.limit(payloadStart + payloadLength).position(payloadStart);
+			accumulator.position(payloadStart + payloadLength);
+			nbOfFrames++;
+			proceed = handler.onFrame(payload.slice());
+		}
+		if (accumulator == null){
+			//The handler closed the connection and released the buffer already
+			return nbOfFrames;
+		}
+		accumulator.compact();
+		if (accumulator.position() == 0){
+			//Nothing pending anymore - give the buffer back so that idle connections do not hold any memory
+			bufferPool.release(accumulator);
+			accumulator = null;
+		} else if (pendingFrameLength > accumulator.capacity()){
+			grow(pendingFrameLength);
+		}
+		return nbOfFrames;
+	}
+
+	//Number of bytes received but not handed over yet
+	public int getPendingBytes() {
+		return accumulator == null ? 0 : accumulator.position();
+	}
+
+	//Check whether a complete frame is waiting for being drained
+	public boolean hasCompleteFrame() {
+		return accumulator != null && accumulator.position() >= FrameCodec.HEADER_LENGTH
+				&& (long) accumulator.getInt(0) + FrameCodec.HEADER_LENGTH <= accumulator.position();
+	}
+
+	//Give back the borrowed buffer once the connection is closed
+	public void release() {
+		bufferPool.release(accumulator);
+		accumulator = null;
+	}
+
+	//Move the pending bytes into a larger buffer (the accumulator is expected to be in write mode)
+	private void grow(int minCapacity) {
+		ByteBuffer largerBuffer = bufferPool.acquire(minCapacity);
+		accumulator.flip();
+		largerBuffer.put(accumulator);
+		bufferPool.release(accumulator);
+		accumulator = largerBuffer;
+	}
+
+}
@@ -0,0 +1,385 @@
+package com.feritoth.multistreamapp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/* Event loop owning a selector - depending on the server mode it accepts the connections, serves the connections assigned to it or both.
+ * The frames are either processed right on the loop thread or handed over to the worker pool of the server. A connection gets at most
+ * maxFramesPerRead frames processed per loop iteration, the rest waiting inside its backlog, and it is not read anymore while its
+ * unprocessed bytes exceed its credit window or its unsent replies exceed the outbound high watermark - so a flooding client is slowed
+ * down by TCP instead of starving the others. */
+public class IoReactor implements Runnable {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(IoReactor.class);
+
+	private final MultistreamServer multistreamServer;
+	private final Selector selector;
+	private final String reactorName;
+	//Tasks handed over by the other threads (new connections, replies computed by the workers)
+	private final ConcurrentLinkedQueue<Runnable> pendingTasks;
+	//Connections holding complete frames which have not been processed yet
+	private final Set<SelectionKey> backloggedKeys;
+	private volatile Thread reactorThread;
+
+	public IoReactor(MultistreamServer multistreamServer, String reactorName) throws IOException {
+		this.multistreamServer = multistreamServer;
+		this.selector = Selector.open();
+		this.reactorName = reactorName;
+		this.pendingTasks = new ConcurrentLinkedQueue<>();
+		this.backloggedKeys = new LinkedHashSet<>();
+	}
+
+	//Register a listening channel - to be called before the reactor starts running
+	public void registerServerChannel(ServerSocketChannel serverChannel) throws ClosedChannelException {
+		SelectionKey selectionKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		LOGGER.info("The selectionKey associated to the current socket is:" + selectionKey);
+	}
+
+	//Take over a newly accepted connection - can be called from any thread
+	public void assignConnection(SocketChannel clientChannel) {
+		execute(() -> registerConnection(clientChannel));
+	}
+
+	//Run the given task on the reactor thread
+	public void execute(Runnable task) {
+		if (Thread.currentThread() == reactorThread){
+			task.run();
+			return;
+		}
+		pendingTasks.offer(task);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		reactorThread = Thread.currentThread();
+		LOGGER.info("The reactor " + reactorName + " is running...");
+		while (selector.isOpen()){
+			try {
+				runPendingTasks();
+				//Pick a set of keys for whom the corresponding channels are ready for the I/O operations - without waiting if some frames are backlogged
+				int nbOfAvailableChannels = backloggedKeys.isEmpty() ? selector.select() : selector.selectNow();
+				LOGGER.debug("The number of currently available channels is:" + nbOfAvailableChannels);
+				//Time the work done for the ready channels, the waiting inside select() is left out
+				long iterationStart = System.nanoTime();
+				runPendingTasks();
+				Iterator<SelectionKey> tokenSetIterator = selector.selectedKeys().iterator();
+				while (tokenSetIterator.hasNext()){
+					SelectionKey currentTokenKey = tokenSetIterator.next();
+					//Remove the given element once it has been processed to avoid caching
+					tokenSetIterator.remove();
+					if (!currentTokenKey.isValid()){
+						continue;
+					}
+					if (currentTokenKey.isAcceptable()){
+						acceptConnection(currentTokenKey);
+						continue;
+					}
+					//An unexpected failure drops only the connection in question, the reactor keeps serving the others
+					try {
+						if (currentTokenKey.isWritable()){
+							processWritableClient(currentTokenKey);
+						}
+						if (currentTokenKey.isValid() && currentTokenKey.isReadable()){
+							processReadableClient(currentTokenKey);
+						}
+					} catch (RuntimeException e) {
+						LOGGER.error("Dropping the client on port " + ((SocketChannel) currentTokenKey.channel()).socket().getLocalPort() + " due to the following unexpected exception:" + e);
+						closeConnection(currentTokenKey);
+					}
+				}
+				processBacklog();
+				multistreamServer.getServerMetrics().getSelectorLoopHistogram().recordSince(iterationStart);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.error("The reactor " + reactorName + " encountered the following exception:" + e);
+			}
+		}
+	}
+
+	//Accept a new connection and hand it over to the reactor picked by the server
+	private void acceptConnection(SelectionKey serverKey) throws IOException {
+		SocketChannel multistreamAcceptClient = ((ServerSocketChannel) serverKey.channel()).accept();
+		if (multistreamAcceptClient == null){
+			return;
+		}
+		multistreamAcceptClient.configureBlocking(false);
+		LOGGER.info("Connection accepted from client on:" + multistreamAcceptClient.getLocalAddress());
+		multistreamServer.nextReactor().assignConnection(multistreamAcceptClient);
+	}
+
+	//Register the connection for reading together with its session
+	private void registerConnection(SocketChannel clientChannel) {
+		try {
+			ClientSession clientSession = new ClientSession(new FrameAccumulator(multistreamServer.getBufferPool(), multistreamServer.getMaxFrameLength()),
+					multistreamServer.getBufferPool(), multistreamServer.getMaxQueuedBytes(), multistreamServer.getOutboundHighWatermark(), multistreamServer.getOutboundLowWatermark());
+			SelectionKey clientKey = clientChannel.register(selector, SelectionKey.OP_READ, clientSession);
+			clientSession.setPushTarget(subscription -> execute(() -> pushUpdates(clientKey, subscription)));
+			multistreamServer.getServerMetrics().connectionOpened(clientChannel.socket().getLocalPort());
+		} catch (IOException e) {
+			LOGGER.warn("Unable to register the accepted client due to the following exception:" + e);
+			closeQuietly(clientChannel);
+		}
+	}
+
+	//Read the available bytes of a client and process the complete frames received so far
+	private void processReadableClient(SelectionKey clientKey) {
+		SocketChannel multistreamReadWriteClient = (SocketChannel) clientKey.channel();
+		ClientSession clientSession = (ClientSession) clientKey.attachment();
+		try {
+			if (clientSession.getFrameAccumulator().readFrom(multistreamReadWriteClient) < 0){
+				LOGGER.info("The client on port " + multistreamReadWriteClient.socket().getLocalPort() + " closed the connection.");
+				closeConnection(clientKey);
+				return;
+			}
+			processFrames(clientKey);
+		} catch (IOException e) {
+			LOGGER.warn("Dropping the client on port " + multistreamReadWriteClient.socket().getLocalPort() + " due to the following exception:" + e);
+			closeConnection(clientKey);
+		}
+	}
+
+	//Process the next frames of every backlogged connection - one round per loop iteration keeps the connections taking turns
+	private void processBacklog() {
+		if (backloggedKeys.isEmpty()){
+			return;
+		}
+		List<SelectionKey> clientKeys = new ArrayList<>(backloggedKeys);
+		backloggedKeys.clear();
+		for (SelectionKey clientKey : clientKeys){
+			if (!clientKey.isValid()){
+				continue;
+			}
+			try {
+				processFrames(clientKey);
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warn("Dropping the client on port " + ((SocketChannel) clientKey.channel()).socket().getLocalPort() + " due to the following exception:" + e);
+				closeConnection(clientKey);
+			}
+		}
+	}
+
+	//Process up to maxFramesPerRead complete frames of a connection, either right away or on a worker
+	private void processFrames(SelectionKey clientKey) throws IOException {
+		ClientSession clientSession = (ClientSession) clientKey.attachment();
+		if (isProcessingAllowed(clientSession)){
+			ExecutorService workerPool = multistreamServer.getWorkerPool();
+			if (workerPool == null){
+				clientSession.getFrameAccumulator().drainFrames(payload -> sendReply(clientKey, multistreamServer.processClientFrame(clientSession, payload)), multistreamServer.getMaxFramesPerRead());
+			} else {
+				dispatchFrames(clientKey, workerPool);
+			}
+		}
+		updateReadInterest(clientKey);
+	}
+
+	//Whether new frames of the connection can be processed: not while a worker holds its previous frames or while its replies pile up
+	private boolean isProcessingAllowed(ClientSession clientSession) {
+		return !clientSession.isCloseAfterFlush() && !clientSession.isProcessing() && !clientSession.isOutboundPaused();
+	}
+
+	//Keep reading the connection only while it stays within its credit window and its outbound watermark - and backlog its unprocessed frames
+	private void updateReadInterest(SelectionKey clientKey) {
+		if (!clientKey.isValid()){
+			return;
+		}
+		ClientSession clientSession = (ClientSession) clientKey.attachment();
+		FrameAccumulator frameAccumulator = clientSession.getFrameAccumulator();
+		boolean processingAllowed = isProcessingAllowed(clientSession);
+		//A partial frame is always completed, its size being bounded by the largest frame accepted
+		if (processingAllowed && !(frameAccumulator.getPendingBytes() > multistreamServer.getCreditBytes() && frameAccumulator.hasCompleteFrame())){
+			clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_READ);
+		} else {
+			clientKey.interestOps(clientKey.interestOps() & ~SelectionKey.OP_READ);
+		}
+		if (processingAllowed && frameAccumulator.hasCompleteFrame()){
+			backloggedKeys.add(clientKey);
+		}
+	}
+
+	//Resume writing the replies which did not fit into the socket buffer before - and resume reading once they got below the low watermark
+	private void processWritableClient(SelectionKey clientKey) {
+		try {
+			flushClient(clientKey);
+			updateReadInterest(clientKey);
+		} catch (IOException e) {
+			LOGGER.warn("Dropping the client on port " + ((SocketChannel) clientKey.channel()).socket().getLocalPort() + " due to the following exception:" + e);
+			closeConnection(clientKey);
+		}
+	}
+
+	//Hand the complete frames over to a worker - the connection is not read again until the replies came back, which keeps them in order
+	private void dispatchFrames(SelectionKey clientKey, ExecutorService workerPool) throws IOException {
+		ClientSession clientSession = (ClientSession) clientKey.attachment();
+		List<ByteBuffer> clientFrames = new ArrayList<>();
+		clientSession.getFrameAccumulator().drainFrames(payload -> {
+			//The accumulator gets reused by the following reads, hence the copy
+			ByteBuffer clientFrame = ByteBuffer.allocate(payload.remaining());
+			clientFrame.put(payload).flip();
+			clientFrames.add(clientFrame);
+			return true;
+		}, multistreamServer.getMaxFramesPerRead());
+		if (clientFrames.isEmpty()){
+			return;
+		}
+		clientSession.setProcessing(true);
+		workerPool.execute(() -> {
+			List<ClientReply> clientReplies = new ArrayList<>();
+			Throwable failure = null;
+			try {
+				for (ByteBuffer clientFrame : clientFrames){
+					ClientReply clientReply = multistreamServer.processClientFrame(clientSession, clientFrame);
+					clientReplies.add(clientReply);
+					if (clientReply.isCloseRequested()){
+						break;
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				failure = e;
+			} catch (Error e) {
+				failure = e;
+				throw e;
+			} finally {
+				//The reactor always gets the frames back, otherwise the connection would stay marked as processing and never be read again
+				Throwable processingFailure = failure;
+				execute(() -> completeFrames(clientKey, clientReplies, processingFailure));
+			}
+		});
+	}
+
+	//Send the replies computed by a worker and resume reading the connection - or drop it if the worker failed
+	private void completeFrames(SelectionKey clientKey, List<ClientReply> clientReplies, Throwable processingFailure) {
+		SocketChannel multistreamReadWriteClient = (SocketChannel) clientKey.channel();
+		((ClientSession) clientKey.attachment()).setProcessing(false);
+		try {
+			//The replies of the processed frames are all queued - the watermark only holds back the following frames
+			for (ClientReply clientReply : clientReplies){
+				if (!sendReply(clientKey, clientReply) && (!clientKey.isValid() || ((ClientSession) clientKey.attachment()).isCloseAfterFlush())){
+					return;
+				}
+			}
+			if (processingFailure != null){
+				LOGGER.warn("Dropping the client on port " + multistreamReadWriteClient.socket().getLocalPort() + " due to the following exception:" + processingFailure);
+				closeConnection(clientKey);
+				return;
+			}
+			updateReadInterest(clientKey);
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Dropping the client on port " + multistreamReadWriteClient.socket().getLocalPort() + " due to the following exception:" + e);
+			closeConnection(clientKey);
+		}
+	}
+
+	//Queue the pending updates of a subscribed connection - skipped while its replies pile up or while a worker holds its frames (the
+	//update must not overtake the snapshot answering the subscription), its changes being conflated meanwhile
+	private void pushUpdates(SelectionKey clientKey, Subscription subscription) {
+		ClientSession clientSession = (ClientSession) clientKey.attachment();
+		try {
+			if (clientKey.isValid() && !clientSession.isCloseAfterFlush() && !clientSession.isOutboundPaused() && !clientSession.isProcessing()){
+				byte[] pushedUpdate = subscription.drainUpdates();
+				if (pushedUpdate != null){
+					sendReply(clientKey, new ClientReply(multistreamServer.compressReply(clientSession, pushedUpdate), false));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warn("Dropping the subscriber on port " + ((SocketChannel) clientKey.channel()).socket().getLocalPort() + " due to the following exception:" + e);
+			closeConnection(clientKey);
+		} finally {
+			subscription.pushCompleted();
+		}
+	}
+
+	//Queue the reply for the client in question before the eventual shutdown - returns false once no more frames should be processed for the client
+	private boolean sendReply(SelectionKey clientKey, ClientReply clientReply) throws IOException {
+		SocketChannel multistreamReadWriteClient = (SocketChannel) clientKey.channel();
+		ClientSession clientSession = (ClientSession) clientKey.attachment();
+		if (!clientKey.isValid() || clientSession.isCloseAfterFlush()){
+			clientReply.releaseFrame(multistreamServer.getBufferPool());
+			return false;
+		}
+		//The frame goes out by gathering writes, the payload being neither copied nor joined with its header
+		ByteBuffer[] replyFrame = clientReply.getFrameBuffers();
+		int frameLength = 0;
+		for (ByteBuffer frameBuffer : replyFrame){
+			frameLength += frameBuffer.remaining();
+		}
+		multistreamServer.getServerMetrics().messageSent(frameLength);
+		if (!clientSession.enqueueOutbound(replyFrame)){
+			clientReply.releaseFrame(multistreamServer.getBufferPool());
+			LOGGER.warn("The client on port " + multistreamReadWriteClient.socket().getLocalPort() + " does not consume its replies (" + clientSession.getQueuedBytes() + " bytes queued already), dropping it...");
+			closeConnection(clientKey);
+			return false;
+		}
+		//Check if the client needs to be shut down - this happens once the reply has been written completely
+		if (clientReply.isCloseRequested()){
+			LOGGER.info("The client on port " + multistreamReadWriteClient.socket().getLocalPort() + " and host " + multistreamReadWriteClient.socket().getInetAddress() + " will be shut down on request.");
+			LOGGER.info("Server will keep running. Try restarting the given client to establish new connection...");
+			clientSession.setCloseAfterFlush(true);
+			clientKey.interestOps(clientKey.interestOps() & ~SelectionKey.OP_READ);
+		}
+		flushClient(clientKey);
+		return clientKey.isValid() && !clientSession.isCloseAfterFlush() && !clientSession.isOutboundPaused();
+	}
+
+	//Write the queued replies without blocking - the write interest is kept only while some of them are still pending
+	private void flushClient(SelectionKey clientKey) throws IOException {
+		ClientSession clientSession = (ClientSession) clientKey.attachment();
+		if (clientSession.flushOutbound((SocketChannel) clientKey.channel())){
+			if (clientSession.isCloseAfterFlush()){
+				closeConnection(clientKey);
+				return;
+			}
+			clientKey.interestOps(clientKey.interestOps() & ~SelectionKey.OP_WRITE);
+		} else {
+			clientKey.interestOps(clientKey.interestOps() | SelectionKey.OP_WRITE);
+		}
+	}
+
+	//Close the connection and give back the buffers it holds
+	private void closeConnection(SelectionKey clientKey) {
+		clientKey.cancel();
+		backloggedKeys.remove(clientKey);
+		SocketChannel clientChannel = (SocketChannel) clientKey.channel();
+		if (clientChannel.isOpen()){
+			multistreamServer.getServerMetrics().connectionClosed(clientChannel.socket().getLocalPort());
+		}
+		closeQuietly(clientChannel);
+		ClientSession clientSession = (ClientSession) clientKey.attachment();
+		multistreamServer.getSubscriptionHub().unsubscribe(clientSession);
+		clientSession.getFrameAccumulator().release();
+		clientSession.clearOutbound();
+		clientSession.releaseCompressionCodec();
+	}
+
+	private void closeQuietly(SocketChannel clientChannel) {
+		try {
+			clientChannel.close();
+		} catch (IOException e) {
+			LOGGER.warn("Unable to close the client channel due to the following exception:" + e);
+		}
+	}
+
+	private void runPendingTasks() {
+		Runnable pendingTask;
+		while ((pendingTask = pendingTasks.poll()) != null){
+			pendingTask.run();
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.feritoth.multistreamapp.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Lock-free log-linear histogram of durations in nanoseconds - every power of two is split into 8 buckets, which keeps the relative error
+ * of the reported percentiles under 12.5%. Recording a value never allocates, so it can be used on the hot paths. */
+public class LatencyHistogram {
+	
+	//Number of buckets per power of two (as a power of two itself)
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//Values below SUB_BUCKETS get an exact bucket, the others one bucket per power of two and sub-bucket
+	private static final int NB_OF_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private final AtomicLongArray bucketCounts;
+	private final LongAdder totalCount;
+	private final LongAdder totalNanos;
+	private final AtomicLong maxNanos;
+	
+	public LatencyHistogram() {
+		this.bucketCounts = new AtomicLongArray(NB_OF_BUCKETS);
+		this.totalCount = new LongAdder();
+		this.totalNanos = new LongAdder();
+		this.maxNanos = new AtomicLong();
+	}
+	
+	public void record(long nanos) {
+		if (nanos < 0){
+			nanos = 0;
+		}
+		bucketCounts.incrementAndGet(bucketIndex(nanos));
+		totalCount.increment();
+		totalNanos.add(nanos);
+		long currentMax;
+		while (nanos > (currentMax = maxNanos.get()) && !maxNanos.compareAndSet(currentMax, nanos)){
+			//Retry until the maximum is at least the recorded value
+		}
+	}
+	
+	//Record the time elapsed since the given System.nanoTime() value
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+	
+	//Summarize the recorded values - the buckets are read one by one, so concurrent recordings may be partially reflected
+	public LatencySummary summarize() {
+		long[] counts = new long[NB_OF_BUCKETS];
+		long count = 0;
+		for (int i = 0; i < NB_OF_BUCKETS; i++){
+			counts[i] = bucketCounts.get(i);
+			count += counts[i];
+		}
+		long meanNanos = count == 0 ? 0 : totalNanos.sum() / Math.max(1, totalCount.sum());
+		long max = maxNanos.get();
+		//The midpoint of the last bucket may lie above the largest recorded value
+		return new LatencySummary(count, meanNanos, Math.min(percentile(counts, count, 0.50), max), Math.min(percentile(counts, count, 0.90), max),
+				Math.min(percentile(counts, count, 0.99), max), Math.min(percentile(counts, count, 0.999), max), max);
+	}
+	
+	public void reset() {
+		for (int i = 0; i < NB_OF_BUCKETS; i++){
+			bucketCounts.set(i, 0);
+		}
+		totalCount.reset();
+		totalNanos.reset();
+		maxNanos.set(0);
+	}
+	
+	private static long percentile(long[] counts, long count, double quantile) {
+		if (count == 0){
+			return 0;
+		}
+		long rank = (long) Math.ceil(quantile * count);
+		long seen = 0;
+		for (int i = 0; i < NB_OF_BUCKETS; i++){
+			seen += counts[i];
+			if (seen >= rank){
+				return bucketMidpoint(i);
+			}
+		}
+		return bucketMidpoint(NB_OF_BUCKETS - 1);
+	}
+	
+	static int bucketIndex(long nanos) {
+		if (nanos < SUB_BUCKETS){
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	static long bucketMidpoint(int bucketIndex) {
+		if (bucketIndex < SUB_BUCKETS){
+			return bucketIndex;
+		}
+		int exponent = bucketIndex / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long bucketWidth = 1L << (exponent - SUB_BUCKET_BITS);
+		long bucketStart = (SUB_BUCKETS + (bucketIndex & (SUB_BUCKETS - 1))) * bucketWidth;
+		return bucketStart + bucketWidth / 2;
+	}
+
+}
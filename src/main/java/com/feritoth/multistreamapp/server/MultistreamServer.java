@@ -4,63 +4,191 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.sql.Timestamp;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.feritoth.multistreamapp.core.CoreData;
-import com.feritoth.multistreamapp.core.QuitCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.core.QueryResult;
+import com.feritoth.multistreamapp.storage.AggregateMaintenance;
+import com.feritoth.multistreamapp.storage.AggregatePersistence;
+import com.feritoth.multistreamapp.storage.AmountAggregator;
+import com.feritoth.multistreamapp.storage.RollupTier;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+import com.feritoth.multistreamapp.storage.WindowedSketches;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.CompressionCodec;
+import com.feritoth.multistreamapp.utility.FrameCodec;
+import com.feritoth.multistreamapp.utility.JsonResponseEncoder;
 import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+import com.feritoth.multistreamapp.utility.ParallelRecordDecoder;
+import com.feritoth.multistreamapp.utility.XmlRecordDecoder;
 
 public class MultistreamServer {
-	
+
 	//Path to the configuration file for the server setup
 	public static final String SERVER_CONFIGURATION_FILE = "server.properties";
+	//The server modes: a single thread doing everything, an acceptor thread together with several I/O reactor threads or a (virtual) thread
+	//per connection doing blocking I/O
+	public static final String SINGLE_REACTOR_MODE = "single";
+	public static final String MULTI_REACTOR_MODE = "reactor";
+	public static final String VIRTUAL_THREAD_MODE = "virtual";
 	//The application logger
 	private static final Logger LOGGER = LoggerFactory.getLogger(MultistreamServer.class);
-	//The data map
-	private Map<Timestamp, Double> allAmounts;
-	
+	//The thread-safe owner of the total amount of each timestamp
+	private AmountAggregator amountAggregator;
+	//The pool of direct buffers backing the frame accumulators of the connections
+	private BufferPool bufferPool;
+	//The largest frame accepted from a client
+	private int maxFrameLength;
+	//The largest amount of reply bytes waiting for a single client
+	private long maxQueuedBytes;
+	//The flow control of the connections: the unprocessed bytes granted to each of them, the reply bytes above which it is not read anymore
+	//(until they get below the low watermark) and the frames processed per loop iteration
+	private long creditBytes;
+	private long outboundHighWatermark;
+	private long outboundLowWatermark;
+	private int maxFramesPerRead;
+	//Size of the replies above which they are compressed for the clients which opted in for it
+	private int compressionThreshold;
+	//The halt keyword and the response sent while no values are available
+	private String haltCommand;
+	private String temporaryMessage;
+	//The reactors serving the connections, picked in a round-robin fashion
+	private List<IoReactor> ioReactors;
+	private AtomicInteger reactorCounter;
+	//The optional pool decoding and aggregating the frames outside of the reactor threads
+	private ExecutorService workerPool;
+	//The optional decoding of the large payloads on a fork-join pool
+	private ParallelRecordDecoder parallelRecordDecoder;
+	//The optional write-ahead log and snapshots keeping the aggregate across restarts
+	private AggregatePersistence aggregatePersistence;
+	//The counters and latency histograms exposed over JMX and through the stats command
+	private ServerMetrics serverMetrics;
+	//The connections subscribed to the updates pushed by the server
+	private SubscriptionHub subscriptionHub;
+	//The pre-encoded full responses shared by all the connections
+	private SnapshotCache snapshotCache;
+
 	public MultistreamServer(){
-		allAmounts = new TreeMap<>();
+		amountAggregator = new AmountAggregator();
+		reactorCounter = new AtomicInteger();
+		serverMetrics = new ServerMetrics(amountAggregator::size);
+		subscriptionHub = new SubscriptionHub(amountAggregator);
+		snapshotCache = new SnapshotCache();
+		amountAggregator.setChangeListener(snapshotCache);
 	}
-	
+
 	//The server starter method
 	public void startMultistreamServer() throws IOException, NumberFormatException, ClassNotFoundException {
-		//Open a selector
-		Selector selector = Selector.open();
+		startMultistreamServer(SERVER_CONFIGURATION_FILE);
+	}
+
+	//The server starter method for the given configuration file - the shards of a cluster are started with their own files
+	public void startMultistreamServer(String configurationFile) throws IOException, NumberFormatException, ClassNotFoundException {
 		//Invoke the property processor method
-		Properties serverProps = MultistreamProcessor.loadEntityConfiguration(SERVER_CONFIGURATION_FILE);
+		Properties serverProps = MultistreamProcessor.loadEntityConfiguration(configurationFile);
 		if (serverProps == null){
 			//Print an error and quit the program in case of problems with the configuration
 			LOGGER.error("Unable to proceed with server configuration due to unavailable properties...Please check the configuration file path and restart the app!");
 			return;
 		}
-		
+		startMultistreamServer(serverProps);
+	}
+
+	//The server starter method for the given configuration - it keeps serving the connections on the calling thread
+	public void startMultistreamServer(Properties serverProps) throws IOException, NumberFormatException, ClassNotFoundException {
 		//Process the given property values next
 		String ports = serverProps.getProperty("ports");
 		String[] portList = ports.split(", ");
-		String haltCommand = serverProps.getProperty("appTerminator");
+		haltCommand = serverProps.getProperty("appTerminator");
 		String mainHost = serverProps.getProperty("mainHost");
 		String bufferCapacity = serverProps.getProperty("bufferCapacity");
-		String temporaryMessage = serverProps.getProperty("temporaryMessage");
-		
+		temporaryMessage = serverProps.getProperty("temporaryMessage");
+		maxFrameLength = Integer.valueOf(serverProps.getProperty("maxFrameLength", String.valueOf(FrameCodec.DEFAULT_MAX_FRAME_LENGTH)));
+		maxQueuedBytes = Long.valueOf(serverProps.getProperty("maxQueuedBytesPerConnection", "67108864").trim());
+		creditBytes = Long.valueOf(serverProps.getProperty("creditBytesPerConnection", "1048576").trim());
+		outboundHighWatermark = Long.valueOf(serverProps.getProperty("outboundHighWatermarkBytes", "4194304").trim());
+		outboundLowWatermark = Long.valueOf(serverProps.getProperty("outboundLowWatermarkBytes", "1048576").trim());
+		maxFramesPerRead = Integer.valueOf(serverProps.getProperty("maxFramesPerRead", "16").trim());
+		compressionThreshold = Integer.valueOf(serverProps.getProperty("compressionThresholdBytes", String.valueOf(CompressionCodec.DEFAULT_COMPRESSION_THRESHOLD)).trim());
+		bufferPool = new BufferPool(Integer.valueOf(bufferCapacity), Integer.valueOf(serverProps.getProperty("pooledBuffers", "64")));
+		String serverMode = serverProps.getProperty("serverMode", SINGLE_REACTOR_MODE).trim();
+		int ioThreads = Integer.valueOf(serverProps.getProperty("ioThreads", "1").trim());
+		int workerThreads = Integer.valueOf(serverProps.getProperty("workerThreads", "0").trim());
+		String persistenceDirectory = serverProps.getProperty("persistenceDirectory", "").trim();
+		long subscriptionIntervalMillis = Long.valueOf(serverProps.getProperty("subscriptionIntervalMillis", "100").trim());
+		serverMetrics.registerMBean();
+		subscriptionHub.start(subscriptionIntervalMillis, createThreadFactory("multistream-push-", true));
+		//The statistics of every timestamp and the quantile sketches per window are kept next to the totals if configured so - before anything
+		//gets merged, the recovery included
+		boolean timestampStatistics = Boolean.parseBoolean(serverProps.getProperty("timestampStatistics", "false").trim());
+		long sketchWindowMillis = Long.valueOf(serverProps.getProperty("sketchWindowMillis", "0").trim());
+		if (timestampStatistics || sketchWindowMillis > 0){
+			WindowedSketches windowedSketches = null;
+			if (sketchWindowMillis > 0){
+				windowedSketches = new WindowedSketches(sketchWindowMillis, Double.valueOf(serverProps.getProperty("sketchRelativeAccuracy", "0.01").trim()),
+						Integer.valueOf(serverProps.getProperty("sketchMaxBuckets", "2048").trim()));
+			}
+			amountAggregator.enableStatistics(timestampStatistics, windowedSketches);
+			LOGGER.info("Aggregate statistics enabled: timestamp statistics " + timestampStatistics + ", quantile sketches " + windowedSketches);
+		}
+		//The windows behind the event-time watermark are sealed into immutable columnar segments if configured so - after the statistics,
+		//which the segments keep as well
+		long watermarkLatenessMillis = Long.valueOf(serverProps.getProperty("watermarkLatenessMillis", "0").trim());
+		if (watermarkLatenessMillis > 0){
+			String segmentDirectory = serverProps.getProperty("segmentDirectory", "").trim();
+			long sealWindowMillis = Long.valueOf(serverProps.getProperty("sealWindowMillis", "60000").trim());
+			amountAggregator.enableSealing(watermarkLatenessMillis, sealWindowMillis, Integer.valueOf(serverProps.getProperty("segmentCapacity", "16384").trim()),
+					Integer.valueOf(serverProps.getProperty("correctionOverlayLimit", "4096").trim()), segmentDirectory.isEmpty() ? null : Paths.get(segmentDirectory));
+			LOGGER.info("Aggregate sealing enabled: lateness of " + watermarkLatenessMillis + " ms, windows of " + sealWindowMillis + " ms, segments "
+					+ (segmentDirectory.isEmpty() ? "on the heap" : "mapped out of " + segmentDirectory));
+		}
+		//The backfill batches above the threshold are decoded and summed up on all the cores before being merged at once
+		int parallelDecodeThreshold = Integer.valueOf(serverProps.getProperty("parallelDecodeThreshold", "0").trim());
+		if (parallelDecodeThreshold > 0){
+			int decodeThreads = Integer.valueOf(serverProps.getProperty("decodeThreads", String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+			parallelRecordDecoder = new ParallelRecordDecoder(createDecodePool(decodeThreads), parallelDecodeThreshold, !amountAggregator.needsRawAmounts());
+		}
+
+		//Recover the aggregate of the previous runs before accepting any client
+		if (!persistenceDirectory.isEmpty()){
+			aggregatePersistence = new AggregatePersistence(Paths.get(persistenceDirectory),
+					Integer.valueOf(serverProps.getProperty("walSegmentBytes", "67108864").trim()),
+					Long.valueOf(serverProps.getProperty("walSyncIntervalMillis", "100").trim()),
+					Boolean.parseBoolean(serverProps.getProperty("walSyncBeforeReply", "false").trim()),
+					Long.valueOf(serverProps.getProperty("snapshotIntervalMillis", "60000").trim()));
+			aggregatePersistence.start(amountAggregator);
+			Runtime.getRuntime().addShutdownHook(new Thread(this::stopPersistence, "multistream-shutdown"));
+		}
+		//Keep the aggregate bounded by rolling the aged timestamps up and evicting the ones past the retention
+		List<RollupTier> rollupTiers = RollupTier.parseTiers(serverProps.getProperty("rollupTiers", ""));
+		long retentionMillis = Long.valueOf(serverProps.getProperty("retentionMillis", "0").trim());
+		if (!rollupTiers.isEmpty() || retentionMillis > 0){
+			String archiveDirectory = serverProps.getProperty("archiveDirectory", "").trim();
+			AggregateMaintenance aggregateMaintenance = new AggregateMaintenance(amountAggregator, rollupTiers, retentionMillis, archiveDirectory.isEmpty() ? null : Paths.get(archiveDirectory));
+			long maintenanceIntervalMillis = Long.valueOf(serverProps.getProperty("maintenanceIntervalMillis", "60000").trim());
+			ScheduledExecutorService maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(createThreadFactory("multistream-maintenance-", true));
+			maintenanceScheduler.scheduleWithFixedDelay(aggregateMaintenance, 0, maintenanceIntervalMillis, TimeUnit.MILLISECONDS);
+			LOGGER.info("Aggregate maintenance scheduled every " + maintenanceIntervalMillis + " ms with the rollup tiers " + rollupTiers + " and a retention of " + retentionMillis + " ms");
+		}
+
 		//Get the addresses associated to the previously fetched host name
 		InetAddress[] allAddresses = InetAddress.getAllByName(mainHost);
 		if (allAddresses.length == 0){
@@ -74,7 +202,18 @@ public class MultistreamServer {
 		} else {
 			finalNb = portList.length;
 		}
-		
+
+		//Serve every connection on its own thread with blocking I/O if configured so
+		if (VIRTUAL_THREAD_MODE.equalsIgnoreCase(serverMode)){
+			if (workerThreads > 0){
+				LOGGER.warn("The worker threads are not used in " + VIRTUAL_THREAD_MODE + " mode, every connection processes its own frames");
+			}
+			startThreadPerConnectionMode(allAddresses, portList, finalNb);
+			return;
+		}
+
+		//Create the event loop accepting the connections - in single reactor mode it serves all of them as well
+		IoReactor connectionAcceptor = new IoReactor(this, "multistream-acceptor");
 		//Create and configure the ServerSocketChannels for each of the given ports and hosts
 		for (int i = 0; i < finalNb; i++){
 			ServerSocketChannel multistreamSocket = ServerSocketChannel.open();
@@ -82,125 +221,295 @@ public class MultistreamServer {
 			multistreamSocket.socket().bind(new InetSocketAddress(allAddresses[i], Integer.valueOf(portList[i])));
 			//Disable the blocking mode for the given channel
 			multistreamSocket.configureBlocking(false);
-			//Take the valid operations supported on this channel and register for them a selection key
-			int supportedOps = multistreamSocket.validOps();
-			SelectionKey selectionKey = multistreamSocket.register(selector, supportedOps);
-			LOGGER.info("The selectionKey associated to the current socket is:" + selectionKey);
+			connectionAcceptor.registerServerChannel(multistreamSocket);
+		}
+
+		//Start the I/O reactors and the workers according to the configured mode
+		ioReactors = new ArrayList<>();
+		if (MULTI_REACTOR_MODE.equalsIgnoreCase(serverMode)){
+			for (int i = 0; i < ioThreads; i++){
+				IoReactor ioReactor = new IoReactor(this, "multistream-io-" + i);
+				ioReactors.add(ioReactor);
+				new Thread(ioReactor, "multistream-io-" + i).start();
+			}
+		} else {
+			ioReactors.add(connectionAcceptor);
+		}
+		if (workerThreads > 0){
+			workerPool = Executors.newFixedThreadPool(workerThreads, createThreadFactory("multistream-worker-", false));
 		}
-		
+
 		//Make the server wait for connections for all the configured host-port combinations
 		//Keep it running infinitely for now
-		while (true){
-			LOGGER.info("Server started and listening for connections on all previously created host-port combinations...");
-			//Pick a set of keys for whom the corresponding channels are ready for the I/O operations
-			int nbOfAvailableChannels = selector.select();
-			LOGGER.info("The number of currently available channels is:" + nbOfAvailableChannels);
-			//Get next the token responsible for marking the pairing of SelectableChannel with a Selector
-			Set<SelectionKey> tokenKeySet = selector.selectedKeys();
-			Iterator<SelectionKey> tokenSetIterator = tokenKeySet.iterator();
-			
-			while(tokenSetIterator.hasNext()){
-				//Get next key and check if it is readable or acceptable
-				SelectionKey currentTokenKey = tokenSetIterator.next();
-				//Check if the channel connected to the key is ready for accepting a new socket connection
-				if (currentTokenKey.isAcceptable()){
-					//Obtain the multi-stream client, disable its blocking mode and register it for reading
-					SocketChannel multistreamAcceptClient = ((ServerSocketChannel) currentTokenKey.channel()).accept();
-					multistreamAcceptClient.configureBlocking(false);
-					multistreamAcceptClient.register(selector, SelectionKey.OP_READ);
-					LOGGER.info("Connection accepted from client on:" + multistreamAcceptClient.getLocalAddress());
-				} 
-				//Check if the channel connected to the key is ready for reading
-				if (currentTokenKey.isReadable()) {
-					//Obtain again the multi-stream client, but this time configure it for reading
-					SocketChannel multistreamReadWriteClient = (SocketChannel) currentTokenKey.channel();					
-					ByteBuffer inputBuffer = ByteBuffer.allocate(Integer.valueOf(bufferCapacity));
-					//Read the content coming from the channel as a byte array and then convert it
-					multistreamReadWriteClient.read(inputBuffer);
-					String content = new String(inputBuffer.array()).trim();
-					inputBuffer.clear();
-					//Log the message and process it accordingly 
-					LOGGER.info("Message received: " + content + " on port:" + multistreamReadWriteClient.socket().getLocalPort());
-					String currentResult = processClientInput(content, haltCommand);
-					//Check for a null result in order to avoid having NullPointerExceptions
-					if (StringUtils.isBlank(currentResult)){
-						currentResult = temporaryMessage;
-					}
-					//Send back the result to the client in question before the eventual shutdown
-					inputBuffer = ByteBuffer.wrap(currentResult.getBytes());
-					multistreamReadWriteClient.write(inputBuffer);
-					inputBuffer.clear();
-					//Check if the client needs to be shut down
-					if (StringUtils.containsIgnoreCase(content, haltCommand)) {
-						multistreamReadWriteClient.close();
-						LOGGER.info("The client on port " + multistreamReadWriteClient.socket().getLocalPort() + " and host " + multistreamReadWriteClient.socket().getInetAddress() + " will be shut down on request.");
-						LOGGER.info("Server will keep running. Try restarting the given client to establish new connection...");
-					}
-				}
-				//Remove the given element once it has been processed to avoid caching
-				tokenSetIterator.remove();
-			}
+		LOGGER.info("Server started in " + serverMode + " mode with " + ioReactors.size() + " I/O reactor(s) and " + workerThreads + " worker(s), listening for connections on all previously created host-port combinations...");
+		connectionAcceptor.run();
+	}
+
+	//Method for accepting the connections of every host-port combination on its own thread, the last one being served on the calling thread
+	private void startThreadPerConnectionMode(InetAddress[] allAddresses, String[] portList, int finalNb) throws IOException {
+		ThreadFactory connectionThreadFactory = ThreadPerConnectionAcceptor.createConnectionThreadFactory("multistream-connection-");
+		List<ThreadPerConnectionAcceptor> connectionAcceptors = new ArrayList<>();
+		for (int i = 0; i < finalNb; i++){
+			//The channels stay in blocking mode, every accepted connection is read and written with blocking calls
+			ServerSocketChannel multistreamSocket = ServerSocketChannel.open();
+			multistreamSocket.socket().bind(new InetSocketAddress(allAddresses[i], Integer.valueOf(portList[i])), 1024);
+			connectionAcceptors.add(new ThreadPerConnectionAcceptor(this, multistreamSocket, connectionThreadFactory));
+		}
+		LOGGER.info("Server started in " + VIRTUAL_THREAD_MODE + " mode, serving every connection on its own thread for all previously created host-port combinations...");
+		for (int i = 0; i < connectionAcceptors.size() - 1; i++){
+			new Thread(connectionAcceptors.get(i), "multistream-acceptor-" + i).start();
+		}
+		if (!connectionAcceptors.isEmpty()){
+			connectionAcceptors.get(connectionAcceptors.size() - 1).run();
+		}
+	}
+
+	//Method for picking the reactor serving the next accepted connection
+	IoReactor nextReactor() {
+		return ioReactors.get(Math.floorMod(reactorCounter.getAndIncrement(), ioReactors.size()));
+	}
+
+	//Method for processing a single frame on behalf of the given client - safe to be called from any thread
+	ClientReply processClientFrame(ClientSession clientSession, ByteBuffer payload) throws IOException {
+		//Log the message and process it accordingly
+		LOGGER.info("Message of " + payload.remaining() + " bytes received on thread:" + Thread.currentThread().getName());
+		serverMetrics.messageReceived(payload.remaining());
+		RecordBatch recordBatch = new RecordBatch(haltCommand, clientSession);
+		//The binary batches are answered in the binary format as well
+		if (BinaryRecordCodec.isBinaryBatch(payload)){
+			return new ClientReply(compressReply(clientSession, processBinaryPayload(payload, recordBatch)), recordBatch.isHaltReceived());
+		}
+		ClientReply currentReply = processClientPayload(payload, recordBatch);
+		if (currentReply.isStreamed()){
+			return currentReply;
+		}
+		byte[] currentResult = currentReply.getPayload();
+		//Check for a null result in order to avoid having NullPointerExceptions
+		if (currentResult == null || currentResult.length == 0){
+			currentResult = temporaryMessage.getBytes(StandardCharsets.UTF_8);
+		}
+		return new ClientReply(compressReply(clientSession, currentResult), recordBatch.isHaltReceived());
+	}
+
+	//Method for compressing the reply of a client which opted in for it, once the reply is large enough to be worth the effort
+	byte[] compressReply(ClientSession clientSession, byte[] reply) {
+		CompressionCodec compressionCodec = clientSession == null ? null : clientSession.getCompressionCodec();
+		if (compressionCodec == null || reply.length < compressionThreshold){
+			return reply;
 		}
-	}	
-	
+		return compressionCodec.compress(reply);
+	}
+
 	//Main processor for processing the input coming from client
 	public String processClientInput(String clientInput, String terminatorKeyword) throws JsonParseException, JsonMappingException, IOException{
-		String haltLine = "";
-		boolean containsHaltMessage = StringUtils.containsIgnoreCase(clientInput, terminatorKeyword);
-		//split the initial input into tokens and process them appropriately
-		String[] dataLines = clientInput.split("\n");
-		List<String> inputData = new ArrayList<>(Arrays.asList(dataLines));		
-		//check if halt is present or not
-		if (containsHaltMessage) {
-			//retain the halt message - this is the last element in the array
-			haltLine = inputData.remove(inputData.size() - 1);			
-		}
-		//proceeding with the processing as follows
-		return parseAndConvertInputData(inputData,haltLine);		
-	}
-
-	//method for parsing and converting the input data coming from the client side
-	private String parseAndConvertInputData(List<String> inputData, String haltLine) throws JsonParseException, JsonMappingException, IOException {
-		//process the halt command if present before exiting
-		if (!StringUtils.isBlank(haltLine)){
-			QuitCommand resignation = MultistreamProcessor.convertXMLDataRecordToHaltCommand(haltLine);
-			LOGGER.info("Client resignation command has been received:" + resignation.toString());
-		}
-		//convert first the regular amount values - avoid the processing of an empty list
-		if (!inputData.isEmpty()){
-			return convertInputAmountData(inputData);
-		}
-		//return a null value just in case of no previously saved values
-		if (allAmounts.isEmpty()){
-			return null;
-		}
-		//otherwise, return the previously saved values
-		return MultistreamProcessor.convertAmountsToJSON(allAmounts);
-	}
-	
-	//method for conversion and processing of amounts
-	private String convertInputAmountData(List<String> inputDataList) throws JsonParseException, JsonMappingException, IOException {		
-		//process each string element as follows
-		for (String dataRecord : inputDataList){
-			//first convert the XML record into corresponding core object
-			CoreData coreData = MultistreamProcessor.convertXMLDataRecordToCoreData(dataRecord);
-			//then process the given object as follows
-			Set<Timestamp> timeKeySet = allAmounts.keySet();
-			if (timeKeySet.contains(coreData.getTimestamp())){
-				Double initialAmount = allAmounts.get(coreData.getTimestamp());
-				Double newAmount = initialAmount + coreData.getAmount();
-				allAmounts.put(coreData.getTimestamp(), newAmount);
-			} else {
-				allAmounts.put(coreData.getTimestamp(), coreData.getAmount());
+		return processClientInput(clientInput, terminatorKeyword, null);
+	}
+
+	//Main processor for processing the input coming from the client owning the given session (null for the regular full responses)
+	public String processClientInput(String clientInput, String terminatorKeyword, ClientSession clientSession) throws JsonParseException, JsonMappingException, IOException{
+		//the sessions without an outbound pool never get their replies streamed, the payload is always there
+		byte[] response = processClientPayload(ByteBuffer.wrap(clientInput.getBytes(StandardCharsets.UTF_8)), new RecordBatch(terminatorKeyword, clientSession)).getPayload();
+		return response == null ? null : new String(response, StandardCharsets.UTF_8);
+	}
+
+	//method for decoding the XML records of a payload, merging them into the aggregate and assembling the JSON response
+	private ClientReply processClientPayload(ByteBuffer payload, RecordBatch recordBatch) throws IOException {
+		long startTime = System.nanoTime();
+		serverMetrics.recordsDecoded(parallelRecordDecoder == null ? XmlRecordDecoder.decodeRecords(payload, recordBatch) : parallelRecordDecoder.decodeXmlRecords(payload, recordBatch));
+		serverMetrics.getDecodeHistogram().recordSince(startTime);
+		applySubscription(recordBatch, false);
+		TimeSeriesStore touchedTotals = createTouchedTotals(recordBatch);
+		startTime = System.nanoTime();
+		long version = amountAggregator.applyBatch(recordBatch.getTimestamps(), recordBatch.getAmounts(), recordBatch.getNbOfAmounts(), touchedTotals);
+		subscriptionHub.recordChanges(recordBatch.getTimestamps(), recordBatch.getNbOfAmounts());
+		serverMetrics.getAggregateHistogram().recordSince(startTime);
+		startTime = System.nanoTime();
+		try {
+			return createClientResponse(recordBatch, version, touchedTotals);
+		} finally {
+			serverMetrics.getSerializeHistogram().recordSince(startTime);
+		}
+	}
+
+	//method for assembling the JSON response of an already merged batch - the full responses come out of the snapshot cache
+	private ClientReply createClientResponse(RecordBatch recordBatch, long version, TimeSeriesStore touchedTotals) throws IOException {
+		//answer the queries instead of sending back any amounts
+		if (recordBatch.getQueries() != null){
+			return createReply(recordBatch, amountAggregator.readAggregate((amountStore, windowedSketches, snapshotVersion) -> {
+				List<QueryResult> queryResults = new ArrayList<>();
+				for (QueryRequest queryRequest : recordBatch.getQueries()){
+					queryResults.add(MultistreamProcessor.executeQuery(queryRequest, amountStore, windowedSketches, snapshotVersion));
+				}
+				return MultistreamProcessor.convertQueryResultsToJSON(queryResults).getBytes(StandardCharsets.UTF_8);
+			}));
+		}
+		//answer with the server statistics or the credit window when they were asked for
+		if (recordBatch.isStatsRequested()){
+			return createReply(recordBatch, MultistreamProcessor.convertStatsToJSON(serverMetrics.toStats()).getBytes(StandardCharsets.UTF_8));
+		}
+		if (recordBatch.isCreditRequested()){
+			return createReply(recordBatch, MultistreamProcessor.convertCreditToJSON(creditBytes).getBytes(StandardCharsets.UTF_8));
+		}
+		//answer a subscription with the versioned snapshot the pushed updates apply to
+		if (recordBatch.isSubscribeRequested()){
+			return createReply(recordBatch, amountAggregator.readStore(snapshotCache::getVersionedJSONResponse));
+		}
+		//answer with the versioned delta (or the requested snapshot) to the clients which opted in for it
+		if (isDeltaResponseExpected(recordBatch)){
+			if (touchedTotals == null){
+				return createReply(recordBatch, amountAggregator.readStore(snapshotCache::getVersionedJSONResponse));
+			}
+			return createDeltaReply(recordBatch, version, touchedTotals);
+		}
+		//return a null value just in case of no previously saved values, otherwise return the previously saved values
+		return createReply(recordBatch, amountAggregator.readStore((amountStore, snapshotVersion) -> amountStore.isEmpty() ? null : snapshotCache.getJSONResponse(amountStore, snapshotVersion)));
+	}
+
+	//method for encoding the versioned delta of the touched totals - streamed into pooled direct buffers for the connections of the reactors,
+	//unless the reply may need to be compressed
+	private ClientReply createDeltaReply(RecordBatch recordBatch, long version, TimeSeriesStore touchedTotals) throws IOException {
+		ClientSession clientSession = recordBatch.getClientSession();
+		if (clientSession.getOutboundPool() == null || clientSession.getCompressionCodec() != null){
+			return createReply(recordBatch, MultistreamProcessor.convertAmountsToVersionedJSONBytes(version, true, false, touchedTotals));
+		}
+		PooledFrameOutput frameOutput = new PooledFrameOutput(clientSession.getOutboundPool());
+		try {
+			JsonResponseEncoder.writeVersionedAmounts(version, true, false, touchedTotals, frameOutput);
+			return new ClientReply(frameOutput.finishFrame(), recordBatch.isHaltReceived());
+		} catch (IOException | RuntimeException e) {
+			frameOutput.release();
+			throw e;
+		}
+	}
+
+	//method for wrapping the payload of a response into the reply of the batch
+	private static ClientReply createReply(RecordBatch recordBatch, byte[] payload) {
+		return new ClientReply(payload, recordBatch.isHaltReceived());
+	}
+
+	//method for decoding a binary batch, merging it into the aggregate and assembling the binary response
+	private byte[] processBinaryPayload(ByteBuffer payload, RecordBatch recordBatch) throws IOException {
+		long startTime = System.nanoTime();
+		serverMetrics.recordsDecoded(parallelRecordDecoder == null ? BinaryRecordCodec.decodeRecords(payload, recordBatch) : parallelRecordDecoder.decodeBinaryRecords(payload, recordBatch));
+		serverMetrics.getDecodeHistogram().recordSince(startTime);
+		applySubscription(recordBatch, true);
+		TimeSeriesStore touchedTotals = createTouchedTotals(recordBatch);
+		startTime = System.nanoTime();
+		long version = amountAggregator.applyBatch(recordBatch.getTimestamps(), recordBatch.getAmounts(), recordBatch.getNbOfAmounts(), touchedTotals);
+		subscriptionHub.recordChanges(recordBatch.getTimestamps(), recordBatch.getNbOfAmounts());
+		serverMetrics.getAggregateHistogram().recordSince(startTime);
+		startTime = System.nanoTime();
+		try {
+			//the statistics and the credit grant have no binary representation, the clients fall back to the text of the reply
+			if (recordBatch.isStatsRequested()){
+				return MultistreamProcessor.convertStatsToJSON(serverMetrics.toStats()).getBytes(StandardCharsets.UTF_8);
+			}
+			if (recordBatch.isCreditRequested()){
+				return MultistreamProcessor.convertCreditToJSON(creditBytes).getBytes(StandardCharsets.UTF_8);
 			}
+			if (touchedTotals != null && !recordBatch.isSubscribeRequested()){
+				return BinaryRecordCodec.encodeResponse(version, true, touchedTotals);
+			}
+			return amountAggregator.readStore(snapshotCache::getBinaryResponse);
+		} finally {
+			serverMetrics.getSerializeHistogram().recordSince(startTime);
 		}
-		//convert the result into a JSON
-		return MultistreamProcessor.convertAmountsToJSON(allAmounts);
 	}
-	
+
+	//method for registering or cancelling the subscription asked for by the frame - before the snapshot answering it is taken, so that no
+	//update gets lost in between
+	private void applySubscription(RecordBatch recordBatch, boolean binaryUpdates) {
+		if (recordBatch.isSubscribeRequested()){
+			subscriptionHub.subscribe(recordBatch.getClientSession(), binaryUpdates);
+		} else if (recordBatch.isUnsubscribeRequested() && recordBatch.getClientSession() != null){
+			subscriptionHub.unsubscribe(recordBatch.getClientSession());
+		}
+	}
+
+	//method for checking whether the client opted in for the delta responses
+	private boolean isDeltaResponseExpected(RecordBatch recordBatch) {
+		ClientSession clientSession = recordBatch.getClientSession();
+		return clientSession != null && clientSession.isDeltaResponses();
+	}
+
+	//method for creating the store collecting the new totals of the touched timestamps - only needed for the delta responses
+	private TimeSeriesStore createTouchedTotals(RecordBatch recordBatch) {
+		return isDeltaResponseExpected(recordBatch) && !recordBatch.isSnapshotRequested() ? new TimeSeriesStore() : null;
+	}
+
+	//method for writing a last snapshot and forcing the log once the server is shut down
+	private void stopPersistence() {
+		aggregatePersistence.takeSnapshot(amountAggregator);
+		try {
+			aggregatePersistence.close();
+		} catch (IOException e) {
+			LOGGER.error("Unable to close the write-ahead log due to the following exception:" + e);
+		}
+	}
+
+	//method for naming the threads started by the server
+	private static ThreadFactory createThreadFactory(String namePrefix, boolean daemon) {
+		AtomicInteger threadCounter = new AtomicInteger();
+		return runnable -> {
+			Thread serverThread = new Thread(runnable, namePrefix + threadCounter.getAndIncrement());
+			serverThread.setDaemon(daemon);
+			return serverThread;
+		};
+	}
+
+	//method for creating the fork-join pool decoding the large payloads, its threads being named like the other server threads
+	private static ForkJoinPool createDecodePool(int decodeThreads) {
+		return new ForkJoinPool(decodeThreads, forkJoinPool -> {
+			ForkJoinWorkerThread decodeThread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+			decodeThread.setName("multistream-decode-" + decodeThread.getPoolIndex());
+			return decodeThread;
+		}, null, false);
+	}
+
+	BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+
+	long getMaxQueuedBytes() {
+		return maxQueuedBytes;
+	}
+
+	long getCreditBytes() {
+		return creditBytes;
+	}
+
+	long getOutboundHighWatermark() {
+		return outboundHighWatermark;
+	}
+
+	long getOutboundLowWatermark() {
+		return outboundLowWatermark;
+	}
+
+	int getMaxFramesPerRead() {
+		return maxFramesPerRead;
+	}
+
+	ExecutorService getWorkerPool() {
+		return workerPool;
+	}
+
+	ServerMetrics getServerMetrics() {
+		return serverMetrics;
+	}
+
+	SubscriptionHub getSubscriptionHub() {
+		return subscriptionHub;
+	}
+
+	//Usage: MultistreamServer [server configuration file]
 	public static void main(String[] args){
 		try {
-			new MultistreamServer().startMultistreamServer();
+			new MultistreamServer().startMultistreamServer(args.length > 0 ? args[0] : SERVER_CONFIGURATION_FILE);
 		} catch (IOException e) {
 			LOGGER.error("Unable to run the application due to the following exception:" + e);
 		} catch (NumberFormatException e) {
@@ -209,5 +518,5 @@ public class MultistreamServer {
 			LOGGER.error("Unable to run the application due to the following absent class:" + e);
 		}
 	}
-	
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,76 @@
+package com.feritoth.multistreamapp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.feritoth.multistreamapp.utility.FrameCodec;
+
+/* Output stream writing a reply frame into a chain of direct buffers borrowed from the pool. The frame header is reserved at the start of
+ * the first buffer and filled in once the payload is complete, so the chain goes to a gathering write of the channel without the payload
+ * ever being copied into a single array. The buffers are given back to the pool by the session once they have been written. */
+class PooledFrameOutput extends OutputStream {
+
+	private final BufferPool bufferPool;
+	private final List<ByteBuffer> frameBuffers;
+	private ByteBuffer currentBuffer;
+	private long payloadLength;
+
+	PooledFrameOutput(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		this.frameBuffers = new ArrayList<>();
+		nextBuffer();
+		currentBuffer.position(FrameCodec.HEADER_LENGTH);
+	}
+
+	@Override
+	public void write(int b) {
+		if (!currentBuffer.hasRemaining()){
+			nextBuffer();
+		}
+		currentBuffer.put((byte) b);
+		payloadLength++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		while (len > 0){
+			if (!currentBuffer.hasRemaining()){
+				nextBuffer();
+			}
+			int nbOfBytes = Math.min(len, currentBuffer.remaining());
+			currentBuffer.put(b, off, nbOfBytes);
+			off += nbOfBytes;
+			len -= nbOfBytes;
+			payloadLength += nbOfBytes;
+		}
+	}
+
+	//Complete the frame - returns its buffers ready for writing
+	ByteBuffer[] finishFrame() throws IOException {
+		if (payloadLength > Integer.MAX_VALUE - FrameCodec.HEADER_LENGTH){
+			throw new IOException("The reply of " + payloadLength + " bytes does not fit into a single frame");
+		}
+		frameBuffers.get(0).putInt(0, (int) payloadLength);
+		ByteBuffer[] frame = frameBuffers.toArray(new ByteBuffer[frameBuffers.size()]);
+		for (ByteBuffer frameBuffer : frame){
+			frameBuffer.flip();
+		}
+		frameBuffers.clear();
+		return frame;
+	}
+
+	//Give the buffers back to the pool when the frame could not be completed
+	void release() {
+		frameBuffers.forEach(bufferPool::release);
+		frameBuffers.clear();
+	}
+
+	private void nextBuffer() {
+		currentBuffer = bufferPool.acquire();
+		frameBuffers.add(currentBuffer);
+	}
+
+}
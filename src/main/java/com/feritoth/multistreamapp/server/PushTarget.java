@@ -0,0 +1,10 @@
+package com.feritoth.multistreamapp.server;
+
+/* Delivery of the pushed updates to a subscribed connection, implemented by the connection handling of every server mode */
+interface PushTarget {
+
+	//Push the pending updates of the subscription to the connection - subscription.pushCompleted() has to follow in any case, even when
+	//the connection cannot take the update for now
+	void schedulePush(Subscription subscription);
+
+}
@@ -0,0 +1,147 @@
+package com.feritoth.multistreamapp.server;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.core.QuitCommand;
+import com.feritoth.multistreamapp.utility.RecordHandler;
+
+/* Handler collecting the decoded records of a single client frame, so that their amounts can be merged into the aggregate at once */
+class RecordBatch implements RecordHandler {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(RecordBatch.class);
+	
+	private final String terminatorKeyword;
+	private final ClientSession clientSession;
+	private long[] timestamps;
+	private double[] amounts;
+	private int nbOfAmounts;
+	private List<QueryRequest> queries;
+	private boolean snapshotRequested;
+	private boolean statsRequested;
+	private boolean creditRequested;
+	private boolean subscribeRequested;
+	private boolean unsubscribeRequested;
+	private boolean haltReceived;
+	
+	RecordBatch(String terminatorKeyword, ClientSession clientSession) {
+		this.terminatorKeyword = terminatorKeyword;
+		this.clientSession = clientSession;
+		this.timestamps = new long[16];
+		this.amounts = new double[16];
+	}
+
+	@Override
+	public void onAmount(long timestamp, double amount) {
+		if (nbOfAmounts == timestamps.length){
+			timestamps = Arrays.copyOf(timestamps, nbOfAmounts * 2);
+			amounts = Arrays.copyOf(amounts, nbOfAmounts * 2);
+		}
+		timestamps[nbOfAmounts] = timestamp;
+		amounts[nbOfAmounts] = amount;
+		nbOfAmounts++;
+	}
+
+	@Override
+	public void onHalt(long timestamp, String haltMessage) {
+		//The binary halt records carry no message at all
+		if (haltMessage == null || StringUtils.containsIgnoreCase(haltMessage, terminatorKeyword)){
+			LOGGER.info("Client resignation command has been received:" + new QuitCommand(new Timestamp(timestamp), haltMessage));
+			haltReceived = true;
+		} else {
+			LOGGER.warn("Ignoring the unknown halt message received from the client: " + haltMessage);
+		}
+	}
+
+	@Override
+	public void onControl(ControlCommand controlCommand) {
+		//The statistics and the credit grant do not depend on the response mode of the connection
+		if (ControlCommand.STATS.equalsIgnoreCase(controlCommand.getCommand())){
+			statsRequested = true;
+			return;
+		}
+		if (ControlCommand.CREDIT.equalsIgnoreCase(controlCommand.getCommand())){
+			creditRequested = true;
+			return;
+		}
+		//The subscriptions are kept by the server, which only needs to know what the frame asked for
+		if (ControlCommand.SUBSCRIBE.equalsIgnoreCase(controlCommand.getCommand())){
+			subscribeRequested = true;
+			unsubscribeRequested = false;
+			return;
+		}
+		if (ControlCommand.UNSUBSCRIBE.equalsIgnoreCase(controlCommand.getCommand())){
+			unsubscribeRequested = true;
+			subscribeRequested = false;
+			return;
+		}
+		if (clientSession == null){
+			LOGGER.warn("Control commands are only supported over client connections, ignoring " + controlCommand.getCommand());
+			return;
+		}
+		snapshotRequested |= clientSession.applyControlCommand(controlCommand);
+	}
+
+	@Override
+	public void onQuery(QueryRequest queryRequest) {
+		if (queries == null){
+			queries = new ArrayList<>();
+		}
+		queries.add(queryRequest);
+	}
+
+	ClientSession getClientSession() {
+		return clientSession;
+	}
+
+	long[] getTimestamps() {
+		return timestamps;
+	}
+
+	double[] getAmounts() {
+		return amounts;
+	}
+
+	int getNbOfAmounts() {
+		return nbOfAmounts;
+	}
+
+	//The queries of the frame, null if there were none
+	List<QueryRequest> getQueries() {
+		return queries;
+	}
+
+	boolean isSnapshotRequested() {
+		return snapshotRequested;
+	}
+
+	boolean isStatsRequested() {
+		return statsRequested;
+	}
+
+	boolean isCreditRequested() {
+		return creditRequested;
+	}
+
+	boolean isSubscribeRequested() {
+		return subscribeRequested;
+	}
+
+	boolean isUnsubscribeRequested() {
+		return unsubscribeRequested;
+	}
+
+	boolean isHaltReceived() {
+		return haltReceived;
+	}
+	
+}
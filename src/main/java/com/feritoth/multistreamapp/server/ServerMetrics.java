@@ -0,0 +1,202 @@
+package com.feritoth.multistreamapp.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Counters and latency histograms of the server - shared by all the reactor and worker threads, none of the updates allocates
+ * (apart from the first connection seen on a port) */
+public class ServerMetrics implements ServerMetricsMXBean {
+	
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(ServerMetrics.class);
+	//Name of the platform MBean
+	public static final String OBJECT_NAME = "com.feritoth.multistreamapp:type=ServerMetrics";
+	
+	private final ConcurrentHashMap<Integer, LongAdder> activeConnections;
+	private final ConcurrentHashMap<Integer, LongAdder> acceptedConnections;
+	private final LongAdder messagesIn;
+	private final LongAdder messagesOut;
+	private final LongAdder recordsIn;
+	private final LongAdder bytesIn;
+	private final LongAdder bytesOut;
+	private final LatencyHistogram decodeLatency;
+	private final LatencyHistogram aggregateLatency;
+	private final LatencyHistogram serializeLatency;
+	private final LatencyHistogram selectorLoopLatency;
+	private final IntSupplier aggregateSize;
+	
+	public ServerMetrics(IntSupplier aggregateSize) {
+		this.activeConnections = new ConcurrentHashMap<>();
+		this.acceptedConnections = new ConcurrentHashMap<>();
+		this.messagesIn = new LongAdder();
+		this.messagesOut = new LongAdder();
+		this.recordsIn = new LongAdder();
+		this.bytesIn = new LongAdder();
+		this.bytesOut = new LongAdder();
+		this.decodeLatency = new LatencyHistogram();
+		this.aggregateLatency = new LatencyHistogram();
+		this.serializeLatency = new LatencyHistogram();
+		this.selectorLoopLatency = new LatencyHistogram();
+		this.aggregateSize = aggregateSize;
+	}
+	
+	//Expose the metrics through the platform MBean server
+	public void registerMBean() {
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(OBJECT_NAME);
+			if (!mBeanServer.isRegistered(objectName)){
+				mBeanServer.registerMBean(this, objectName);
+			}
+		} catch (JMException e) {
+			LOGGER.warn("Unable to register the server metrics MBean due to the following exception:" + e);
+		}
+	}
+	
+	public void connectionOpened(int port) {
+		activeConnections.computeIfAbsent(port, newPort -> new LongAdder()).increment();
+		acceptedConnections.computeIfAbsent(port, newPort -> new LongAdder()).increment();
+	}
+	
+	public void connectionClosed(int port) {
+		LongAdder portConnections = activeConnections.get(port);
+		if (portConnections != null){
+			portConnections.decrement();
+		}
+	}
+	
+	public void messageReceived(int nbOfBytes) {
+		messagesIn.increment();
+		bytesIn.add(nbOfBytes);
+	}
+	
+	public void recordsDecoded(int nbOfRecords) {
+		recordsIn.add(nbOfRecords);
+	}
+	
+	public void messageSent(int nbOfBytes) {
+		messagesOut.increment();
+		bytesOut.add(nbOfBytes);
+	}
+	
+	//All the metrics in a form ready for being serialized into the answer of the stats command
+	public Map<String, Object> toStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("activeConnectionsPerPort", getActiveConnectionsPerPort());
+		stats.put("acceptedConnectionsPerPort", getAcceptedConnectionsPerPort());
+		stats.put("messagesIn", getMessagesIn());
+		stats.put("messagesOut", getMessagesOut());
+		stats.put("recordsIn", getRecordsIn());
+		stats.put("bytesIn", getBytesIn());
+		stats.put("bytesOut", getBytesOut());
+		stats.put("aggregateSize", getAggregateSize());
+		stats.put("decodeLatency", getDecodeLatency());
+		stats.put("aggregateLatency", getAggregateLatency());
+		stats.put("serializeLatency", getSerializeLatency());
+		stats.put("selectorLoopLatency", getSelectorLoopLatency());
+		return stats;
+	}
+	
+	LatencyHistogram getDecodeHistogram() {
+		return decodeLatency;
+	}
+	
+	LatencyHistogram getAggregateHistogram() {
+		return aggregateLatency;
+	}
+	
+	LatencyHistogram getSerializeHistogram() {
+		return serializeLatency;
+	}
+	
+	LatencyHistogram getSelectorLoopHistogram() {
+		return selectorLoopLatency;
+	}
+
+	@Override
+	public Map<Integer, Long> getActiveConnectionsPerPort() {
+		return sumPerPort(activeConnections);
+	}
+
+	@Override
+	public Map<Integer, Long> getAcceptedConnectionsPerPort() {
+		return sumPerPort(acceptedConnections);
+	}
+
+	@Override
+	public long getMessagesIn() {
+		return messagesIn.sum();
+	}
+
+	@Override
+	public long getMessagesOut() {
+		return messagesOut.sum();
+	}
+
+	@Override
+	public long getRecordsIn() {
+		return recordsIn.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public int getAggregateSize() {
+		return aggregateSize.getAsInt();
+	}
+
+	@Override
+	public LatencySummary getDecodeLatency() {
+		return decodeLatency.summarize();
+	}
+
+	@Override
+	public LatencySummary getAggregateLatency() {
+		return aggregateLatency.summarize();
+	}
+
+	@Override
+	public LatencySummary getSerializeLatency() {
+		return serializeLatency.summarize();
+	}
+
+	@Override
+	public LatencySummary getSelectorLoopLatency() {
+		return selectorLoopLatency.summarize();
+	}
+
+	@Override
+	public void resetLatencies() {
+		decodeLatency.reset();
+		aggregateLatency.reset();
+		serializeLatency.reset();
+		selectorLoopLatency.reset();
+	}
+	
+	private static Map<Integer, Long> sumPerPort(ConcurrentHashMap<Integer, LongAdder> portCounters) {
+		Map<Integer, Long> portSums = new TreeMap<>();
+		portCounters.forEach((port, portCounter) -> portSums.put(port, portCounter.sum()));
+		return portSums;
+	}
+
+}
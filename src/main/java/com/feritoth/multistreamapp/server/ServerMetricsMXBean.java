@@ -0,0 +1,34 @@
+package com.feritoth.multistreamapp.server;
+
+import java.util.Map;
+
+/* Management interface of the server metrics, registered within the platform MBean server */
+public interface ServerMetricsMXBean {
+	
+	Map<Integer, Long> getActiveConnectionsPerPort();
+	
+	Map<Integer, Long> getAcceptedConnectionsPerPort();
+	
+	long getMessagesIn();
+	
+	long getMessagesOut();
+	
+	long getRecordsIn();
+	
+	long getBytesIn();
+	
+	long getBytesOut();
+	
+	int getAggregateSize();
+	
+	LatencySummary getDecodeLatency();
+	
+	LatencySummary getAggregateLatency();
+	
+	LatencySummary getSerializeLatency();
+	
+	LatencySummary getSelectorLoopLatency();
+	
+	void resetLatencies();
+
+}
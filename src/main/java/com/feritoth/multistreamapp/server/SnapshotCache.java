@@ -0,0 +1,211 @@
+package com.feritoth.multistreamapp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.feritoth.multistreamapp.storage.AmountAggregator;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+
+/* Cache of the encoded full responses, shared by all the connections and ports of the server. The responses are kept along with the
+ * aggregate version they were encoded at, so all the reads between two writes are answered with the same cached bytes. The encoding is cut
+ * into segments of consecutive timestamps: after a write only the segments holding a changed timestamp are encoded again and the response
+ * is assembled out of the segments, while the rollups, evictions and recoveries invalidate all of them.
+ * The responses are to be fetched while holding the read lock of the aggregator (inside readStore), the cached arrays are never modified. */
+class SnapshotCache implements AmountAggregator.ChangeListener {
+
+	//Number of entries encoded per segment
+	static final int SEGMENT_ENTRIES = 512;
+	private static final byte[] JSON_ARRAY_END = {']'};
+	private static final byte[] VERSIONED_JSON_END = {']', '}'};
+
+	private final SegmentedEncoding jsonEncoding = new SegmentedEncoding(false);
+	private final SegmentedEncoding binaryEncoding = new SegmentedEncoding(true);
+	//The assembled responses and the versions they belong to
+	private long jsonVersion = -1;
+	private byte[] jsonResponse;
+	private long versionedJSONVersion = -1;
+	private byte[] versionedJSONResponse;
+	private long binaryVersion = -1;
+	private byte[] binaryResponse;
+
+	//The JSON array of the full responses
+	synchronized byte[] getJSONResponse(TimeSeriesStore amountStore, long version) throws IOException {
+		if (jsonVersion != version || jsonResponse == null){
+			jsonEncoding.update(amountStore, version);
+			jsonResponse = jsonEncoding.assemble(new byte[]{'['}, JSON_ARRAY_END, ',');
+			jsonVersion = version;
+		}
+		return jsonResponse;
+	}
+
+	//The versioned JSON of the full snapshots, laid out like the VersionedResponse of a full snapshot
+	synchronized byte[] getVersionedJSONResponse(TimeSeriesStore amountStore, long version) throws IOException {
+		if (versionedJSONVersion != version || versionedJSONResponse == null){
+			jsonEncoding.update(amountStore, version);
+			byte[] header = ("{\"version\":" + version + ",\"delta\":false,\"amounts\":[").getBytes(StandardCharsets.UTF_8);
+			versionedJSONResponse = jsonEncoding.assemble(header, VERSIONED_JSON_END, ',');
+			versionedJSONVersion = version;
+		}
+		return versionedJSONResponse;
+	}
+
+	//The binary batch of the full responses
+	synchronized byte[] getBinaryResponse(TimeSeriesStore amountStore, long version) throws IOException {
+		if (binaryVersion != version || binaryResponse == null){
+			binaryEncoding.update(amountStore, version);
+			ByteBuffer header = ByteBuffer.allocate(BinaryRecordCodec.HEADER_LENGTH);
+			header.put(BinaryRecordCodec.MAGIC).put(BinaryRecordCodec.FULL_RESPONSE).putLong(version).putInt(amountStore.size());
+			binaryResponse = binaryEncoding.assemble(header.array(), new byte[0], -1);
+			binaryVersion = version;
+		}
+		return binaryResponse;
+	}
+
+	@Override
+	public synchronized void onTotalsChanged(long version, long[] timestamps, int nbOfTimestamps) {
+		jsonEncoding.markChanged(timestamps, nbOfTimestamps);
+		binaryEncoding.markChanged(timestamps, nbOfTimestamps);
+	}
+
+	@Override
+	public synchronized void onStoreReset(long version) {
+		jsonEncoding.invalidate();
+		binaryEncoding.invalidate();
+		//A recovery may restore a version which has already been served
+		jsonResponse = null;
+		versionedJSONResponse = null;
+		binaryResponse = null;
+	}
+
+	/* The encoded segments of one response format - every segment covers the timestamps from its own start up to the start of the next
+	 * one, the first segment covering all the timestamps before it as well */
+	private static class SegmentedEncoding {
+
+		private final boolean binary;
+		private final List<Segment> segments = new ArrayList<>();
+		//The timestamps changed since the last encoding (the amounts are not used)
+		private final TimeSeriesStore changedTimestamps = new TimeSeriesStore();
+		private boolean valid;
+		private long encodedVersion = -1;
+		//Scratch arrays the entries of the re-encoded ranges are collected into
+		private long[] rangeTimestamps = new long[SEGMENT_ENTRIES];
+		private double[] rangeAmounts = new double[SEGMENT_ENTRIES];
+		private int nbOfRangeEntries;
+
+		SegmentedEncoding(boolean binary) {
+			this.binary = binary;
+		}
+
+		void markChanged(long[] timestamps, int nbOfTimestamps) {
+			//Nothing to track until the next full encoding
+			if (!valid){
+				return;
+			}
+			for (int i = 0; i < nbOfTimestamps; i++){
+				changedTimestamps.add(timestamps[i], 0);
+			}
+		}
+
+		void invalidate() {
+			valid = false;
+			changedTimestamps.clear();
+		}
+
+		//Bring the segments up to date with the store - only the segments holding a changed timestamp are encoded again
+		void update(TimeSeriesStore amountStore, long version) throws IOException {
+			if (valid && encodedVersion == version){
+				return;
+			}
+			if (!valid || segments.isEmpty()){
+				segments.clear();
+				encodeRange(amountStore, Long.MIN_VALUE, Long.MAX_VALUE, segments);
+			} else if (!changedTimestamps.isEmpty()){
+				List<Segment> updatedSegments = new ArrayList<>(segments.size() + 1);
+				for (int i = 0; i < segments.size(); i++){
+					long rangeStart = i == 0 ? Long.MIN_VALUE : segments.get(i).firstTimestamp;
+					long rangeEnd = i == segments.size() - 1 ? Long.MAX_VALUE : segments.get(i + 1).firstTimestamp - 1;
+					if (changedTimestamps.countRange(rangeStart, rangeEnd) == 0){
+						updatedSegments.add(segments.get(i));
+					} else {
+						encodeRange(amountStore, rangeStart, rangeEnd, updatedSegments);
+					}
+				}
+				segments.clear();
+				segments.addAll(updatedSegments);
+			}
+			changedTimestamps.clear();
+			valid = true;
+			encodedVersion = version;
+		}
+
+		//Join the segments between the given header and trailer, separated by the given byte (none if negative)
+		byte[] assemble(byte[] header, byte[] trailer, int separator) {
+			int length = header.length + trailer.length;
+			for (Segment segment : segments){
+				length += segment.encoding.length;
+			}
+			if (separator >= 0 && segments.size() > 1){
+				length += segments.size() - 1;
+			}
+			byte[] response = Arrays.copyOf(header, length);
+			int position = header.length;
+			for (int i = 0; i < segments.size(); i++){
+				if (separator >= 0 && i > 0){
+					response[position++] = (byte) separator;
+				}
+				byte[] encoding = segments.get(i).encoding;
+				System.arraycopy(encoding, 0, response, position, encoding.length);
+				position += encoding.length;
+			}
+			System.arraycopy(trailer, 0, response, position, trailer.length);
+			return response;
+		}
+
+		//Encode the entries of the given range into new segments appended to the given list
+		private void encodeRange(TimeSeriesStore amountStore, long rangeStart, long rangeEnd, List<Segment> targetSegments) throws IOException {
+			nbOfRangeEntries = 0;
+			amountStore.forEachInRange(rangeStart, rangeEnd, (timestamp, amount) -> {
+				if (nbOfRangeEntries == rangeTimestamps.length){
+					rangeTimestamps = Arrays.copyOf(rangeTimestamps, nbOfRangeEntries * 2);
+					rangeAmounts = Arrays.copyOf(rangeAmounts, nbOfRangeEntries * 2);
+				}
+				rangeTimestamps[nbOfRangeEntries] = timestamp;
+				rangeAmounts[nbOfRangeEntries++] = amount;
+			});
+			for (int from = 0; from < nbOfRangeEntries; from += SEGMENT_ENTRIES){
+				int to = Math.min(from + SEGMENT_ENTRIES, nbOfRangeEntries);
+				targetSegments.add(new Segment(rangeTimestamps[from], binary ? encodeBinary(from, to)
+						: MultistreamProcessor.convertAmountsToJSONFragment(rangeTimestamps, rangeAmounts, from, to)));
+			}
+		}
+
+		//The total records of the given entries, as laid out by the binary full responses
+		private byte[] encodeBinary(int from, int to) {
+			ByteBuffer records = ByteBuffer.allocate((to - from) * BinaryRecordCodec.RECORD_LENGTH);
+			for (int i = from; i < to; i++){
+				records.put(BinaryRecordCodec.TOTAL_RECORD).putLong(rangeTimestamps[i]).putDouble(rangeAmounts[i]);
+			}
+			return records.array();
+		}
+
+	}
+
+	private static class Segment {
+
+		private final long firstTimestamp;
+		private final byte[] encoding;
+
+		Segment(long firstTimestamp, byte[] encoding) {
+			this.firstTimestamp = firstTimestamp;
+			this.encoding = encoding;
+		}
+
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.feritoth.multistreamapp.server;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.feritoth.multistreamapp.storage.AmountAggregator;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+import com.feritoth.multistreamapp.utility.BinaryRecordCodec;
+import com.feritoth.multistreamapp.utility.MultistreamProcessor;
+
+/* Subscription of a single connection to the aggregate updates: the timestamps changed since its last push are kept as a set, so the
+ * updates it cannot take right away are conflated into the next push instead of piling up. A push always carries the current totals. */
+class Subscription {
+
+	private final ClientSession clientSession;
+	private final boolean binaryUpdates;
+	private final AmountAggregator amountAggregator;
+	//The changed timestamps, stored with zero amounts as a sorted set
+	private TimeSeriesStore changedTimestamps;
+	//Whether a push has been handed over to the connection and not completed yet
+	private final AtomicBoolean pushPending;
+
+	Subscription(ClientSession clientSession, boolean binaryUpdates, AmountAggregator amountAggregator) {
+		this.clientSession = clientSession;
+		this.binaryUpdates = binaryUpdates;
+		this.amountAggregator = amountAggregator;
+		this.changedTimestamps = new TimeSeriesStore();
+		this.pushPending = new AtomicBoolean();
+	}
+
+	//Add the sorted changed timestamps published since the previous interval
+	synchronized void addChanges(long[] timestamps, int nbOfTimestamps) {
+		for (int i = 0; i < nbOfTimestamps; i++){
+			changedTimestamps.add(timestamps[i], 0);
+		}
+	}
+
+	//Hand a push over to the connection unless the previous one has not been completed yet - returns false if the push was skipped
+	boolean schedulePush() {
+		synchronized (this){
+			if (changedTimestamps.isEmpty()){
+				return true;
+			}
+		}
+		if (!pushPending.compareAndSet(false, true)){
+			return false;
+		}
+		clientSession.getPushTarget().schedulePush(this);
+		return true;
+	}
+
+	//Take the changed timestamps over and encode their current totals - returns null if nothing changed since the last push
+	byte[] drainUpdates() throws IOException {
+		TimeSeriesStore drainedTimestamps;
+		synchronized (this){
+			if (changedTimestamps.isEmpty()){
+				return null;
+			}
+			drainedTimestamps = changedTimestamps;
+			changedTimestamps = new TimeSeriesStore();
+		}
+		return amountAggregator.readStore((amountStore, version) -> {
+			TimeSeriesStore changedTotals = new TimeSeriesStore();
+			//The timestamps evicted in the meantime are left out
+			drainedTimestamps.forEach((timestamp, ignored) -> {
+				if (amountStore.contains(timestamp)){
+					changedTotals.add(timestamp, amountStore.getOrDefault(timestamp, 0));
+				}
+			});
+			return binaryUpdates ? BinaryRecordCodec.encodeUpdate(version, changedTotals) : MultistreamProcessor.convertAmountsToVersionedJSONBytes(version, true, true, changedTotals);
+		});
+	}
+
+	void pushCompleted() {
+		pushPending.set(false);
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.feritoth.multistreamapp.server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.storage.AmountAggregator;
+
+/* Registry of the connections subscribed to the aggregate updates. The ingest path only appends the timestamps of its batches to a shared
+ * buffer, and nothing at all while there are no subscribers - every interval the buffer is sorted, deduplicated and handed over to the
+ * subscriptions, each of them getting at most one push per interval. A subscriber which does not keep up is skipped until it does, its
+ * changes being conflated meanwhile, so the memory it holds is bounded by the number of distinct timestamps. */
+class SubscriptionHub {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionHub.class);
+	//Number of buffered changes above which the buffer gets deduplicated before growing
+	private static final int COMPACTION_THRESHOLD = 1 << 16;
+
+	private final AmountAggregator amountAggregator;
+	private final ConcurrentHashMap<ClientSession, Subscription> subscriptions;
+	//The timestamps changed since the last interval, guarded by the hub itself
+	private long[] changedTimestamps;
+	private int nbOfChanges;
+	private ScheduledExecutorService pushScheduler;
+
+	SubscriptionHub(AmountAggregator amountAggregator) {
+		this.amountAggregator = amountAggregator;
+		this.subscriptions = new ConcurrentHashMap<>();
+		this.changedTimestamps = new long[1024];
+	}
+
+	//Start publishing the changes every interval
+	void start(long intervalMillis, ThreadFactory pushThreadFactory) {
+		pushScheduler = Executors.newSingleThreadScheduledExecutor(pushThreadFactory);
+		pushScheduler.scheduleWithFixedDelay(this::publishChanges, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	//Register the connection for the pushed updates - returns false if its server mode cannot push any
+	boolean subscribe(ClientSession clientSession, boolean binaryUpdates) {
+		if (clientSession == null || clientSession.getPushTarget() == null || pushScheduler == null){
+			LOGGER.warn("Subscriptions are only supported over the client connections of a running server, ignoring the subscription");
+			return false;
+		}
+		subscriptions.computeIfAbsent(clientSession, subscribedSession -> new Subscription(subscribedSession, binaryUpdates, amountAggregator));
+		return true;
+	}
+
+	void unsubscribe(ClientSession clientSession) {
+		subscriptions.remove(clientSession);
+	}
+
+	int getNbOfSubscribers() {
+		return subscriptions.size();
+	}
+
+	//Record the timestamps of a merged batch - called on the ingest path, so it only copies them
+	void recordChanges(long[] timestamps, int nbOfTimestamps) {
+		if (nbOfTimestamps == 0 || subscriptions.isEmpty()){
+			return;
+		}
+		synchronized (this){
+			if (nbOfChanges + nbOfTimestamps > changedTimestamps.length){
+				if (nbOfChanges >= COMPACTION_THRESHOLD){
+					nbOfChanges = sortAndDeduplicate(changedTimestamps, nbOfChanges);
+				}
+				if (nbOfChanges + nbOfTimestamps > changedTimestamps.length){
+					changedTimestamps = Arrays.copyOf(changedTimestamps, Math.max(changedTimestamps.length * 2, nbOfChanges + nbOfTimestamps));
+				}
+			}
+			System.arraycopy(timestamps, 0, changedTimestamps, nbOfChanges, nbOfTimestamps);
+			nbOfChanges += nbOfTimestamps;
+		}
+	}
+
+	//Hand the changes of the last interval over to every subscription and push them - runs on the push scheduler
+	private void publishChanges() {
+		try {
+			long[] publishedTimestamps;
+			int nbOfPublished;
+			synchronized (this){
+				publishedTimestamps = changedTimestamps;
+				nbOfPublished = nbOfChanges;
+				changedTimestamps = new long[Math.max(1024, Math.min(nbOfChanges, COMPACTION_THRESHOLD))];
+				nbOfChanges = 0;
+			}
+			nbOfPublished = sortAndDeduplicate(publishedTimestamps, nbOfPublished);
+			for (Subscription subscription : subscriptions.values()){
+				subscription.addChanges(publishedTimestamps, nbOfPublished);
+				if (!subscription.schedulePush()){
+					LOGGER.debug("The subscriber is still busy with its previous update, conflating its changes...");
+				}
+			}
+		} catch (RuntimeException e) {
+			//An exception would cancel all the following intervals
+			LOGGER.error("Unable to publish the aggregate updates due to the following exception:" + e);
+		}
+	}
+
+	private static int sortAndDeduplicate(long[] timestamps, int nbOfTimestamps) {
+		if (nbOfTimestamps == 0){
+			return 0;
+		}
+		Arrays.sort(timestamps, 0, nbOfTimestamps);
+		int nbOfDistinct = 1;
+		for (int i = 1; i < nbOfTimestamps; i++){
+			if (timestamps[i] != timestamps[nbOfDistinct - 1]){
+				timestamps[nbOfDistinct++] = timestamps[i];
+			}
+		}
+		return nbOfDistinct;
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.feritoth.multistreamapp.server;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feritoth.multistreamapp.utility.FrameCodec;
+
+/* Accept loop of the thread-per-connection mode: every accepted connection gets its own thread reading and answering its frames with
+ * plain blocking calls. The threads are virtual ones when the runtime offers them (Java 21 or newer), so tens of thousands of mostly idle
+ * connections only cost a few kilobytes each - on the older runtimes regular daemon threads are used instead. */
+public class ThreadPerConnectionAcceptor implements Runnable {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThreadPerConnectionAcceptor.class);
+
+	private final MultistreamServer multistreamServer;
+	private final ServerSocketChannel serverChannel;
+	private final ThreadFactory connectionThreadFactory;
+	//Writes the pushed updates, the connection threads being blocked on reading their clients
+	private final ExecutorService pushExecutor;
+
+	public ThreadPerConnectionAcceptor(MultistreamServer multistreamServer, ServerSocketChannel serverChannel, ThreadFactory connectionThreadFactory) {
+		this.multistreamServer = multistreamServer;
+		this.serverChannel = serverChannel;
+		this.connectionThreadFactory = connectionThreadFactory;
+		this.pushExecutor = Executors.newCachedThreadPool(connectionThreadFactory);
+	}
+
+	/* Static method for creating the factory of the connection threads - virtual threads are looked up reflectively, as the code is
+	 * compiled for older runtimes as well */
+	public static ThreadFactory createConnectionThreadFactory(String namePrefix) {
+		try {
+			Object threadBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			threadBuilder = builderClass.getMethod("name", String.class, long.class).invoke(threadBuilder, namePrefix, 0L);
+			Method factoryMethod = builderClass.getMethod("factory");
+			ThreadFactory virtualThreadFactory = (ThreadFactory) factoryMethod.invoke(threadBuilder);
+			LOGGER.info("Every connection will be served on its own virtual thread");
+			return virtualThreadFactory;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOGGER.warn("Virtual threads are not available on Java " + System.getProperty("java.version") + ", every connection will be served on its own platform thread");
+			AtomicInteger threadCounter = new AtomicInteger();
+			return runnable -> {
+				Thread connectionThread = new Thread(runnable, namePrefix + threadCounter.getAndIncrement());
+				connectionThread.setDaemon(true);
+				return connectionThread;
+			};
+		}
+	}
+
+	@Override
+	public void run() {
+		LOGGER.info("Accepting connections on " + serverChannel.socket().getLocalSocketAddress() + "...");
+		while (serverChannel.isOpen()){
+			try {
+				SocketChannel clientChannel = serverChannel.accept();
+				LOGGER.info("Connection accepted from client on:" + clientChannel.getLocalAddress());
+				connectionThreadFactory.newThread(() -> serveConnection(clientChannel)).start();
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				LOGGER.error("Unable to accept a connection due to the following exception:" + e);
+			}
+		}
+	}
+
+	//Read, process and answer the frames of a connection one by one until the client resigns or goes away
+	private void serveConnection(SocketChannel clientChannel) {
+		ServerMetrics serverMetrics = multistreamServer.getServerMetrics();
+		int localPort = clientChannel.socket().getLocalPort();
+		serverMetrics.connectionOpened(localPort);
+		//The frames are read with blocking calls, no accumulator is needed
+		ClientSession clientSession = new ClientSession(null, multistreamServer.getMaxQueuedBytes());
+		clientSession.setPushTarget(subscription -> pushExecutor.execute(() -> pushUpdates(clientChannel, clientSession, subscription)));
+		try {
+			byte[] payload;
+			while ((payload = FrameCodec.readFrame(clientChannel, multistreamServer.getMaxFrameLength())) != null){
+				//The replies and the pushed updates take turns on the channel, no update being pushed while a frame is processed
+				synchronized (clientChannel){
+					clientSession.setProcessing(true);
+				}
+				//The shared aggregate takes care of the concurrent batches of the other connections
+				ClientReply clientReply = multistreamServer.processClientFrame(clientSession, ByteBuffer.wrap(payload));
+				synchronized (clientChannel){
+					FrameCodec.writeFrame(clientChannel, clientReply.getPayload());
+					clientSession.setProcessing(false);
+				}
+				serverMetrics.messageSent(FrameCodec.HEADER_LENGTH + clientReply.getPayload().length);
+				if (clientReply.isCloseRequested()){
+					LOGGER.info("The client on port " + localPort + " will be shut down on request.");
+					break;
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Dropping the client on port " + localPort + " due to the following exception:" + e);
+		} finally {
+			multistreamServer.getSubscriptionHub().unsubscribe(clientSession);
+			clientSession.releaseCompressionCodec();
+			serverMetrics.connectionClosed(localPort);
+			try {
+				clientChannel.close();
+			} catch (IOException e) {
+				LOGGER.warn("Unable to close the client channel due to the following exception:" + e);
+			}
+		}
+	}
+
+	//Write the pending updates of a subscribed connection - a slow subscriber only blocks its own push, the following changes being
+	//conflated until it completes
+	private void pushUpdates(SocketChannel clientChannel, ClientSession clientSession, Subscription subscription) {
+		try {
+			synchronized (clientChannel){
+				//The update must not overtake the reply of the frame being processed, it is pushed on the next interval instead
+				byte[] pushedUpdate = clientSession.isProcessing() ? null : subscription.drainUpdates();
+				if (pushedUpdate != null){
+					pushedUpdate = multistreamServer.compressReply(clientSession, pushedUpdate);
+					FrameCodec.writeFrame(clientChannel, pushedUpdate);
+					multistreamServer.getServerMetrics().messageSent(FrameCodec.HEADER_LENGTH + pushedUpdate.length);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Unable to push the updates to the subscriber due to the following exception:" + e);
+		} finally {
+			subscription.pushCompleted();
+		}
+	}
+
+}
\ No newline at end of file
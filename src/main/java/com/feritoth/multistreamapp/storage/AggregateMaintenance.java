@@ -0,0 +1,86 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Background task keeping the aggregate bounded: the aged timestamps are folded into the buckets of the rollup tiers, while the ones past
+ * the retention horizon are evicted - and appended to an archive file first, when one is configured */
+public class AggregateMaintenance implements Runnable {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(AggregateMaintenance.class);
+	//Name of the file receiving the evicted totals as timestamp,amount lines
+	public static final String ARCHIVE_FILE = "archived-amounts.csv";
+
+	private final AmountAggregator amountAggregator;
+	private final List<RollupTier> rollupTiers;
+	private final long retentionMillis;
+	private final Path archiveDirectory;
+
+	public AggregateMaintenance(AmountAggregator amountAggregator, List<RollupTier> rollupTiers, long retentionMillis, Path archiveDirectory) {
+		this.amountAggregator = amountAggregator;
+		this.rollupTiers = rollupTiers;
+		this.retentionMillis = retentionMillis;
+		this.archiveDirectory = archiveDirectory;
+		amountAggregator.setRollupTiers(rollupTiers);
+	}
+
+	@Override
+	public void run() {
+		try {
+			maintain(System.currentTimeMillis());
+		} catch (IOException e) {
+			LOGGER.error("Unable to log the maintenance or to archive the evicted amounts due to the following exception:" + e);
+		} catch (RuntimeException e) {
+			//Keep the periodic task scheduled
+			LOGGER.error("The maintenance of the aggregate failed due to the following exception:" + e);
+		}
+	}
+
+	//Apply the rollup tiers and the retention as of the given time
+	public void maintain(long now) throws IOException {
+		int nbOfFoldedEntries = 0;
+		for (RollupTier rollupTier : rollupTiers){
+			nbOfFoldedEntries += amountAggregator.rollup(rollupTier, rollupTier.rollupHorizon(now));
+		}
+		int nbOfEvictedEntries = 0;
+		if (retentionMillis > 0){
+			//The evicted totals are collected first, the archive is written without holding the aggregate
+			TimeSeriesStore evictedTotals = new TimeSeriesStore();
+			nbOfEvictedEntries = amountAggregator.evictBefore(now - retentionMillis, evictedTotals::add);
+			if (archiveDirectory != null && !evictedTotals.isEmpty()){
+				archive(evictedTotals);
+			}
+		}
+		if (nbOfFoldedEntries > 0 || nbOfEvictedEntries > 0){
+			LOGGER.info("Maintenance folded " + nbOfFoldedEntries + " and evicted " + nbOfEvictedEntries + " timestamps, " + amountAggregator.size() + " timestamps left");
+		}
+	}
+
+	private void archive(TimeSeriesStore evictedTotals) throws IOException {
+		Files.createDirectories(archiveDirectory);
+		try (BufferedWriter archiveWriter = Files.newBufferedWriter(archiveDirectory.resolve(ARCHIVE_FILE), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND)){
+			IOException[] failure = new IOException[1];
+			evictedTotals.forEach((timestamp, amount) -> {
+				try {
+					archiveWriter.write(timestamp + "," + amount + "\n");
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			});
+			if (failure[0] != null){
+				throw failure[0];
+			}
+		}
+	}
+
+}
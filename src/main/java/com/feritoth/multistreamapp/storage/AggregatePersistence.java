@@ -0,0 +1,359 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Durability of the aggregate: every merged batch goes to the write-ahead log, whose entries are forced to the disk by a group commit
+ * thread, together with the rollups and the evictions of the maintenance, which the recovery replays in order with the batches, while
+ * the whole aggregate is periodically written into a compact snapshot file. The recovery loads the latest snapshot and only replays the
+ * log written after it - the segments covered by a snapshot are deleted, so the recovery time depends on the snapshot interval. */
+public class AggregatePersistence implements Closeable {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(AggregatePersistence.class);
+	//Snapshot file layout: magic (4) | version (8) | number of totals (4) | timestamp (8) and total (8) per total | CRC32 of the previous bytes (4)
+	private static final int SNAPSHOT_MAGIC = 0x4D534E50;
+	//Snapshot file layout with the statistics: magic (4) | version (8) | flags (1) | number of totals (4) | timestamp (8), total (8) and when
+	//flagged count (8), minimum (8) and maximum (8) per total | number of sketches (4) | window start (8), length (4) and bytes per sketch | CRC32 (4)
+	private static final int STATISTICS_SNAPSHOT_MAGIC = 0x4D534E51;
+	private static final byte STATISTICS_FLAG = 1;
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+
+	private final Path directory;
+	private final WriteAheadLog writeAheadLog;
+	private final long syncIntervalMillis;
+	private final boolean syncBeforeReply;
+	private final long snapshotIntervalMillis;
+	private ScheduledExecutorService snapshotScheduler;
+	private Thread groupCommitThread;
+	private volatile boolean running;
+	//Version of the latest snapshot written or loaded
+	private volatile long snapshotVersion;
+
+	public AggregatePersistence(Path directory, int segmentBytes, long syncIntervalMillis, boolean syncBeforeReply, long snapshotIntervalMillis) {
+		this.directory = directory;
+		this.writeAheadLog = new WriteAheadLog(directory, segmentBytes);
+		this.syncIntervalMillis = syncIntervalMillis;
+		this.syncBeforeReply = syncBeforeReply;
+		this.snapshotIntervalMillis = snapshotIntervalMillis;
+	}
+
+	//Rebuild the aggregate and start logging its batches - to be called before the aggregate serves any client
+	public void start(AmountAggregator amountAggregator) throws IOException {
+		Files.createDirectories(directory);
+		long startTime = System.currentTimeMillis();
+		snapshotVersion = loadLatestSnapshot(amountAggregator);
+		long recoveredVersion = writeAheadLog.recover(snapshotVersion, amountAggregator::restoreBatch, amountAggregator::restoreMaintenance);
+		LOGGER.info("Recovered version " + recoveredVersion + " of the aggregate (" + amountAggregator.size() + " timestamps, snapshot version " + snapshotVersion + ") in " + (System.currentTimeMillis() - startTime) + " ms");
+		amountAggregator.attachPersistence(this);
+		running = true;
+		groupCommitThread = new Thread(this::runGroupCommits, "multistream-wal-sync");
+		groupCommitThread.setDaemon(true);
+		groupCommitThread.start();
+		if (snapshotIntervalMillis > 0){
+			snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread snapshotThread = new Thread(runnable, "multistream-snapshot");
+				snapshotThread.setDaemon(true);
+				return snapshotThread;
+			});
+			snapshotScheduler.scheduleWithFixedDelay(() -> takeSnapshot(amountAggregator), snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	//Log a batch under its version - called by the aggregate inside its write critical section
+	long logBatch(long version, long[] timestamps, double[] amounts, int nbOfAmounts) throws IOException {
+		return writeAheadLog.append(version, timestamps, amounts, nbOfAmounts);
+	}
+
+	//Log a rollup of [from, to) into buckets of the given width (zero for an eviction) under its version - called by the aggregate inside its
+	//write critical section
+	long logMaintenance(long version, long from, long to, long bucketMillis) throws IOException {
+		return writeAheadLog.appendMaintenance(version, from, to, bucketMillis);
+	}
+
+	//Force the log up to the given position whatever the durability of the replies - the evicted totals are only archived once their
+	//eviction can no longer be replayed, otherwise the recovery would evict and archive them a second time
+	void forceDurable(long logPosition) {
+		if (writeAheadLog.getDurableBytes() < logPosition){
+			writeAheadLog.sync();
+		}
+	}
+
+	//Wait until the given log position is on the disk if the replies have to be durable - called outside of any critical section
+	void awaitDurable(long logPosition) throws IOException {
+		if (!syncBeforeReply || writeAheadLog.getDurableBytes() >= logPosition){
+			return;
+		}
+		synchronized (writeAheadLog){
+			//Wake the group commit thread up instead of waiting for the end of its interval
+			writeAheadLog.notifyAll();
+			while (running && writeAheadLog.getDurableBytes() < logPosition){
+				try {
+					writeAheadLog.wait(syncIntervalMillis > 0 ? syncIntervalMillis : 10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the log to be forced to the disk");
+				}
+			}
+		}
+	}
+
+	//Write the current aggregate into a new snapshot and drop the log segments and snapshots it makes useless
+	public void takeSnapshot(AmountAggregator amountAggregator) {
+		try {
+			//Copy the totals first, the disk is written without holding the aggregate
+			SnapshotData snapshotData = amountAggregator.readAggregate(SnapshotData::new);
+			if (snapshotData.version == snapshotVersion){
+				return;
+			}
+			writeSnapshot(snapshotData);
+			snapshotVersion = snapshotData.version;
+			int nbOfDeletedSegments = writeAheadLog.deleteSegmentsUpTo(snapshotData.version);
+			for (Path olderSnapshot : listSnapshots()){
+				if (parseSnapshotVersion(olderSnapshot) < snapshotData.version){
+					Files.delete(olderSnapshot);
+				}
+			}
+			LOGGER.info("Snapshot of version " + snapshotData.version + " written with " + snapshotData.nbOfTotals + " timestamps, " + snapshotData.sketchWindowStarts.size()
+					+ " sketch(es), " + nbOfDeletedSegments + " log segment(s) deleted");
+		} catch (IOException e) {
+			LOGGER.error("Unable to write the snapshot of the aggregate due to the following exception:" + e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		if (snapshotScheduler != null){
+			snapshotScheduler.shutdown();
+		}
+		synchronized (writeAheadLog){
+			writeAheadLog.notifyAll();
+		}
+		writeAheadLog.close();
+	}
+
+	public long getSnapshotVersion() {
+		return snapshotVersion;
+	}
+
+	//Force the log every interval, or right away when a reply waits for it - all the entries appended meanwhile share the same force
+	private void runGroupCommits() {
+		while (running){
+			synchronized (writeAheadLog){
+				if (!syncBeforeReply || writeAheadLog.getDurableBytes() == writeAheadLog.getAppendedBytes()){
+					try {
+						writeAheadLog.wait(syncIntervalMillis > 0 ? syncIntervalMillis : 10);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+			writeAheadLog.sync();
+			synchronized (writeAheadLog){
+				writeAheadLog.notifyAll();
+			}
+		}
+	}
+
+	//Load the newest readable snapshot into the aggregate - returns its version or 0 if there is none
+	private long loadLatestSnapshot(AmountAggregator amountAggregator) throws IOException {
+		List<Path> snapshotPaths = listSnapshots();
+		for (int i = snapshotPaths.size() - 1; i >= 0; i--){
+			try {
+				SnapshotData snapshotData = readSnapshot(snapshotPaths.get(i));
+				if (snapshotData.counts == null && snapshotData.nbOfTotals > 0 && amountAggregator.hasStatistics()){
+					LOGGER.warn("The snapshot " + snapshotPaths.get(i) + " holds no statistics, the timestamps it restores count no amounts until new ones arrive");
+				}
+				amountAggregator.restoreSnapshot(snapshotData.version, snapshotData.timestamps, snapshotData.totals,
+						snapshotData.counts, snapshotData.minimums, snapshotData.maximums, snapshotData.nbOfTotals);
+				int nbOfDroppedSketches = 0;
+				for (int j = 0; j < snapshotData.sketchWindowStarts.size(); j++){
+					if (!amountAggregator.restoreSketch(snapshotData.sketchWindowStarts.get(j), QuantileSketch.fromBytes(snapshotData.sketches.get(j)))){
+						nbOfDroppedSketches++;
+					}
+				}
+				if (nbOfDroppedSketches > 0){
+					LOGGER.warn("Dropped " + nbOfDroppedSketches + " sketch(es) of the snapshot " + snapshotPaths.get(i) + " not matching the configured sketch windows or accuracy");
+				}
+				return snapshotData.version;
+			} catch (IOException e) {
+				LOGGER.warn("Skipping the unreadable snapshot " + snapshotPaths.get(i) + " due to the following exception:" + e);
+			}
+		}
+		return 0;
+	}
+
+	//Write the snapshot into a temporary file first, so that a crash never leaves a partial snapshot behind
+	private void writeSnapshot(SnapshotData snapshotData) throws IOException {
+		Path snapshotPath = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, snapshotData.version, SNAPSHOT_SUFFIX));
+		Path temporaryPath = directory.resolve(snapshotPath.getFileName() + ".tmp");
+		try (FileOutputStream fileStream = new FileOutputStream(temporaryPath.toFile())){
+			CheckedOutputStream checkedStream = new CheckedOutputStream(new BufferedOutputStream(fileStream, 65536), new CRC32());
+			DataOutputStream snapshotStream = new DataOutputStream(checkedStream);
+			snapshotStream.writeInt(STATISTICS_SNAPSHOT_MAGIC);
+			snapshotStream.writeLong(snapshotData.version);
+			snapshotStream.writeByte(snapshotData.counts != null ? STATISTICS_FLAG : 0);
+			snapshotStream.writeInt(snapshotData.nbOfTotals);
+			for (int i = 0; i < snapshotData.nbOfTotals; i++){
+				snapshotStream.writeLong(snapshotData.timestamps[i]);
+				snapshotStream.writeDouble(snapshotData.totals[i]);
+				if (snapshotData.counts != null){
+					snapshotStream.writeLong(snapshotData.counts[i]);
+					snapshotStream.writeDouble(snapshotData.minimums[i]);
+					snapshotStream.writeDouble(snapshotData.maximums[i]);
+				}
+			}
+			snapshotStream.writeInt(snapshotData.sketchWindowStarts.size());
+			for (int i = 0; i < snapshotData.sketchWindowStarts.size(); i++){
+				snapshotStream.writeLong(snapshotData.sketchWindowStarts.get(i));
+				snapshotStream.writeInt(snapshotData.sketches.get(i).length);
+				snapshotStream.write(snapshotData.sketches.get(i));
+			}
+			snapshotStream.writeInt((int) checkedStream.getChecksum().getValue());
+			snapshotStream.flush();
+			fileStream.getFD().sync();
+		}
+		Files.move(temporaryPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private SnapshotData readSnapshot(Path snapshotPath) throws IOException {
+		try (CheckedInputStream checkedStream = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath), 65536), new CRC32())){
+			DataInputStream snapshotStream = new DataInputStream(checkedStream);
+			//The snapshots written before the statistics hold the totals only
+			int magic = snapshotStream.readInt();
+			if (magic != SNAPSHOT_MAGIC && magic != STATISTICS_SNAPSHOT_MAGIC){
+				throw new IOException("Not a snapshot file");
+			}
+			long version = snapshotStream.readLong();
+			boolean statistics = magic == STATISTICS_SNAPSHOT_MAGIC && (snapshotStream.readByte() & STATISTICS_FLAG) != 0;
+			int nbOfTotals = snapshotStream.readInt();
+			long snapshotSize = Files.size(snapshotPath);
+			if (nbOfTotals < 0 || (long) nbOfTotals * (statistics ? 40 : 16) > snapshotSize){
+				throw new IOException("Invalid number of totals: " + nbOfTotals);
+			}
+			SnapshotData snapshotData = new SnapshotData(version, nbOfTotals, statistics);
+			for (int i = 0; i < nbOfTotals; i++){
+				snapshotData.timestamps[i] = snapshotStream.readLong();
+				snapshotData.totals[i] = snapshotStream.readDouble();
+				if (statistics){
+					snapshotData.counts[i] = snapshotStream.readLong();
+					snapshotData.minimums[i] = snapshotStream.readDouble();
+					snapshotData.maximums[i] = snapshotStream.readDouble();
+				}
+			}
+			if (magic == STATISTICS_SNAPSHOT_MAGIC){
+				int nbOfSketches = snapshotStream.readInt();
+				if (nbOfSketches < 0 || (long) nbOfSketches * 12 > snapshotSize){
+					throw new IOException("Invalid number of sketches: " + nbOfSketches);
+				}
+				for (int i = 0; i < nbOfSketches; i++){
+					snapshotData.sketchWindowStarts.add(snapshotStream.readLong());
+					int sketchLength = snapshotStream.readInt();
+					if (sketchLength < 0 || sketchLength > snapshotSize){
+						throw new IOException("Invalid sketch length: " + sketchLength);
+					}
+					byte[] sketchBytes = new byte[sketchLength];
+					snapshotStream.readFully(sketchBytes);
+					snapshotData.sketches.add(sketchBytes);
+				}
+			}
+			int computedChecksum = (int) checkedStream.getChecksum().getValue();
+			if (snapshotStream.readInt() != computedChecksum){
+				throw new IOException("Checksum mismatch");
+			}
+			return snapshotData;
+		}
+	}
+
+	private List<Path> listSnapshots() throws IOException {
+		List<Path> snapshotPaths = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)){
+			for (Path snapshotPath : directoryStream){
+				snapshotPaths.add(snapshotPath);
+			}
+		}
+		//The zero padded names sort in version order
+		Collections.sort(snapshotPaths);
+		return snapshotPaths;
+	}
+
+	private static long parseSnapshotVersion(Path snapshotPath) {
+		String fileName = snapshotPath.getFileName().toString();
+		return Long.parseLong(fileName.substring(SNAPSHOT_PREFIX.length(), fileName.length() - SNAPSHOT_SUFFIX.length()));
+	}
+
+	/* The totals of the aggregate at a given version, together with their statistics (null when the store keeps none) and the serialized
+	 * quantile sketches */
+	private static final class SnapshotData {
+
+		private final long version;
+		private final long[] timestamps;
+		private final double[] totals;
+		private final long[] counts;
+		private final double[] minimums;
+		private final double[] maximums;
+		private final int nbOfTotals;
+		private final List<Long> sketchWindowStarts;
+		private final List<byte[]> sketches;
+
+		private SnapshotData(long version, int nbOfTotals, boolean statistics) {
+			this.version = version;
+			this.timestamps = new long[nbOfTotals];
+			this.totals = new double[nbOfTotals];
+			this.counts = statistics ? new long[nbOfTotals] : null;
+			this.minimums = statistics ? new double[nbOfTotals] : null;
+			this.maximums = statistics ? new double[nbOfTotals] : null;
+			this.nbOfTotals = nbOfTotals;
+			this.sketchWindowStarts = new ArrayList<>();
+			this.sketches = new ArrayList<>();
+		}
+
+		private SnapshotData(TimeSeriesStore amountStore, WindowedSketches windowedSketches, long version) throws IOException {
+			this(version, amountStore.size(), amountStore.hasStatistics());
+			int[] position = new int[1];
+			amountStore.forEachStatisticsInRange(Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, total, count, minimum, maximum) -> {
+				timestamps[position[0]] = timestamp;
+				totals[position[0]] = total;
+				if (counts != null){
+					counts[position[0]] = count;
+					minimums[position[0]] = minimum;
+					maximums[position[0]] = maximum;
+				}
+				position[0]++;
+			});
+			//The sketches are serialized right away, the aggregate keeps changing them once the lock is released
+			if (windowedSketches != null){
+				windowedSketches.forEach((windowStart, quantileSketch) -> {
+					sketchWindowStarts.add(windowStart);
+					sketches.add(quantileSketch.toBytes());
+				});
+			}
+		}
+
+	}
+
+}
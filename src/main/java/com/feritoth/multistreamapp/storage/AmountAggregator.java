@@ -0,0 +1,430 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Thread-safe owner of the aggregate store - batches are merged inside a single write critical section, while any number of readers
+ * can serialize the store concurrently. The store optionally keeps the statistics of every timestamp and the amounts optionally go into
+ * the quantile sketches of their time window as well, both being updated inside the same critical section as the totals. Once the sealing
+ * is enabled, the windows falling before the event-time watermark (the latest merged timestamp minus the allowed lateness) are sealed into
+ * immutable columnar segments right after the batch moving the watermark past them. */
+public class AmountAggregator {
+	
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(AmountAggregator.class);
+	
+	/* Callback reading the store together with the version it reflects */
+	public interface StoreReader<T> {
+		T read(TimeSeriesStore amountStore, long version) throws IOException;
+	}
+	
+	/* Callback reading the store and the quantile sketches (null when they are disabled) together with the version they reflect */
+	public interface AggregateReader<T> {
+		T read(TimeSeriesStore amountStore, WindowedSketches windowedSketches, long version) throws IOException;
+	}
+	
+	/* Callback notified of the changes of the store from inside the write critical section, so it needs to be quick */
+	public interface ChangeListener {
+		//The totals of the given timestamps changed with the given version
+		void onTotalsChanged(long version, long[] timestamps, int nbOfTimestamps);
+		//The store changed beyond single timestamps (rollup, eviction or recovery)
+		void onStoreReset(long version);
+	}
+	
+	private final TimeSeriesStore amountStore;
+	private final ReentrantReadWriteLock storeLock;
+	//Increased with every merged batch of amounts
+	private long version;
+	//Optional durability of the merged batches
+	private AggregatePersistence aggregatePersistence;
+	//Rollup tiers applied to the aged timestamps and the retention horizon everything was evicted before
+	private List<RollupTier> rollupTiers;
+	private long evictedBefore;
+	//Optional listener of the changes
+	private ChangeListener changeListener;
+	//Optional quantile sketches of the amounts per time window
+	private WindowedSketches windowedSketches;
+	//Optional sealing of the windows behind the watermark (disabled without a window) and the latest timestamp merged so far
+	private long allowedLatenessMillis;
+	private long sealWindowMillis;
+	private long maxEventTime;
+	
+	public AmountAggregator() {
+		this.amountStore = new TimeSeriesStore();
+		this.storeLock = new ReentrantReadWriteLock();
+		this.rollupTiers = Collections.emptyList();
+		this.evictedBefore = Long.MIN_VALUE;
+		this.maxEventTime = Long.MIN_VALUE;
+	}
+	
+	//Merge the given amounts and collect the new totals of the touched timestamps if asked to - returns the resulting version.
+	//The amounts arriving for timestamps which were rolled up or evicted already are moved to their bucket or dropped inside the given arrays.
+	public long applyBatch(long[] timestamps, double[] amounts, int nbOfAmounts, TimeSeriesStore touchedTotals) throws IOException {
+		if (nbOfAmounts == 0 && touchedTotals == null){
+			return getVersion();
+		}
+		long logPosition = 0;
+		long batchVersion;
+		storeLock.writeLock().lock();
+		try {
+			nbOfAmounts = normalizeLateAmounts(timestamps, amounts, nbOfAmounts);
+			//The batch is logged before being merged, so the log order always matches the versions
+			if (aggregatePersistence != null && nbOfAmounts > 0){
+				logPosition = aggregatePersistence.logBatch(version + 1, timestamps, amounts, nbOfAmounts);
+			}
+			mergeAmounts(timestamps, amounts, nbOfAmounts);
+			advanceWatermark(timestamps, nbOfAmounts);
+			if (nbOfAmounts > 0){
+				version++;
+				if (changeListener != null){
+					changeListener.onTotalsChanged(version, timestamps, nbOfAmounts);
+				}
+			}
+			if (touchedTotals != null){
+				for (int i = 0; i < nbOfAmounts; i++){
+					if (!touchedTotals.contains(timestamps[i])){
+						touchedTotals.add(timestamps[i], amountStore.getOrDefault(timestamps[i], 0));
+					}
+				}
+			}
+			batchVersion = version;
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+		if (logPosition > 0){
+			aggregatePersistence.awaitDurable(logPosition);
+		}
+		return batchVersion;
+	}
+	
+	//Merge a batch read back by the recovery under the version it was logged with - only used before serving any client
+	void restoreBatch(long restoredVersion, long[] timestamps, double[] amounts, int nbOfAmounts) {
+		storeLock.writeLock().lock();
+		try {
+			mergeAmounts(timestamps, amounts, nbOfAmounts);
+			advanceWatermark(timestamps, nbOfAmounts);
+			version = restoredVersion;
+			if (changeListener != null){
+				changeListener.onStoreReset(version);
+			}
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Merge the totals (and their statistics, null when the snapshot holds none) read back out of a snapshot - only used before serving
+	//any client
+	void restoreSnapshot(long restoredVersion, long[] timestamps, double[] totals, long[] counts, double[] minimums, double[] maximums, int nbOfTotals) {
+		storeLock.writeLock().lock();
+		try {
+			for (int i = 0; i < nbOfTotals; i++){
+				if (counts != null){
+					amountStore.add(timestamps[i], totals[i], counts[i], minimums[i], maximums[i]);
+				} else {
+					//The number of amounts behind the total is unknown
+					amountStore.add(timestamps[i], totals[i], 0, Double.NaN, Double.NaN);
+				}
+			}
+			advanceWatermark(timestamps, nbOfTotals);
+			version = restoredVersion;
+			if (changeListener != null){
+				changeListener.onStoreReset(version);
+			}
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Apply a rollup of [from, to) into buckets of the given width, or an eviction for a zero width, read back by the recovery under the version
+	//it was logged with - the evicted totals are not archived again. Only used before serving any client
+	void restoreMaintenance(long restoredVersion, long from, long to, long bucketMillis) {
+		storeLock.writeLock().lock();
+		try {
+			if (bucketMillis > 0){
+				amountStore.rollup(from, to, bucketMillis);
+				compactOverlay();
+			} else {
+				amountStore.removeRange(from, to, (TimeSeriesStore.AmountVisitor) (timestamp, amount) -> {});
+				evictedBefore = Math.max(evictedBefore, to);
+				if (windowedSketches != null){
+					windowedSketches.evictBefore(to);
+				}
+			}
+			version = restoredVersion;
+			if (changeListener != null){
+				changeListener.onStoreReset(version);
+			}
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Merge a sketch read back out of a snapshot into its window - returns false if it does not fit the configured sketches
+	boolean restoreSketch(long windowStart, QuantileSketch quantileSketch) {
+		storeLock.writeLock().lock();
+		try {
+			return windowedSketches != null && windowedSketches.restore(windowStart, quantileSketch);
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Fold the timestamps before the given horizon into the buckets of the tier - returns the number of entries which disappeared
+	public int rollup(RollupTier rollupTier, long horizon) throws IOException {
+		storeLock.writeLock().lock();
+		try {
+			if (horizon <= rollupTier.getRolledUpBefore()){
+				return 0;
+			}
+			long rolledUpBefore = rollupTier.getRolledUpBefore();
+			//Like the batches, the rollup is logged under its version before the store changes, so the recovery folds the same entries
+			//between the same batches - and a failing log leaves the store untouched
+			boolean storeChanged = amountStore.countRange(rolledUpBefore, horizon - 1) > 0;
+			if (storeChanged && aggregatePersistence != null){
+				aggregatePersistence.logMaintenance(version + 1, rolledUpBefore, horizon, rollupTier.getBucketMillis());
+			}
+			int nbOfFoldedEntries = amountStore.rollup(rolledUpBefore, horizon, rollupTier.getBucketMillis());
+			rollupTier.setRolledUpBefore(horizon);
+			//The buckets of a sealed period go to the correction overlay
+			compactOverlay();
+			if (storeChanged){
+				//Let the delta clients notice the change and ask for a snapshot
+				version++;
+				if (changeListener != null){
+					changeListener.onStoreReset(version);
+				}
+			}
+			return nbOfFoldedEntries;
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Remove the timestamps before the given horizon, handing their totals to the visitor - returns the number of evicted entries once the
+	//eviction is on the disk, so that the evicted totals can be archived without the recovery ever evicting them again
+	public int evictBefore(long horizon, TimeSeriesStore.AmountVisitor evictedVisitor) throws IOException {
+		long logPosition = 0;
+		int nbOfEvictedEntries;
+		storeLock.writeLock().lock();
+		try {
+			if (horizon <= evictedBefore){
+				return 0;
+			}
+			long previousHorizon = evictedBefore;
+			//The eviction is logged before the store changes, a failing log leaving the store untouched
+			if (aggregatePersistence != null && amountStore.countRange(previousHorizon, horizon - 1) > 0){
+				logPosition = aggregatePersistence.logMaintenance(version + 1, previousHorizon, horizon, 0);
+			}
+			nbOfEvictedEntries = amountStore.removeRange(previousHorizon, horizon, evictedVisitor);
+			evictedBefore = horizon;
+			if (windowedSketches != null){
+				windowedSketches.evictBefore(horizon);
+			}
+			if (nbOfEvictedEntries > 0){
+				version++;
+				if (changeListener != null){
+					changeListener.onStoreReset(version);
+				}
+			}
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+		if (logPosition > 0){
+			aggregatePersistence.forceDurable(logPosition);
+		}
+		return nbOfEvictedEntries;
+	}
+	
+	//Use the given rollup tiers for the amounts arriving late - to be called before the maintenance starts
+	public void setRollupTiers(List<RollupTier> rollupTiers) {
+		storeLock.writeLock().lock();
+		try {
+			this.rollupTiers = rollupTiers;
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Keep the statistics of every timestamp and/or the quantile sketches (null disables them) - to be called before any batch is merged
+	public void enableStatistics(boolean timestampStatistics, WindowedSketches windowedSketches) {
+		storeLock.writeLock().lock();
+		try {
+			if (timestampStatistics){
+				amountStore.enableStatistics();
+			}
+			this.windowedSketches = windowedSketches;
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Seal the windows of the given width once the watermark lagging the given lateness behind the latest timestamp passed them, into
+	//segments of the given capacity memory-mapped out of the given directory (or on the heap without one) - the amounts arriving for the
+	//sealed windows are kept in an overlay of the given limit. To be called before any batch is merged
+	public void enableSealing(long allowedLatenessMillis, long sealWindowMillis, int segmentCapacity, int overlayLimit, Path segmentDirectory) throws IOException {
+		if (allowedLatenessMillis < 0 || sealWindowMillis <= 0){
+			throw new IllegalArgumentException("Invalid sealing: lateness of " + allowedLatenessMillis + " ms, window of " + sealWindowMillis + " ms");
+		}
+		storeLock.writeLock().lock();
+		try {
+			if (segmentDirectory != null){
+				//The segments of a previous run are rebuilt by the recovery
+				ColumnarSegment.deleteSegmentFiles(segmentDirectory);
+			}
+			amountStore.enableSealing(segmentCapacity, overlayLimit, segmentDirectory);
+			this.allowedLatenessMillis = allowedLatenessMillis;
+			this.sealWindowMillis = sealWindowMillis;
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Whether the merged batches need their amounts one by one - the statistics are lost once the amounts of a timestamp are summed up
+	public boolean needsRawAmounts() {
+		storeLock.readLock().lock();
+		try {
+			return amountStore.hasStatistics() || windowedSketches != null;
+		} finally {
+			storeLock.readLock().unlock();
+		}
+	}
+	
+	//Notify the given listener of all the following changes - to be called before any batch is merged
+	public void setChangeListener(ChangeListener changeListener) {
+		storeLock.writeLock().lock();
+		try {
+			this.changeListener = changeListener;
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	private void mergeAmounts(long[] timestamps, double[] amounts, int nbOfAmounts) {
+		for (int i = 0; i < nbOfAmounts; i++){
+			amountStore.add(timestamps[i], amounts[i]);
+		}
+		if (windowedSketches != null){
+			for (int i = 0; i < nbOfAmounts; i++){
+				windowedSketches.add(timestamps[i], amounts[i]);
+			}
+		}
+	}
+	
+	//Move the watermark to the latest of the merged timestamps minus the allowed lateness and seal the windows ending before it - a failed
+	//sealing leaves the entries inside the chunks, to be sealed with the next batch. The contents do not change, so neither does the version
+	private void advanceWatermark(long[] timestamps, int nbOfTimestamps) {
+		if (sealWindowMillis <= 0){
+			return;
+		}
+		for (int i = 0; i < nbOfTimestamps; i++){
+			maxEventTime = Math.max(maxEventTime, timestamps[i]);
+		}
+		if (maxEventTime < Long.MIN_VALUE + allowedLatenessMillis + sealWindowMillis){
+			return;
+		}
+		long sealHorizon = Math.floorDiv(maxEventTime - allowedLatenessMillis, sealWindowMillis) * sealWindowMillis;
+		if (sealHorizon > amountStore.getSealedBefore()){
+			try {
+				amountStore.sealBefore(sealHorizon);
+			} catch (IOException e) {
+				LOGGER.error("Unable to seal the aggregate before " + sealHorizon + " due to the following exception:" + e);
+			}
+		}
+		compactOverlay();
+	}
+	
+	//Merge the correction overlay into the sealed segments once it outgrew its limit
+	private void compactOverlay() {
+		try {
+			amountStore.compactOverlay(false);
+		} catch (IOException e) {
+			LOGGER.error("Unable to compact the correction overlay of the aggregate due to the following exception:" + e);
+		}
+	}
+	
+	//Drop the amounts older than the retention horizon and move the ones inside the rolled up period to their bucket - returns the number
+	//of amounts kept at the start of the arrays
+	private int normalizeLateAmounts(long[] timestamps, double[] amounts, int nbOfAmounts) {
+		int nbOfKeptAmounts = 0;
+		for (int i = 0; i < nbOfAmounts; i++){
+			long timestamp = timestamps[i];
+			if (timestamp < evictedBefore){
+				continue;
+			}
+			//The coarsest tier covering the timestamp decides its bucket
+			for (int j = rollupTiers.size() - 1; j >= 0; j--){
+				RollupTier rollupTier = rollupTiers.get(j);
+				if (timestamp < rollupTier.getRolledUpBefore()){
+					timestamp = rollupTier.bucketStart(timestamp);
+					break;
+				}
+			}
+			timestamps[nbOfKeptAmounts] = timestamp;
+			amounts[nbOfKeptAmounts++] = amounts[i];
+		}
+		return nbOfKeptAmounts;
+	}
+	
+	void attachPersistence(AggregatePersistence aggregatePersistence) {
+		storeLock.writeLock().lock();
+		try {
+			this.aggregatePersistence = aggregatePersistence;
+		} finally {
+			storeLock.writeLock().unlock();
+		}
+	}
+	
+	//Give the reader a consistent view of the store
+	public <T> T readStore(StoreReader<T> storeReader) throws IOException {
+		storeLock.readLock().lock();
+		try {
+			return storeReader.read(amountStore, version);
+		} finally {
+			storeLock.readLock().unlock();
+		}
+	}
+	
+	//Give the reader a consistent view of the store and of the quantile sketches
+	public <T> T readAggregate(AggregateReader<T> aggregateReader) throws IOException {
+		storeLock.readLock().lock();
+		try {
+			return aggregateReader.read(amountStore, windowedSketches, version);
+		} finally {
+			storeLock.readLock().unlock();
+		}
+	}
+	
+	public boolean hasStatistics() {
+		storeLock.readLock().lock();
+		try {
+			return amountStore.hasStatistics();
+		} finally {
+			storeLock.readLock().unlock();
+		}
+	}
+	
+	public long getVersion() {
+		storeLock.readLock().lock();
+		try {
+			return version;
+		} finally {
+			storeLock.readLock().unlock();
+		}
+	}
+	
+	public int size() {
+		storeLock.readLock().lock();
+		try {
+			return amountStore.size();
+		} finally {
+			storeLock.readLock().unlock();
+		}
+	}
+
+}
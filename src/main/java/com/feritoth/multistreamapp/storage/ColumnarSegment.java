@@ -0,0 +1,215 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Immutable sorted run of sealed entries held in parallel columns - the timestamps, the totals and (when the store keeps them) the counts,
+ * minimums and maximums. The columns either wrap exactly sized heap arrays or views of a read-only memory-mapped file, which keeps the
+ * sealed entries out of the heap altogether. Trimming a segment only narrows the views, the columns are never copied nor modified. */
+final class ColumnarSegment {
+
+	//Name of the files backing the mapped segments
+	static final String SEGMENT_FILE_PREFIX = "segment-";
+	static final String SEGMENT_FILE_SUFFIX = ".col";
+	private static final AtomicLong SEGMENT_COUNTER = new AtomicLong();
+
+	private final LongBuffer timestamps;
+	private final DoubleBuffer amounts;
+	private final LongBuffer counts;
+	private final DoubleBuffer minimums;
+	private final DoubleBuffer maximums;
+	private final int size;
+	//Sum of the totals and the largest total
+	private final double total;
+	private final double maxAmount;
+
+	private ColumnarSegment(LongBuffer timestamps, DoubleBuffer amounts, LongBuffer counts, DoubleBuffer minimums, DoubleBuffer maximums) {
+		this.timestamps = timestamps;
+		this.amounts = amounts;
+		this.counts = counts;
+		this.minimums = minimums;
+		this.maximums = maximums;
+		this.size = timestamps.limit();
+		//Compensated (Neumaier) sum, the segments being summed up as a whole by the ranges covering them
+		double segmentTotal = 0;
+		double compensation = 0;
+		double segmentMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++){
+			double amount = amounts.get(i);
+			double sum = segmentTotal + amount;
+			compensation += Math.abs(segmentTotal) >= Math.abs(amount) ? (segmentTotal - sum) + amount : (amount - sum) + segmentTotal;
+			segmentTotal = sum;
+			segmentMax = Math.max(segmentMax, amount);
+		}
+		this.total = segmentTotal + compensation;
+		this.maxAmount = segmentMax;
+	}
+
+	/* Static method for sealing the first size entries of the given columns (the statistics being null for the stores not keeping them) -
+	 * into a file of the given directory mapped into memory, or into exactly sized heap arrays without a directory */
+	static ColumnarSegment seal(long[] timestamps, double[] amounts, long[] counts, double[] minimums, double[] maximums, int size, Path segmentDirectory) throws IOException {
+		if (segmentDirectory == null){
+			return new ColumnarSegment(LongBuffer.wrap(Arrays.copyOf(timestamps, size)), DoubleBuffer.wrap(Arrays.copyOf(amounts, size)),
+					counts == null ? null : LongBuffer.wrap(Arrays.copyOf(counts, size)),
+					counts == null ? null : DoubleBuffer.wrap(Arrays.copyOf(minimums, size)),
+					counts == null ? null : DoubleBuffer.wrap(Arrays.copyOf(maximums, size)));
+		}
+		int nbOfColumns = counts == null ? 2 : 5;
+		Path segmentPath = segmentDirectory.resolve(SEGMENT_FILE_PREFIX + SEGMENT_COUNTER.incrementAndGet() + SEGMENT_FILE_SUFFIX);
+		MappedByteBuffer segmentBuffer;
+		try (FileChannel segmentChannel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			//The columns are written one after the other, in the native order of the mapped views
+			ByteBuffer columnBuffer = ByteBuffer.allocate(size * 8).order(ByteOrder.nativeOrder());
+			columnBuffer.asLongBuffer().put(timestamps, 0, size);
+			writeColumn(segmentChannel, columnBuffer);
+			columnBuffer.asDoubleBuffer().put(amounts, 0, size);
+			writeColumn(segmentChannel, columnBuffer);
+			if (counts != null){
+				columnBuffer.asLongBuffer().put(counts, 0, size);
+				writeColumn(segmentChannel, columnBuffer);
+				columnBuffer.asDoubleBuffer().put(minimums, 0, size);
+				writeColumn(segmentChannel, columnBuffer);
+				columnBuffer.asDoubleBuffer().put(maximums, 0, size);
+				writeColumn(segmentChannel, columnBuffer);
+			}
+			segmentBuffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, (long) size * 8 * nbOfColumns);
+		} finally {
+			//The mapping outlives the file, which is only kept around on the platforms refusing to delete it
+			try {
+				Files.deleteIfExists(segmentPath);
+			} catch (IOException e) {
+				segmentPath.toFile().deleteOnExit();
+			}
+		}
+		segmentBuffer.order(ByteOrder.nativeOrder());
+		return new ColumnarSegment(column(segmentBuffer, 0, size).asLongBuffer(), column(segmentBuffer, 1, size).asDoubleBuffer(),
+				counts == null ? null : column(segmentBuffer, 2, size).asLongBuffer(),
+				counts == null ? null : column(segmentBuffer, 3, size).asDoubleBuffer(),
+				counts == null ? null : column(segmentBuffer, 4, size).asDoubleBuffer());
+	}
+
+	/* Static method for deleting the files the previous runs left behind in the segment directory */
+	static void deleteSegmentFiles(Path segmentDirectory) throws IOException {
+		Files.createDirectories(segmentDirectory);
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(segmentDirectory, SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)){
+			for (Path segmentPath : directoryStream){
+				Files.deleteIfExists(segmentPath);
+			}
+		}
+	}
+
+	//The entries inside [from, to) of this segment, sharing its columns
+	ColumnarSegment slice(int from, int to) {
+		return new ColumnarSegment(slice(timestamps, from, to), slice(amounts, from, to), counts == null ? null : slice(counts, from, to),
+				counts == null ? null : slice(minimums, from, to), counts == null ? null : slice(maximums, from, to));
+	}
+
+	//Binary search of the timestamp - returns its position or (-(insertion point) - 1)
+	int search(long timestamp) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high){
+			int middle = (low + high) >>> 1;
+			long middleTimestamp = timestamps.get(middle);
+			if (middleTimestamp < timestamp){
+				low = middle + 1;
+			} else if (middleTimestamp > timestamp){
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	//Position of the first entry at or after the timestamp
+	int lowerBound(long timestamp) {
+		int position = search(timestamp);
+		return position >= 0 ? position : -position - 1;
+	}
+
+	//Position of the first entry after the timestamp
+	int upperBound(long timestamp) {
+		int position = search(timestamp);
+		return position >= 0 ? position + 1 : -position - 1;
+	}
+
+	long getTimestamp(int position) {
+		return timestamps.get(position);
+	}
+
+	double getAmount(int position) {
+		return amounts.get(position);
+	}
+
+	//The statistics of the entry, a count of zero for the segments sealed without statistics
+	long getCount(int position) {
+		return counts == null ? 0 : counts.get(position);
+	}
+
+	double getMinimum(int position) {
+		return counts == null ? Double.NaN : minimums.get(position);
+	}
+
+	double getMaximum(int position) {
+		return counts == null ? Double.NaN : maximums.get(position);
+	}
+
+	long firstTimestamp() {
+		return timestamps.get(0);
+	}
+
+	long lastTimestamp() {
+		return timestamps.get(size - 1);
+	}
+
+	int size() {
+		return size;
+	}
+
+	double getTotal() {
+		return total;
+	}
+
+	double getMaxAmount() {
+		return maxAmount;
+	}
+
+	//Write the whole column buffer, which is filled through its views and left cleared for the next column
+	private static void writeColumn(FileChannel segmentChannel, ByteBuffer columnBuffer) throws IOException {
+		while (columnBuffer.hasRemaining()){
+			segmentChannel.write(columnBuffer);
+		}
+		columnBuffer.clear();
+	}
+
+	private static ByteBuffer column(MappedByteBuffer segmentBuffer, int columnIndex, int size) {
+		ByteBuffer column = segmentBuffer.duplicate();
+		column.position(columnIndex * size * 8).limit((columnIndex + 1) * size * 8);
+		return column.slice().order(ByteOrder.nativeOrder());
+	}
+
+	private static LongBuffer slice(LongBuffer column, int from, int to) {
+		LongBuffer view = column.duplicate();
+		view.limit(to).position(from);
+		return view.slice();
+	}
+
+	private static DoubleBuffer slice(DoubleBuffer column, int from, int to) {
+		DoubleBuffer view = column.duplicate();
+		view.limit(to).position(from);
+		return view.slice();
+	}
+
+}
@@ -0,0 +1,316 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/* Mergeable quantile sketch of the amounts with a relative accuracy guarantee: every amount is counted inside a logarithmic bucket, the
+ * buckets of the positive and of the negative amounts being kept apart and the amounts closer to zero than MIN_INDEXED_AMOUNT having a
+ * counter of their own. An estimated quantile is within the relative accuracy of the exact one as long as no bucket had to be collapsed -
+ * once an amount would need more than maxBuckets buckets on its side, the buckets closest to zero are merged together, so the memory of a
+ * sketch stays bounded whatever the number of amounts. Two sketches of the same accuracy merge exactly by adding up their counters.
+ * The sketch is not thread-safe, the aggregator only touches it inside its critical sections. */
+public class QuantileSketch {
+
+	//The amounts below this magnitude are counted as zeros
+	public static final double MIN_INDEXED_AMOUNT = 1e-9;
+	//Leading byte of the serialized sketches
+	private static final byte SERIAL_FORMAT = 1;
+
+	private final double relativeAccuracy;
+	private final int maxBuckets;
+	private final double gamma;
+	private final double logGamma;
+	private final BucketCounters positiveCounters;
+	private final BucketCounters negativeCounters;
+	private long zeroCount;
+	private long count;
+	private double minimum;
+	private double maximum;
+
+	public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+		if (relativeAccuracy <= 0 || relativeAccuracy >= 1){
+			throw new IllegalArgumentException("The relative accuracy needs to be inside (0, 1), got " + relativeAccuracy);
+		}
+		if (maxBuckets < 2){
+			throw new IllegalArgumentException("A sketch needs at least 2 buckets per side, got " + maxBuckets);
+		}
+		this.relativeAccuracy = relativeAccuracy;
+		this.maxBuckets = maxBuckets;
+		this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		this.logGamma = Math.log(gamma);
+		this.positiveCounters = new BucketCounters(maxBuckets);
+		this.negativeCounters = new BucketCounters(maxBuckets);
+		this.minimum = Double.POSITIVE_INFINITY;
+		this.maximum = Double.NEGATIVE_INFINITY;
+	}
+
+	//Count a single amount - the amounts which are not numbers are ignored
+	public void add(double amount) {
+		if (Double.isNaN(amount)){
+			return;
+		}
+		if (amount >= MIN_INDEXED_AMOUNT){
+			positiveCounters.add(bucketIndex(amount), 1);
+		} else if (amount <= -MIN_INDEXED_AMOUNT){
+			negativeCounters.add(bucketIndex(-amount), 1);
+		} else {
+			zeroCount++;
+		}
+		count++;
+		minimum = Math.min(minimum, amount);
+		maximum = Math.max(maximum, amount);
+	}
+
+	//Add the counters of the other sketch to this one - both need to have the same relative accuracy
+	public void merge(QuantileSketch otherSketch) {
+		if (otherSketch.relativeAccuracy != relativeAccuracy){
+			throw new IllegalArgumentException("Unable to merge a sketch of relative accuracy " + otherSketch.relativeAccuracy + " into one of " + relativeAccuracy);
+		}
+		positiveCounters.addAll(otherSketch.positiveCounters);
+		negativeCounters.addAll(otherSketch.negativeCounters);
+		zeroCount += otherSketch.zeroCount;
+		count += otherSketch.count;
+		minimum = Math.min(minimum, otherSketch.minimum);
+		maximum = Math.max(maximum, otherSketch.maximum);
+	}
+
+	//Estimate the amount below which the given share of the amounts falls - returns NaN for an empty sketch
+	public double getQuantile(double quantile) {
+		if (quantile < 0 || quantile > 1){
+			throw new IllegalArgumentException("The quantile needs to be inside [0, 1], got " + quantile);
+		}
+		if (count == 0){
+			return Double.NaN;
+		}
+		//The exact extremes are known
+		if (quantile == 0){
+			return minimum;
+		}
+		if (quantile == 1){
+			return maximum;
+		}
+		long rank = (long) (quantile * (count - 1));
+		double estimate;
+		if (rank < negativeCounters.total){
+			//The negative buckets are walked from the largest magnitude on
+			estimate = -bucketValue(negativeCounters.indexOfRank(negativeCounters.total - 1 - rank));
+		} else if (rank < negativeCounters.total + zeroCount){
+			estimate = 0;
+		} else {
+			estimate = bucketValue(positiveCounters.indexOfRank(rank - negativeCounters.total - zeroCount));
+		}
+		return Math.max(minimum, Math.min(maximum, estimate));
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public double getMinimum() {
+		return minimum;
+	}
+
+	public double getMaximum() {
+		return maximum;
+	}
+
+	public double getRelativeAccuracy() {
+		return relativeAccuracy;
+	}
+
+	//A new empty sketch of the same accuracy and bound
+	public QuantileSketch emptyCopy() {
+		return new QuantileSketch(relativeAccuracy, maxBuckets);
+	}
+
+	//Serialize the sketch, only the non-empty buckets being written
+	public void writeTo(DataOutput output) throws IOException {
+		output.writeByte(SERIAL_FORMAT);
+		output.writeDouble(relativeAccuracy);
+		output.writeInt(maxBuckets);
+		output.writeLong(zeroCount);
+		output.writeLong(count);
+		output.writeDouble(minimum);
+		output.writeDouble(maximum);
+		positiveCounters.writeTo(output);
+		negativeCounters.writeTo(output);
+	}
+
+	public byte[] toBytes() {
+		ByteArrayOutputStream sketchBytes = new ByteArrayOutputStream();
+		try {
+			writeTo(new DataOutputStream(sketchBytes));
+		} catch (IOException e) {
+			//Writing into memory never fails
+			throw new IllegalStateException(e);
+		}
+		return sketchBytes.toByteArray();
+	}
+
+	/* Static method for reading back a serialized sketch */
+	public static QuantileSketch readFrom(DataInput input) throws IOException {
+		if (input.readByte() != SERIAL_FORMAT){
+			throw new IOException("Unknown serialized sketch format");
+		}
+		QuantileSketch quantileSketch;
+		try {
+			quantileSketch = new QuantileSketch(input.readDouble(), input.readInt());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid serialized sketch: " + e.getMessage(), e);
+		}
+		quantileSketch.zeroCount = input.readLong();
+		quantileSketch.count = input.readLong();
+		quantileSketch.minimum = input.readDouble();
+		quantileSketch.maximum = input.readDouble();
+		quantileSketch.positiveCounters.readFrom(input);
+		quantileSketch.negativeCounters.readFrom(input);
+		if (quantileSketch.count != quantileSketch.zeroCount + quantileSketch.positiveCounters.total + quantileSketch.negativeCounters.total){
+			throw new IOException("The serialized sketch counts " + quantileSketch.count + " amounts, but its buckets hold a different number");
+		}
+		return quantileSketch;
+	}
+
+	/* Static method for reading back a sketch serialized by toBytes */
+	public static QuantileSketch fromBytes(byte[] sketchBytes) throws IOException {
+		return readFrom(new DataInputStream(new ByteArrayInputStream(sketchBytes)));
+	}
+
+	//The bucket of the given positive magnitude - every amount of the bucket is within the relative accuracy of its value
+	private int bucketIndex(double magnitude) {
+		return (int) Math.ceil(Math.log(magnitude) / logGamma);
+	}
+
+	private double bucketValue(int index) {
+		return 2 * Math.pow(gamma, index) / (gamma + 1);
+	}
+
+	/* Counters of a contiguous range of bucket indexes, at most maxBuckets wide - the lowest buckets are collapsed to make room for the
+	 * higher ones, and the amounts falling below the range are counted into its lowest bucket */
+	private static final class BucketCounters {
+
+		private final int maxBuckets;
+		private long[] counters;
+		//Bucket index of the first counter
+		private int offset;
+		private int minIndex;
+		private int maxIndex;
+		private long total;
+
+		BucketCounters(int maxBuckets) {
+			this.maxBuckets = maxBuckets;
+			this.counters = new long[0];
+		}
+
+		void add(int index, long amountCount) {
+			if (total == 0){
+				resize(index, index);
+			} else if (index > maxIndex){
+				int lowestIndex = Math.max(minIndex, index - maxBuckets + 1);
+				//Collapse the buckets falling out of the range into the lowest one kept
+				long collapsedCount = 0;
+				for (int i = minIndex; i < lowestIndex && i <= maxIndex; i++){
+					collapsedCount += counters[i - offset];
+					counters[i - offset] = 0;
+				}
+				resize(lowestIndex, index);
+				counters[lowestIndex - offset] += collapsedCount;
+			} else if (index < minIndex){
+				index = Math.max(index, maxIndex - maxBuckets + 1);
+				resize(index, maxIndex);
+			}
+			counters[index - offset] += amountCount;
+			total += amountCount;
+		}
+
+		void addAll(BucketCounters otherCounters) {
+			if (otherCounters.total == 0){
+				return;
+			}
+			for (int i = otherCounters.minIndex; i <= otherCounters.maxIndex; i++){
+				long amountCount = otherCounters.counters[i - otherCounters.offset];
+				if (amountCount > 0){
+					add(i, amountCount);
+				}
+			}
+		}
+
+		//The index of the bucket holding the amount of the given rank, counting from the lowest bucket
+		int indexOfRank(long rank) {
+			long cumulatedCount = 0;
+			for (int i = minIndex; i < maxIndex; i++){
+				cumulatedCount += counters[i - offset];
+				if (cumulatedCount > rank){
+					return i;
+				}
+			}
+			return maxIndex;
+		}
+
+		void writeTo(DataOutput output) throws IOException {
+			int nbOfBuckets = 0;
+			for (int i = minIndex; total > 0 && i <= maxIndex; i++){
+				if (counters[i - offset] > 0){
+					nbOfBuckets++;
+				}
+			}
+			output.writeInt(nbOfBuckets);
+			for (int i = minIndex; total > 0 && i <= maxIndex; i++){
+				if (counters[i - offset] > 0){
+					output.writeInt(i);
+					output.writeLong(counters[i - offset]);
+				}
+			}
+		}
+
+		void readFrom(DataInput input) throws IOException {
+			int nbOfBuckets = input.readInt();
+			if (nbOfBuckets < 0){
+				throw new IOException("Invalid number of sketch buckets: " + nbOfBuckets);
+			}
+			for (int i = 0; i < nbOfBuckets; i++){
+				int index = input.readInt();
+				long amountCount = input.readLong();
+				if (amountCount <= 0){
+					throw new IOException("Invalid sketch bucket counter: " + amountCount);
+				}
+				add(index, amountCount);
+			}
+		}
+
+		//Make the counters cover [lowIndex, highIndex] - the counters outside the current range are always zero
+		private void resize(int lowIndex, int highIndex) {
+			if (lowIndex < offset || highIndex >= offset + counters.length){
+				int width = highIndex - lowIndex + 1;
+				//Some room is left on both sides, the range never getting wider than the bound
+				int capacity = Math.max(width, Math.min(maxBuckets, Math.max(16, width * 2)));
+				long[] largerCounters = new long[capacity];
+				int newOffset = lowIndex - (capacity - width) / 2;
+				if (total > 0){
+					int copyFrom = Math.max(minIndex, lowIndex);
+					int copyTo = Math.min(maxIndex, highIndex);
+					if (copyFrom <= copyTo){
+						System.arraycopy(counters, copyFrom - offset, largerCounters, copyFrom - newOffset, copyTo - copyFrom + 1);
+					}
+				}
+				counters = largerCounters;
+				offset = newOffset;
+			} else if (total == 0){
+				Arrays.fill(counters, 0);
+			}
+			minIndex = lowIndex;
+			maxIndex = highIndex;
+		}
+
+	}
+
+}
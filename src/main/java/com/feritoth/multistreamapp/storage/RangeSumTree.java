@@ -0,0 +1,62 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.util.Arrays;
+
+/* Bottom-up segment tree over a fixed number of values - a range is summed out of the O(log n) disjoint nodes covering it, never by
+ * subtracting one prefix from another, and every node is recomputed out of its two children instead of being adjusted, so neither the
+ * small ranges following large values nor the long series of updates lose any precision. */
+final class RangeSumTree {
+
+	private final int capacity;
+	//The values are the leaves from capacity on, every node i above them holds the sum of the nodes 2i and 2i + 1
+	private final double[] nodes;
+
+	RangeSumTree(int capacity) {
+		this.capacity = Math.max(capacity, 1);
+		this.nodes = new double[2 * this.capacity];
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	//Replace the value at the given index and recompute the nodes above it
+	void set(int index, double value) {
+		int node = index + capacity;
+		nodes[node] = value;
+		for (node >>>= 1; node > 0; node >>>= 1){
+			nodes[node] = nodes[2 * node] + nodes[2 * node + 1];
+		}
+	}
+
+	//Replace the value at the given index without touching the nodes above it - to be followed by a rebuild
+	void setLeaf(int index, double value) {
+		nodes[index + capacity] = value;
+	}
+
+	//Recompute all the nodes above the leaves in linear time
+	void rebuild() {
+		for (int node = capacity - 1; node > 0; node--){
+			nodes[node] = nodes[2 * node] + nodes[2 * node + 1];
+		}
+	}
+
+	void clear() {
+		Arrays.fill(nodes, 0);
+	}
+
+	//Sum of the values inside [from, to)
+	double sum(int from, int to) {
+		double total = 0;
+		for (int low = from + capacity, high = to + capacity; low < high; low >>>= 1, high >>>= 1){
+			if ((low & 1) == 1){
+				total += nodes[low++];
+			}
+			if ((high & 1) == 1){
+				total += nodes[--high];
+			}
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/* Rollup rule folding the timestamps older than a given age into buckets of a given width */
+public class RollupTier {
+	
+	private final long bucketMillis;
+	private final long ageMillis;
+	//Everything before this timestamp has been folded already (only accessed under the aggregate lock)
+	private long rolledUpBefore;
+	
+	public RollupTier(long bucketMillis, long ageMillis) {
+		if (bucketMillis <= 0 || ageMillis < 0){
+			throw new IllegalArgumentException("Invalid rollup tier: bucket of " + bucketMillis + " ms after " + ageMillis + " ms");
+		}
+		this.bucketMillis = bucketMillis;
+		this.ageMillis = ageMillis;
+		this.rolledUpBefore = Long.MIN_VALUE;
+	}
+	
+	//Parse a comma separated list of bucketMillis:ageMillis pairs, returning the tiers ordered by their bucket width
+	public static List<RollupTier> parseTiers(String tierList) {
+		List<RollupTier> rollupTiers = new ArrayList<>();
+		if (tierList == null || tierList.trim().isEmpty()){
+			return rollupTiers;
+		}
+		for (String tierDefinition : tierList.split(",")){
+			String[] tierValues = tierDefinition.trim().split(":");
+			if (tierValues.length != 2){
+				throw new IllegalArgumentException("Rollup tiers are expected as bucketMillis:ageMillis, got " + tierDefinition);
+			}
+			rollupTiers.add(new RollupTier(Long.parseLong(tierValues[0].trim()), Long.parseLong(tierValues[1].trim())));
+		}
+		Collections.sort(rollupTiers, (first, second) -> Long.compare(first.bucketMillis, second.bucketMillis));
+		return rollupTiers;
+	}
+	
+	//The bucket holding the given timestamp
+	public long bucketStart(long timestamp) {
+		return Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+	}
+	
+	//The end of the complete buckets old enough for being folded at the given time
+	public long rollupHorizon(long now) {
+		return bucketStart(now - ageMillis);
+	}
+
+	public long getBucketMillis() {
+		return bucketMillis;
+	}
+
+	public long getAgeMillis() {
+		return ageMillis;
+	}
+
+	long getRolledUpBefore() {
+		return rolledUpBefore;
+	}
+
+	void setRolledUpBefore(long rolledUpBefore) {
+		this.rolledUpBefore = rolledUpBefore;
+	}
+
+	@Override
+	public String toString() {
+		return "RollupTier [bucketMillis=" + bucketMillis + ", ageMillis=" + ageMillis + "]";
+	}
+	
+}
@@ -0,0 +1,456 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Sealed part of a store: the entries before the sealing horizon, moved out of the mutable chunks into immutable columnar segments of at
+ * most segmentCapacity entries each. The amounts arriving for the sealed period never touch the segments - they go to a small correction
+ * overlay instead, split between the corrections of the timestamps a segment holds and the late entries of the ones none of them holds,
+ * and every read adds the overlay to the segments. Once the overlay outgrows its limit, the segments it touches are sealed again with it.
+ * Not thread-safe, like the store it belongs to. */
+final class SealedSegments {
+
+	private final int segmentCapacity;
+	private final int overlayLimit;
+	//The directory of the memory-mapped segments, null for the heap ones
+	private final Path segmentDirectory;
+	private final boolean statistics;
+	//Time ordered segments, never overlapping each other, only replaced as a whole through setSegments
+	private List<ColumnarSegment> segments;
+	private int nbOfSegmentEntries;
+	//Segment tree over the totals of the segments and number of entries before every segment, answering the ranges of whole segments
+	private RangeSumTree segmentTotals;
+	private int[] segmentOffsets;
+	private final TimeSeriesStore corrections;
+	private final TimeSeriesStore lateEntries;
+	//Every timestamp before this one is sealed
+	private long sealedBefore;
+
+	SealedSegments(int segmentCapacity, int overlayLimit, Path segmentDirectory, boolean statistics) {
+		if (segmentCapacity < 2 || overlayLimit < 0){
+			throw new IllegalArgumentException("Invalid sealed segments: " + segmentCapacity + " entries per segment, overlay of " + overlayLimit + " entries");
+		}
+		this.segmentCapacity = segmentCapacity;
+		this.overlayLimit = overlayLimit;
+		this.segmentDirectory = segmentDirectory;
+		this.statistics = statistics;
+		setSegments(new ArrayList<>());
+		this.corrections = new TimeSeriesStore();
+		this.lateEntries = new TimeSeriesStore();
+		if (statistics){
+			corrections.enableStatistics();
+			lateEntries.enableStatistics();
+		}
+		this.sealedBefore = Long.MIN_VALUE;
+	}
+
+	//Seal the entries of the mutable chunks before the given horizon, which the store removes from its chunks afterwards - the last segment
+	//is sealed again together with them while it is not full yet. Returns the number of sealed entries
+	int seal(TimeSeriesStore mutableEntries, long horizon) throws IOException {
+		if (mutableEntries.countRange(sealedBefore, horizon - 1) == 0){
+			sealedBefore = horizon;
+			return 0;
+		}
+		List<ColumnarSegment> sealedSegments = new ArrayList<>(segments);
+		SegmentBuilder segmentBuilder = new SegmentBuilder(sealedSegments);
+		if (!sealedSegments.isEmpty() && sealedSegments.get(sealedSegments.size() - 1).size() < segmentCapacity){
+			ColumnarSegment lastSegment = sealedSegments.remove(sealedSegments.size() - 1);
+			for (int i = 0; i < lastSegment.size(); i++){
+				segmentBuilder.append(lastSegment.getTimestamp(i), lastSegment.getAmount(i), lastSegment.getCount(i), lastSegment.getMinimum(i), lastSegment.getMaximum(i));
+			}
+		}
+		int[] nbOfSealedEntries = new int[1];
+		try {
+			mutableEntries.forEachStatisticsInRange(sealedBefore, horizon - 1, (timestamp, total, count, minimum, maximum) -> {
+				segmentBuilder.appendUnchecked(timestamp, total, count, minimum, maximum);
+				nbOfSealedEntries[0]++;
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		segmentBuilder.flush();
+		setSegments(sealedSegments);
+		sealedBefore = horizon;
+		return nbOfSealedEntries[0];
+	}
+
+	//Seal the overlay into the segments once it outgrew its limit (or right away if forced) - only the segments touched by the overlay and
+	//the ones below a quarter of the capacity are sealed again, the others are kept as they are. Returns the number of merged overlay entries
+	int compact(boolean force) throws IOException {
+		int overlaySize = getOverlaySize();
+		if (overlaySize == 0 || (!force && overlaySize <= overlayLimit)){
+			return 0;
+		}
+		List<ColumnarSegment> compactedSegments = new ArrayList<>();
+		SegmentBuilder segmentBuilder = new SegmentBuilder(compactedSegments);
+		int nbOfSpans = Math.max(segments.size(), 1);
+		try {
+			for (int i = 0; i < nbOfSpans; i++){
+				//Every segment spans the timestamps up to the next one, so the spans cover the whole sealed period
+				long spanStart = i == 0 ? Long.MIN_VALUE : segments.get(i).firstTimestamp();
+				long spanEnd = i == nbOfSpans - 1 ? sealedBefore - 1 : segments.get(i + 1).firstTimestamp() - 1;
+				ColumnarSegment segment = segments.isEmpty() ? null : segments.get(i);
+				boolean touched = corrections.countRange(spanStart, spanEnd) > 0 || lateEntries.countRange(spanStart, spanEnd) > 0;
+				if (segment != null && !touched && segment.size() >= segmentCapacity / 4){
+					segmentBuilder.flush();
+					compactedSegments.add(segment);
+				} else {
+					forEachInRange(spanStart, spanEnd, segmentBuilder::appendUnchecked);
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		segmentBuilder.flush();
+		setSegments(compactedSegments);
+		corrections.clear();
+		lateEntries.clear();
+		return overlaySize;
+	}
+
+	//Merge an amount of a sealed timestamp into the overlay - returns true if the timestamp was not present before
+	boolean add(long timestamp, double total, long count, double minimum, double maximum) {
+		ColumnarSegment segment = findSegment(timestamp);
+		if (segment != null && segment.search(timestamp) >= 0){
+			corrections.add(timestamp, total, count, minimum, maximum);
+			return false;
+		}
+		return lateEntries.add(timestamp, total, count, minimum, maximum);
+	}
+
+	boolean contains(long timestamp) {
+		ColumnarSegment segment = findSegment(timestamp);
+		return (segment != null && segment.search(timestamp) >= 0) || lateEntries.contains(timestamp);
+	}
+
+	double getOrDefault(long timestamp, double defaultValue) {
+		ColumnarSegment segment = findSegment(timestamp);
+		int position = segment == null ? -1 : segment.search(timestamp);
+		if (position >= 0){
+			return segment.getAmount(position) + corrections.getOrDefault(timestamp, 0);
+		}
+		return lateEntries.getOrDefault(timestamp, defaultValue);
+	}
+
+	//Visit the sealed entries inside [from, to] with the overlay added to them, in ascending timestamp order
+	void forEachInRange(long from, long to, TimeSeriesStore.StatisticsVisitor visitor) {
+		if (from > to){
+			return;
+		}
+		//The overlay is small, its entries inside the range are merged out of plain arrays
+		OverlayCursor correctionCursor = new OverlayCursor(corrections, from, to);
+		OverlayCursor lateCursor = new OverlayCursor(lateEntries, from, to);
+		for (int i = findSegmentIndex(from); i < segments.size(); i++){
+			ColumnarSegment segment = segments.get(i);
+			if (segment.firstTimestamp() > to){
+				break;
+			}
+			int end = segment.upperBound(to);
+			for (int j = segment.lowerBound(from); j < end; j++){
+				long timestamp = segment.getTimestamp(j);
+				while (lateCursor.hasEntry() && lateCursor.timestamp() < timestamp){
+					lateCursor.visitAndAdvance(visitor);
+				}
+				//The corrections always belong to an entry of a segment, any other one would be a leftover of a removed range
+				while (correctionCursor.hasEntry() && correctionCursor.timestamp() < timestamp){
+					correctionCursor.advance();
+				}
+				if (correctionCursor.hasEntry() && correctionCursor.timestamp() == timestamp){
+					correctionCursor.visitMerged(segment, j, visitor);
+					correctionCursor.advance();
+				} else {
+					visitor.visit(timestamp, segment.getAmount(j), segment.getCount(j), segment.getMinimum(j), segment.getMaximum(j));
+				}
+			}
+		}
+		while (lateCursor.hasEntry()){
+			lateCursor.visitAndAdvance(visitor);
+		}
+	}
+
+	//Remove the sealed entries inside [from, to), handing each of them to the visitor - the segments are only narrowed or split, never
+	//copied. Returns the number of removed entries
+	int removeRange(long from, long to, TimeSeriesStore.StatisticsVisitor removedVisitor) {
+		if (from >= to){
+			return 0;
+		}
+		int[] nbOfRemovedEntries = new int[1];
+		forEachInRange(from, to - 1, (timestamp, total, count, minimum, maximum) -> {
+			removedVisitor.visit(timestamp, total, count, minimum, maximum);
+			nbOfRemovedEntries[0]++;
+		});
+		List<ColumnarSegment> retainedSegments = new ArrayList<>(segments.size() + 1);
+		for (ColumnarSegment segment : segments){
+			int start = segment.lowerBound(from);
+			int end = segment.lowerBound(to);
+			if (start == end){
+				retainedSegments.add(segment);
+				continue;
+			}
+			if (start > 0){
+				retainedSegments.add(segment.slice(0, start));
+			}
+			if (end < segment.size()){
+				retainedSegments.add(segment.slice(end, segment.size()));
+			}
+		}
+		setSegments(retainedSegments);
+		corrections.removeRange(from, to, (TimeSeriesStore.AmountVisitor) (timestamp, amount) -> {});
+		lateEntries.removeRange(from, to, (TimeSeriesStore.AmountVisitor) (timestamp, amount) -> {});
+		return nbOfRemovedEntries[0];
+	}
+
+	//Sum of the sealed totals inside [from, to] - only the two segments at the edges are visited, the ones in between being summed up out
+	//of the O(log segments) nodes of the segment tree covering them
+	double sumRange(long from, long to) {
+		if (from > to){
+			return 0;
+		}
+		double total = corrections.sumRange(from, to) + lateEntries.sumRange(from, to);
+		if (segments.isEmpty()){
+			return total;
+		}
+		int firstSegment = findSegmentIndex(from);
+		int lastSegment = findSegmentIndex(to);
+		total += sumSegmentRange(segments.get(firstSegment), from, to);
+		if (firstSegment < lastSegment){
+			total += segmentTotals.sum(firstSegment + 1, lastSegment) + sumSegmentRange(segments.get(lastSegment), from, to);
+		}
+		return total;
+	}
+
+	//Number of sealed timestamps inside [from, to]
+	int countRange(long from, long to) {
+		if (from > to){
+			return 0;
+		}
+		int count = lateEntries.countRange(from, to);
+		if (segments.isEmpty()){
+			return count;
+		}
+		//The positions of both ends among all the segment entries
+		int firstSegment = findSegmentIndex(from);
+		int lastSegment = findSegmentIndex(to);
+		return count + segmentOffsets[lastSegment] + segments.get(lastSegment).upperBound(to) - segmentOffsets[firstSegment] - segments.get(firstSegment).lowerBound(from);
+	}
+
+	//Offer the sealed totals inside [from, to] to the top amounts - the segments which cannot hold a large enough total, even after the
+	//largest correction, are skipped
+	void offerTopAmounts(long from, long to, TimeSeriesStore.TopAmounts topAmounts) {
+		if (from > to){
+			return;
+		}
+		double[] largestCorrection = new double[1];
+		corrections.forEachInRange(from, to, (timestamp, amount) -> largestCorrection[0] = Math.max(largestCorrection[0], amount));
+		for (int i = findSegmentIndex(from); i < segments.size(); i++){
+			ColumnarSegment segment = segments.get(i);
+			if (segment.firstTimestamp() > to){
+				break;
+			}
+			if (topAmounts.isFull() && segment.getMaxAmount() + largestCorrection[0] <= topAmounts.smallestAmount()){
+				continue;
+			}
+			int end = segment.upperBound(to);
+			for (int j = segment.lowerBound(from); j < end; j++){
+				double amount = segment.getAmount(j);
+				if (!corrections.isEmpty()){
+					amount += corrections.getOrDefault(segment.getTimestamp(j), 0);
+				}
+				topAmounts.offer(segment.getTimestamp(j), amount);
+			}
+		}
+		lateEntries.forEachInRange(from, to, topAmounts::offer);
+	}
+
+	long getSealedBefore() {
+		return sealedBefore;
+	}
+
+	int size() {
+		return nbOfSegmentEntries + lateEntries.size();
+	}
+
+	boolean isEmpty() {
+		return size() == 0;
+	}
+
+	int getOverlaySize() {
+		return corrections.size() + lateEntries.size();
+	}
+
+	int getNbOfSegments() {
+		return segments.size();
+	}
+
+	void clear() {
+		setSegments(new ArrayList<>());
+		corrections.clear();
+		lateEntries.clear();
+		sealedBefore = Long.MIN_VALUE;
+	}
+
+	//Replace the segments and rebuild the tree and the offsets over them
+	private void setSegments(List<ColumnarSegment> newSegments) {
+		segments = newSegments;
+		segmentTotals = new RangeSumTree(segments.size());
+		segmentOffsets = new int[segments.size() + 1];
+		for (int i = 0; i < segments.size(); i++){
+			segmentTotals.setLeaf(i, segments.get(i).getTotal());
+			segmentOffsets[i + 1] = segmentOffsets[i] + segments.get(i).size();
+		}
+		segmentTotals.rebuild();
+		nbOfSegmentEntries = segmentOffsets[segments.size()];
+	}
+
+	//Sum of the totals of the segment inside [from, to], out of its precomputed total when the segment lies entirely inside the range
+	private static double sumSegmentRange(ColumnarSegment segment, long from, long to) {
+		if (segment.firstTimestamp() >= from && segment.lastTimestamp() <= to){
+			return segment.getTotal();
+		}
+		double total = 0;
+		int end = segment.upperBound(to);
+		for (int j = segment.lowerBound(from); j < end; j++){
+			total += segment.getAmount(j);
+		}
+		return total;
+	}
+
+	//The segment holding the timestamp inside its span: the last one starting at or before it, null if there is none
+	private ColumnarSegment findSegment(long timestamp) {
+		int segmentIndex = findSegmentIndex(timestamp);
+		return segmentIndex < segments.size() && segments.get(segmentIndex).firstTimestamp() <= timestamp ? segments.get(segmentIndex) : null;
+	}
+
+	//Index of the last segment starting at or before the timestamp, or 0 if all of them start after it
+	private int findSegmentIndex(long timestamp) {
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low < high){
+			int middle = (low + high + 1) >>> 1;
+			if (segments.get(middle).firstTimestamp() <= timestamp){
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	//The smaller of two bounds, the unknown (NaN) bounds of the entries restored without statistics being ignored
+	private static double minimumOf(double first, double second) {
+		return Double.isNaN(first) || second < first ? second : first;
+	}
+
+	private static double maximumOf(double first, double second) {
+		return Double.isNaN(first) || second > first ? second : first;
+	}
+
+	/* Columns collecting the entries of the segments being sealed, every full segment being sealed on the spot */
+	private final class SegmentBuilder {
+
+		private final List<ColumnarSegment> sealedSegments;
+		private final long[] timestamps;
+		private final double[] amounts;
+		private final long[] counts;
+		private final double[] minimums;
+		private final double[] maximums;
+		private int size;
+
+		SegmentBuilder(List<ColumnarSegment> sealedSegments) {
+			this.sealedSegments = sealedSegments;
+			this.timestamps = new long[segmentCapacity];
+			this.amounts = new double[segmentCapacity];
+			this.counts = statistics ? new long[segmentCapacity] : null;
+			this.minimums = statistics ? new double[segmentCapacity] : null;
+			this.maximums = statistics ? new double[segmentCapacity] : null;
+		}
+
+		void append(long timestamp, double total, long count, double minimum, double maximum) throws IOException {
+			timestamps[size] = timestamp;
+			amounts[size] = total;
+			if (statistics){
+				counts[size] = count;
+				minimums[size] = minimum;
+				maximums[size] = maximum;
+			}
+			if (++size == segmentCapacity){
+				flush();
+			}
+		}
+
+		//Append from inside a visitor, the failures of the sealing being unwrapped by the caller
+		void appendUnchecked(long timestamp, double total, long count, double minimum, double maximum) {
+			try {
+				append(timestamp, total, count, minimum, maximum);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void flush() throws IOException {
+			if (size > 0){
+				sealedSegments.add(ColumnarSegment.seal(timestamps, amounts, counts, minimums, maximums, size, segmentDirectory));
+				size = 0;
+			}
+		}
+
+	}
+
+	/* The overlay entries inside a range, copied into plain arrays for the merge with the segments */
+	private static final class OverlayCursor {
+
+		private final long[] timestamps;
+		private final double[] totals;
+		private final long[] counts;
+		private final double[] minimums;
+		private final double[] maximums;
+		private int position;
+
+		OverlayCursor(TimeSeriesStore overlay, long from, long to) {
+			int size = overlay.countRange(from, to);
+			timestamps = new long[size];
+			totals = new double[size];
+			counts = new long[size];
+			minimums = new double[size];
+			maximums = new double[size];
+			if (size > 0){
+				int[] index = new int[1];
+				overlay.forEachStatisticsInRange(from, to, (timestamp, total, count, minimum, maximum) -> {
+					timestamps[index[0]] = timestamp;
+					totals[index[0]] = total;
+					counts[index[0]] = count;
+					minimums[index[0]] = minimum;
+					maximums[index[0]++] = maximum;
+				});
+			}
+		}
+
+		boolean hasEntry() {
+			return position < timestamps.length;
+		}
+
+		long timestamp() {
+			return timestamps[position];
+		}
+
+		void advance() {
+			position++;
+		}
+
+		void visitAndAdvance(TimeSeriesStore.StatisticsVisitor visitor) {
+			visitor.visit(timestamps[position], totals[position], counts[position], minimums[position], maximums[position]);
+			position++;
+		}
+
+		//Visit the entry of the segment with the current correction added to it
+		void visitMerged(ColumnarSegment segment, int segmentPosition, TimeSeriesStore.StatisticsVisitor visitor) {
+			visitor.visit(timestamps[position], segment.getAmount(segmentPosition) + totals[position], segment.getCount(segmentPosition) + counts[position],
+					minimumOf(segment.getMinimum(segmentPosition), minimums[position]), maximumOf(segment.getMaximum(segmentPosition), maximums[position]));
+		}
+
+	}
+
+}
@@ -0,0 +1,706 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/* Sorted timestamp to amount store keeping its entries inside chunks of parallel primitive arrays - lookups binary search the chunk 
+ * directory and then the chunk itself, the amounts are merged in place and appending in time order never moves any existing entry.
+ * The range sums add the entries of the two partial chunks at the edges to the O(log chunks) disjoint nodes of a segment tree covering the
+ * chunks in between, never subtracting the total of the preceding entries - so a small range keeps its precision whatever comes before it,
+ * the chunk totals being compensated sums as well. A Fenwick tree over the chunk sizes answers the range counts, whose integers are exact.
+ * Once the statistics are enabled, every entry also keeps the number of amounts merged into its total together with the smallest and the
+ * largest of them, inside three more parallel arrays of its chunk - the mean being the total divided by the count.
+ * Once the sealing is enabled, the entries before the sealing horizon move out of the chunks into immutable columnar segments, every later
+ * amount of the sealed period going to a small correction overlay - the reads combine the sealed part with the chunks. */
+public class TimeSeriesStore {
+	
+	/* Callback receiving the entries of the store in ascending timestamp order */
+	public interface AmountVisitor {
+		void visit(long timestamp, double amount);
+	}
+	
+	/* Callback receiving the entries of the store together with their statistics in ascending timestamp order */
+	public interface StatisticsVisitor {
+		void visit(long timestamp, double total, long count, double minimum, double maximum);
+	}
+	
+	//Number of entries held by a single chunk
+	public static final int DEFAULT_CHUNK_CAPACITY = 512;
+	
+	private final int chunkCapacity;
+	//Whether the entries keep their count, minimum and maximum next to their total
+	private boolean statistics;
+	private Chunk[] chunks;
+	private int nbOfChunks;
+	//Number of entries inside the chunks, the sealed ones being counted by the sealed part
+	private int size;
+	//The sealed part of the store, null until the sealing is enabled
+	private SealedSegments sealedSegments;
+	//Segment tree over the totals and Fenwick tree (1-based) over the sizes of the chunks, rebuilt whenever the chunk directory changes
+	private RangeSumTree totalIndex;
+	private int[] sizeIndex;
+	
+	public TimeSeriesStore() {
+		this(DEFAULT_CHUNK_CAPACITY);
+	}
+	
+	public TimeSeriesStore(int chunkCapacity) {
+		if (chunkCapacity < 2){
+			throw new IllegalArgumentException("The chunk capacity needs to be at least 2, got " + chunkCapacity);
+		}
+		this.chunkCapacity = chunkCapacity;
+		this.chunks = new Chunk[8];
+		this.totalIndex = new RangeSumTree(chunks.length);
+		this.sizeIndex = new int[chunks.length + 1];
+	}
+	
+	//Keep the count, the minimum and the maximum of the amounts of every entry from now on - only possible while the store is empty
+	public void enableStatistics() {
+		if (size() > 0){
+			throw new IllegalStateException("The statistics can only be enabled on an empty store");
+		}
+		if (sealedSegments != null){
+			throw new IllegalStateException("The statistics need to be enabled before the sealing");
+		}
+		Arrays.fill(chunks, 0, nbOfChunks, null);
+		nbOfChunks = 0;
+		statistics = true;
+	}
+	
+	public boolean hasStatistics() {
+		return statistics;
+	}
+	
+	//Seal the entries into columnar segments of the given capacity from now on, inside memory-mapped files of the given directory (or on
+	//the heap without one) - the overlay of the later amounts is merged into the segments once it gets larger than the given limit. Only
+	//possible while the store is empty
+	public void enableSealing(int segmentCapacity, int overlayLimit, Path segmentDirectory) {
+		if (size() > 0){
+			throw new IllegalStateException("The sealing can only be enabled on an empty store");
+		}
+		sealedSegments = new SealedSegments(segmentCapacity, overlayLimit, segmentDirectory, statistics);
+	}
+	
+	//Every timestamp before the returned one is sealed - Long.MIN_VALUE as long as nothing is
+	public long getSealedBefore() {
+		return sealedSegments == null ? Long.MIN_VALUE : sealedSegments.getSealedBefore();
+	}
+	
+	//Move the entries before the given horizon out of the chunks into sealed segments - the chunks are only emptied once all the segments
+	//are sealed, so a failure leaves the store as it was. Returns the number of sealed entries
+	public int sealBefore(long horizon) throws IOException {
+		if (sealedSegments == null){
+			throw new IllegalStateException("The sealing is not enabled");
+		}
+		long sealedBefore = sealedSegments.getSealedBefore();
+		if (horizon <= sealedBefore){
+			return 0;
+		}
+		int nbOfSealedEntries = sealedSegments.seal(this, horizon);
+		removeChunkRange(sealedBefore, horizon, (timestamp, total, count, minimum, maximum) -> {});
+		return nbOfSealedEntries;
+	}
+	
+	//Merge the correction overlay into the sealed segments once it outgrew its limit, or right away if forced - returns the number of
+	//merged overlay entries
+	public int compactOverlay(boolean force) throws IOException {
+		return sealedSegments == null ? 0 : sealedSegments.compact(force);
+	}
+	
+	public int getOverlaySize() {
+		return sealedSegments == null ? 0 : sealedSegments.getOverlaySize();
+	}
+	
+	public int getNbOfSegments() {
+		return sealedSegments == null ? 0 : sealedSegments.getNbOfSegments();
+	}
+	
+	//Add the amount to the total of the given timestamp - returns true if the timestamp was not present before
+	public boolean add(long timestamp, double amount) {
+		return add(timestamp, amount, 1, amount, amount);
+	}
+	
+	//Merge an already summarized entry (the total of count amounts between the given minimum and maximum) into the given timestamp - the
+	//statistics are ignored by the stores not keeping them. Returns true if the timestamp was not present before
+	public boolean add(long timestamp, double total, long count, double minimum, double maximum) {
+		if (isSealed(timestamp)){
+			return sealedSegments.add(timestamp, total, count, minimum, maximum);
+		}
+		if (nbOfChunks == 0){
+			insertChunk(0, new Chunk(chunkCapacity, statistics));
+		}
+		int chunkIndex = findChunk(timestamp);
+		Chunk chunk = chunks[chunkIndex];
+		int position = chunk.search(timestamp);
+		if (position >= 0){
+			chunk.merge(position, total, count, minimum, maximum);
+			totalIndex.set(chunkIndex, chunk.getTotal());
+			return false;
+		}
+		position = -position - 1;
+		if (chunk.size == chunkCapacity){
+			if (position == chunkCapacity && chunkIndex == nbOfChunks - 1){
+				//Appending in time order - open a new chunk instead of leaving two half empty ones behind
+				chunk = new Chunk(chunkCapacity, statistics);
+				insertChunk(++chunkIndex, chunk);
+				position = 0;
+			} else {
+				Chunk upperHalf = chunk.split();
+				insertChunk(chunkIndex + 1, upperHalf);
+				if (position > chunk.size){
+					position -= chunk.size;
+					chunk = upperHalf;
+					chunkIndex++;
+				}
+			}
+		}
+		chunk.insert(position, timestamp, total, count, minimum, maximum);
+		updateIndex(chunkIndex, chunk.getTotal(), 1);
+		size++;
+		return true;
+	}
+	
+	//Check whether the given timestamp has a total
+	public boolean contains(long timestamp) {
+		if (isSealed(timestamp)){
+			return sealedSegments.contains(timestamp);
+		}
+		return nbOfChunks > 0 && chunks[findChunk(timestamp)].search(timestamp) >= 0;
+	}
+	
+	//Return the total of the given timestamp or the default value if there is none
+	public double getOrDefault(long timestamp, double defaultValue) {
+		if (isSealed(timestamp)){
+			return sealedSegments.getOrDefault(timestamp, defaultValue);
+		}
+		if (nbOfChunks == 0){
+			return defaultValue;
+		}
+		Chunk chunk = chunks[findChunk(timestamp)];
+		int position = chunk.search(timestamp);
+		return position >= 0 ? chunk.amounts[position] : defaultValue;
+	}
+	
+	//Visit all the entries in ascending timestamp order
+	public void forEach(AmountVisitor visitor) {
+		if (hasSealedEntries()){
+			sealedSegments.forEachInRange(Long.MIN_VALUE, sealedSegments.getSealedBefore() - 1,
+					(timestamp, total, count, minimum, maximum) -> visitor.visit(timestamp, total));
+		}
+		for (int i = 0; i < nbOfChunks; i++){
+			Chunk chunk = chunks[i];
+			for (int j = 0; j < chunk.size; j++){
+				visitor.visit(chunk.timestamps[j], chunk.amounts[j]);
+			}
+		}
+	}
+	
+	//Visit the entries whose timestamps fall inside [from, to] together with their statistics, in ascending timestamp order - the stores
+	//without statistics hand over a count of zero
+	public void forEachStatisticsInRange(long from, long to, StatisticsVisitor visitor) {
+		if (hasSealedEntries()){
+			sealedSegments.forEachInRange(from, Math.min(to, sealedSegments.getSealedBefore() - 1), visitor);
+		}
+		if (nbOfChunks == 0 || from > to){
+			return;
+		}
+		for (int i = findChunk(from); i < nbOfChunks; i++){
+			Chunk chunk = chunks[i];
+			int end = chunk.upperBound(to);
+			for (int j = chunk.lowerBound(from); j < end; j++){
+				chunk.visitStatistics(j, visitor);
+			}
+			if (end < chunk.size){
+				return;
+			}
+		}
+	}
+	
+	//Visit the entries whose timestamps fall inside [from, to] in ascending timestamp order
+	public void forEachInRange(long from, long to, AmountVisitor visitor) {
+		if (hasSealedEntries()){
+			sealedSegments.forEachInRange(from, Math.min(to, sealedSegments.getSealedBefore() - 1),
+					(timestamp, total, count, minimum, maximum) -> visitor.visit(timestamp, total));
+		}
+		if (nbOfChunks == 0 || from > to){
+			return;
+		}
+		for (int i = findChunk(from); i < nbOfChunks; i++){
+			Chunk chunk = chunks[i];
+			int position = chunk.search(from);
+			for (int j = position >= 0 ? position : -position - 1; j < chunk.size; j++){
+				if (chunk.timestamps[j] > to){
+					return;
+				}
+				visitor.visit(chunk.timestamps[j], chunk.amounts[j]);
+			}
+		}
+	}
+	
+	//Remove the entries whose timestamps fall inside [from, to), handing each of them to the visitor - returns the number of removed entries
+	public int removeRange(long from, long to, AmountVisitor removedVisitor) {
+		return removeRange(from, to, (timestamp, total, count, minimum, maximum) -> removedVisitor.visit(timestamp, total));
+	}
+	
+	//Remove the entries whose timestamps fall inside [from, to), handing each of them to the visitor together with its statistics - returns
+	//the number of removed entries
+	public int removeRange(long from, long to, StatisticsVisitor removedVisitor) {
+		int removed = 0;
+		if (hasSealedEntries()){
+			removed += sealedSegments.removeRange(from, Math.min(to, sealedSegments.getSealedBefore()), removedVisitor);
+		}
+		return removed + removeChunkRange(from, to, removedVisitor);
+	}
+	
+	//Remove the entries of the chunks inside [from, to) - returns the number of removed entries
+	private int removeChunkRange(long from, long to, StatisticsVisitor removedVisitor) {
+		if (nbOfChunks == 0 || from >= to){
+			return 0;
+		}
+		int removed = 0;
+		int firstChunk = findChunk(from);
+		int emptiedChunks = 0;
+		for (int i = firstChunk; i < nbOfChunks; i++){
+			Chunk chunk = chunks[i];
+			if (chunk.size > 0 && chunk.timestamps[0] >= to){
+				break;
+			}
+			int start = chunk.lowerBound(from);
+			int end = chunk.lowerBound(to);
+			for (int j = start; j < end; j++){
+				chunk.visitStatistics(j, removedVisitor);
+			}
+			chunk.remove(start, end);
+			removed += end - start;
+			if (chunk.size == 0){
+				emptiedChunks++;
+			}
+		}
+		if (emptiedChunks > 0){
+			//Drop the emptied chunks, keeping the order of the others
+			int retainedChunks = firstChunk;
+			for (int i = firstChunk; i < nbOfChunks; i++){
+				if (chunks[i].size > 0){
+					chunks[retainedChunks++] = chunks[i];
+				}
+			}
+			Arrays.fill(chunks, retainedChunks, nbOfChunks, null);
+			nbOfChunks = retainedChunks;
+		}
+		if (removed > 0){
+			rebuildIndex();
+		}
+		size -= removed;
+		return removed;
+	}
+	
+	//Fold the entries whose timestamps fall inside [from, to) into the start of their bucket of the given width, keeping the totals - returns
+	//the number of entries which disappeared
+	public int rollup(long from, long to, long bucketMillis) {
+		//The removed entries come in time order, so the buckets are appended to the end of the temporary store - the statistics of the
+		//folded entries are merged like their totals
+		TimeSeriesStore buckets = new TimeSeriesStore(chunkCapacity);
+		buckets.statistics = statistics;
+		int removed = removeRange(from, to, (StatisticsVisitor) (timestamp, total, count, minimum, maximum) ->
+				buckets.add(Math.floorDiv(timestamp, bucketMillis) * bucketMillis, total, count, minimum, maximum));
+		buckets.forEachStatisticsInRange(Long.MIN_VALUE, Long.MAX_VALUE, this::add);
+		return removed - buckets.size();
+	}
+	
+	//Sum of the totals whose timestamps fall inside [from, to]
+	public double sumRange(long from, long to) {
+		if (from > to){
+			return 0;
+		}
+		//The chunks only hold the timestamps following the sealed ones
+		double sealedTotal = hasSealedEntries() ? sealedSegments.sumRange(from, Math.min(to, sealedSegments.getSealedBefore() - 1)) : 0;
+		if (nbOfChunks == 0){
+			return sealedTotal;
+		}
+		int firstChunk = findChunk(from);
+		int lastChunk = findChunk(to);
+		Chunk chunk = chunks[firstChunk];
+		double total = 0;
+		int end = firstChunk == lastChunk ? chunk.upperBound(to) : chunk.size;
+		for (int j = chunk.lowerBound(from); j < end; j++){
+			total += chunk.amounts[j];
+		}
+		if (firstChunk < lastChunk){
+			total += totalIndex.sum(firstChunk + 1, lastChunk);
+			chunk = chunks[lastChunk];
+			end = chunk.upperBound(to);
+			for (int j = 0; j < end; j++){
+				total += chunk.amounts[j];
+			}
+		}
+		return sealedTotal + total;
+	}
+	
+	//Number of timestamps falling inside [from, to]
+	public int countRange(long from, long to) {
+		if (from > to){
+			return 0;
+		}
+		int sealedCount = hasSealedEntries() ? sealedSegments.countRange(from, Math.min(to, sealedSegments.getSealedBefore() - 1)) : 0;
+		return sealedCount + prefixCount(to) - (from == Long.MIN_VALUE ? 0 : prefixCount(from - 1));
+	}
+	
+	//Visit the (at most) limit largest totals whose timestamps fall inside [from, to], the largest first - the chunks and the segments which
+	//cannot hold a large enough total are skipped
+	public void forEachTopAmount(int limit, long from, long to, AmountVisitor visitor) {
+		if (limit <= 0 || size() == 0 || from > to){
+			return;
+		}
+		TopAmounts topAmounts = new TopAmounts(limit);
+		if (hasSealedEntries()){
+			sealedSegments.offerTopAmounts(from, Math.min(to, sealedSegments.getSealedBefore() - 1), topAmounts);
+		}
+		for (int i = nbOfChunks == 0 ? 0 : findChunk(from); i < nbOfChunks; i++){
+			Chunk chunk = chunks[i];
+			if (chunk.size > 0 && chunk.timestamps[0] > to){
+				break;
+			}
+			if (topAmounts.isFull() && chunk.maxAmount <= topAmounts.smallestAmount()){
+				continue;
+			}
+			int end = chunk.upperBound(to);
+			for (int j = chunk.lowerBound(from); j < end; j++){
+				topAmounts.offer(chunk.timestamps[j], chunk.amounts[j]);
+			}
+		}
+		topAmounts.visitLargestFirst(visitor);
+	}
+	
+	public int size() {
+		return sealedSegments == null ? size : size + sealedSegments.size();
+	}
+	
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	public void clear() {
+		Arrays.fill(chunks, 0, nbOfChunks, null);
+		nbOfChunks = 0;
+		size = 0;
+		rebuildIndex();
+		if (sealedSegments != null){
+			sealedSegments.clear();
+		}
+	}
+	
+	//Whether the timestamp belongs to the sealed part of the store
+	private boolean isSealed(long timestamp) {
+		return sealedSegments != null && timestamp < sealedSegments.getSealedBefore();
+	}
+	
+	private boolean hasSealedEntries() {
+		return sealedSegments != null && !sealedSegments.isEmpty();
+	}
+	
+	//Number of timestamps up to the given one (included)
+	private int prefixCount(long timestamp) {
+		if (nbOfChunks == 0){
+			return 0;
+		}
+		int chunkIndex = findChunk(timestamp);
+		int count = 0;
+		for (int i = chunkIndex; i > 0; i -= i & -i){
+			count += sizeIndex[i];
+		}
+		return count + chunks[chunkIndex].upperBound(timestamp);
+	}
+	
+	//Reflect the new total and the entries added to the given chunk inside the trees
+	private void updateIndex(int chunkIndex, double chunkTotal, int addedEntries) {
+		totalIndex.set(chunkIndex, chunkTotal);
+		for (int i = chunkIndex + 1; i <= nbOfChunks; i += i & -i){
+			sizeIndex[i] += addedEntries;
+		}
+	}
+	
+	//Build the trees from scratch in linear time
+	private void rebuildIndex() {
+		if (sizeIndex.length < chunks.length + 1){
+			totalIndex = new RangeSumTree(chunks.length);
+			sizeIndex = new int[chunks.length + 1];
+		}
+		totalIndex.clear();
+		Arrays.fill(sizeIndex, 0);
+		for (int i = 0; i < nbOfChunks; i++){
+			totalIndex.setLeaf(i, chunks[i].getTotal());
+		}
+		totalIndex.rebuild();
+		for (int i = 1; i <= nbOfChunks; i++){
+			sizeIndex[i] += chunks[i - 1].size;
+			int parent = i + (i & -i);
+			if (parent <= nbOfChunks){
+				sizeIndex[parent] += sizeIndex[i];
+			}
+		}
+	}
+	
+	private static void siftUp(long[] heapTimestamps, double[] heapAmounts, int position, long timestamp, double amount) {
+		while (position > 0){
+			int parent = (position - 1) >>> 1;
+			if (heapAmounts[parent] <= amount){
+				break;
+			}
+			heapTimestamps[position] = heapTimestamps[parent];
+			heapAmounts[position] = heapAmounts[parent];
+			position = parent;
+		}
+		heapTimestamps[position] = timestamp;
+		heapAmounts[position] = amount;
+	}
+	
+	//Replace the root of the heap with the given entry
+	private static void siftDown(long[] heapTimestamps, double[] heapAmounts, int heapSize, long timestamp, double amount) {
+		int position = 0;
+		while (true){
+			int child = 2 * position + 1;
+			if (child >= heapSize){
+				break;
+			}
+			if (child + 1 < heapSize && heapAmounts[child + 1] < heapAmounts[child]){
+				child++;
+			}
+			if (heapAmounts[child] >= amount){
+				break;
+			}
+			heapTimestamps[position] = heapTimestamps[child];
+			heapAmounts[position] = heapAmounts[child];
+			position = child;
+		}
+		if (heapSize > 0){
+			heapTimestamps[position] = timestamp;
+			heapAmounts[position] = amount;
+		}
+	}
+	
+	//Locate the last chunk starting at or before the given timestamp (or the first chunk if all of them start after it)
+	private int findChunk(long timestamp) {
+		int low = 0;
+		int high = nbOfChunks - 1;
+		//Fast path for the most common case of data arriving in time order
+		if (chunks[high].size == 0 || chunks[high].timestamps[0] <= timestamp){
+			return high;
+		}
+		while (low < high){
+			int middle = (low + high + 1) >>> 1;
+			if (chunks[middle].timestamps[0] <= timestamp){
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+	
+	private void insertChunk(int chunkIndex, Chunk chunk) {
+		if (nbOfChunks == chunks.length){
+			chunks = Arrays.copyOf(chunks, nbOfChunks * 2);
+		}
+		System.arraycopy(chunks, chunkIndex, chunks, chunkIndex + 1, nbOfChunks - chunkIndex);
+		chunks[chunkIndex] = chunk;
+		nbOfChunks++;
+		rebuildIndex();
+	}
+	
+	/* The (at most) limit largest totals offered so far, kept inside a min-heap */
+	static final class TopAmounts {
+		
+		private final long[] heapTimestamps;
+		private final double[] heapAmounts;
+		private int heapSize;
+		
+		TopAmounts(int limit) {
+			heapTimestamps = new long[limit];
+			heapAmounts = new double[limit];
+		}
+		
+		void offer(long timestamp, double amount) {
+			if (heapSize < heapAmounts.length){
+				siftUp(heapTimestamps, heapAmounts, heapSize++, timestamp, amount);
+			} else if (amount > heapAmounts[0]){
+				siftDown(heapTimestamps, heapAmounts, heapSize, timestamp, amount);
+			}
+		}
+		
+		boolean isFull() {
+			return heapSize == heapAmounts.length;
+		}
+		
+		//The smallest of the kept totals, the one a new total needs to beat once the heap is full
+		double smallestAmount() {
+			return heapAmounts[0];
+		}
+		
+		//Empty the heap from the smallest entry on, then hand the entries over the other way round
+		void visitLargestFirst(AmountVisitor visitor) {
+			long[] topTimestamps = new long[heapSize];
+			double[] topAmounts = new double[heapSize];
+			for (int i = heapSize - 1; i >= 0; i--){
+				topTimestamps[i] = heapTimestamps[0];
+				topAmounts[i] = heapAmounts[0];
+				siftDown(heapTimestamps, heapAmounts, i, heapTimestamps[i], heapAmounts[i]);
+			}
+			heapSize = 0;
+			for (int i = 0; i < topTimestamps.length; i++){
+				visitor.visit(topTimestamps[i], topAmounts[i]);
+			}
+		}
+		
+	}
+	
+	/* Sorted run of entries held in parallel primitive arrays */
+	static final class Chunk {
+		
+		final long[] timestamps;
+		final double[] amounts;
+		//The statistics of the entries, only allocated by the stores keeping them
+		final long[] counts;
+		final double[] minimums;
+		final double[] maximums;
+		int size;
+		//Sum of the amounts together with the rounding error it lost (Neumaier) and an upper bound of the largest amount
+		double total;
+		double totalCompensation;
+		double maxAmount;
+		
+		Chunk(int capacity, boolean statistics) {
+			timestamps = new long[capacity];
+			amounts = new double[capacity];
+			counts = statistics ? new long[capacity] : null;
+			minimums = statistics ? new double[capacity] : null;
+			maximums = statistics ? new double[capacity] : null;
+			maxAmount = Double.NEGATIVE_INFINITY;
+		}
+		
+		void visitStatistics(int position, StatisticsVisitor visitor) {
+			if (counts == null){
+				visitor.visit(timestamps[position], amounts[position], 0, Double.NaN, Double.NaN);
+			} else {
+				visitor.visit(timestamps[position], amounts[position], counts[position], minimums[position], maximums[position]);
+			}
+		}
+		
+		//Binary search returning the position of the timestamp or (-(insertion point) - 1) if absent
+		int search(long timestamp) {
+			if (size == 0 || timestamp > timestamps[size - 1]){
+				return -size - 1;
+			}
+			return Arrays.binarySearch(timestamps, 0, size, timestamp);
+		}
+		
+		//Position of the first entry not older than the given timestamp
+		int lowerBound(long timestamp) {
+			int position = search(timestamp);
+			return position >= 0 ? position : -position - 1;
+		}
+		
+		//Position following the last entry not newer than the given timestamp
+		int upperBound(long timestamp) {
+			int position = search(timestamp);
+			return position >= 0 ? position + 1 : -position - 1;
+		}
+		
+		//Remove the entries inside [start, end) of the chunk
+		void remove(int start, int end) {
+			if (start == end){
+				return;
+			}
+			System.arraycopy(timestamps, end, timestamps, start, size - end);
+			System.arraycopy(amounts, end, amounts, start, size - end);
+			if (counts != null){
+				System.arraycopy(counts, end, counts, start, size - end);
+				System.arraycopy(minimums, end, minimums, start, size - end);
+				System.arraycopy(maximums, end, maximums, start, size - end);
+			}
+			size -= end - start;
+			recomputeSummary();
+		}
+		
+		void insert(int position, long timestamp, double amount, long count, double minimum, double maximum) {
+			System.arraycopy(timestamps, position, timestamps, position + 1, size - position);
+			System.arraycopy(amounts, position, amounts, position + 1, size - position);
+			timestamps[position] = timestamp;
+			amounts[position] = amount;
+			if (counts != null){
+				System.arraycopy(counts, position, counts, position + 1, size - position);
+				System.arraycopy(minimums, position, minimums, position + 1, size - position);
+				System.arraycopy(maximums, position, maximums, position + 1, size - position);
+				counts[position] = count;
+				minimums[position] = minimum;
+				maximums[position] = maximum;
+			}
+			size++;
+			addToTotal(amount);
+			maxAmount = Math.max(maxAmount, amount);
+		}
+		
+		void merge(int position, double amount, long count, double minimum, double maximum) {
+			amounts[position] += amount;
+			if (counts != null){
+				counts[position] += count;
+				//The comparisons keep the bounds of the entries restored without statistics (NaN) out of the way
+				if (!(minimums[position] <= minimum)){
+					minimums[position] = minimum;
+				}
+				if (!(maximums[position] >= maximum)){
+					maximums[position] = maximum;
+				}
+			}
+			addToTotal(amount);
+			maxAmount = Math.max(maxAmount, amounts[position]);
+		}
+		
+		//The compensated sum of the amounts
+		double getTotal() {
+			return total + totalCompensation;
+		}
+		
+		//Add the amount to the total, keeping the low-order bits the addition rounds away
+		void addToTotal(double amount) {
+			double sum = total + amount;
+			if (Math.abs(total) >= Math.abs(amount)){
+				totalCompensation += (total - sum) + amount;
+			} else {
+				totalCompensation += (amount - sum) + total;
+			}
+			total = sum;
+		}
+		
+		//Recompute the total and the exact largest amount
+		void recomputeSummary() {
+			total = 0;
+			totalCompensation = 0;
+			maxAmount = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < size; i++){
+				addToTotal(amounts[i]);
+				maxAmount = Math.max(maxAmount, amounts[i]);
+			}
+		}
+		
+		//Move the upper half of the entries into a new chunk
+		Chunk split() {
+			Chunk upperHalf = new Chunk(timestamps.length, counts != null);
+			int retained = size / 2;
+			upperHalf.size = size - retained;
+			System.arraycopy(timestamps, retained, upperHalf.timestamps, 0, upperHalf.size);
+			System.arraycopy(amounts, retained, upperHalf.amounts, 0, upperHalf.size);
+			if (counts != null){
+				System.arraycopy(counts, retained, upperHalf.counts, 0, upperHalf.size);
+				System.arraycopy(minimums, retained, upperHalf.minimums, 0, upperHalf.size);
+				System.arraycopy(maximums, retained, upperHalf.maximums, 0, upperHalf.size);
+			}
+			size = retained;
+			recomputeSummary();
+			upperHalf.recomputeSummary();
+			return upperHalf;
+		}
+		
+	}
+
+}
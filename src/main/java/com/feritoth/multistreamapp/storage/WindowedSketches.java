@@ -0,0 +1,104 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Quantile sketches of the amounts per time window - every amount goes into the sketch of the window its timestamp falls into, and the
+ * quantiles of a range are estimated out of the merged sketches of the windows overlapping it. Every sketch is bounded by its number of
+ * buckets, so the memory only grows with the number of windows, which the retention evicts together with the timestamps.
+ * Not thread-safe, only accessed under the aggregate lock. */
+public class WindowedSketches {
+
+	/* Callback receiving the sketches in ascending window order */
+	public interface SketchVisitor {
+		void visit(long windowStart, QuantileSketch quantileSketch) throws IOException;
+	}
+
+	private final long windowMillis;
+	private final double relativeAccuracy;
+	private final int maxBuckets;
+	private final TreeMap<Long, QuantileSketch> windowSketches;
+	//The sketch of the window the last amount went into - the amounts mostly arrive in time order
+	private long lastWindowStart;
+	private QuantileSketch lastSketch;
+
+	public WindowedSketches(long windowMillis, double relativeAccuracy, int maxBuckets) {
+		if (windowMillis <= 0){
+			throw new IllegalArgumentException("Invalid sketch window: " + windowMillis + " ms");
+		}
+		//Fail fast on an invalid accuracy or bound instead of with the first amount
+		new QuantileSketch(relativeAccuracy, maxBuckets);
+		this.windowMillis = windowMillis;
+		this.relativeAccuracy = relativeAccuracy;
+		this.maxBuckets = maxBuckets;
+		this.windowSketches = new TreeMap<>();
+	}
+
+	//Count the amount inside the sketch of the window of its timestamp
+	public void add(long timestamp, double amount) {
+		long windowStart = windowStart(timestamp);
+		if (lastSketch == null || windowStart != lastWindowStart){
+			lastSketch = windowSketches.computeIfAbsent(windowStart, start -> new QuantileSketch(relativeAccuracy, maxBuckets));
+			lastWindowStart = windowStart;
+		}
+		lastSketch.add(amount);
+	}
+
+	//Merge the sketches of the windows overlapping [from, to] into a new sketch - the windows are never split, so the amounts of a window
+	//only partly covered by the range are counted as well
+	public QuantileSketch mergeRange(long from, long to) {
+		QuantileSketch mergedSketch = new QuantileSketch(relativeAccuracy, maxBuckets);
+		if (from <= to){
+			//The window holding the start of the range is looked up instead of computed, the unbounded ranges starting at Long.MIN_VALUE
+			Long firstWindowStart = windowSketches.floorKey(from);
+			long rangeStart = firstWindowStart != null && firstWindowStart + windowMillis > from ? firstWindowStart : from;
+			for (QuantileSketch windowSketch : windowSketches.subMap(rangeStart, true, to, true).values()){
+				mergedSketch.merge(windowSketch);
+			}
+		}
+		return mergedSketch;
+	}
+
+	//Drop the windows ending before the given horizon - returns the number of dropped windows
+	public int evictBefore(long horizon) {
+		Map<Long, QuantileSketch> evictedSketches = windowSketches.headMap(horizon - windowMillis, true);
+		int nbOfEvictedWindows = evictedSketches.size();
+		evictedSketches.clear();
+		lastSketch = null;
+		return nbOfEvictedWindows;
+	}
+
+	//Merge a sketch read back by the recovery into its window - returns false if its accuracy does not match the configured one
+	public boolean restore(long windowStart, QuantileSketch quantileSketch) {
+		if (quantileSketch.getRelativeAccuracy() != relativeAccuracy || windowStart != windowStart(windowStart)){
+			return false;
+		}
+		windowSketches.computeIfAbsent(windowStart, start -> new QuantileSketch(relativeAccuracy, maxBuckets)).merge(quantileSketch);
+		return true;
+	}
+
+	public void forEach(SketchVisitor sketchVisitor) throws IOException {
+		for (Map.Entry<Long, QuantileSketch> windowSketch : windowSketches.entrySet()){
+			sketchVisitor.visit(windowSketch.getKey(), windowSketch.getValue());
+		}
+	}
+
+	public long windowStart(long timestamp) {
+		return Math.floorDiv(timestamp, windowMillis) * windowMillis;
+	}
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	public int size() {
+		return windowSketches.size();
+	}
+
+	@Override
+	public String toString() {
+		return "WindowedSketches [windowMillis=" + windowMillis + ", relativeAccuracy=" + relativeAccuracy + ", maxBuckets=" + maxBuckets + ", windows=" + windowSketches.size() + "]";
+	}
+
+}
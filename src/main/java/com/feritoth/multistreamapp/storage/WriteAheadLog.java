@@ -0,0 +1,271 @@
+package com.feritoth.multistreamapp.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Append-only log of the merged batches kept inside memory-mapped segment files. Every entry is laid out as
+ *   payload length (4) | CRC32 of the payload (4) | version (8) | number of amounts (4) | timestamp (8) and amount (8) per amount
+ * The maintenance of the aggregate is logged in between, as entries carrying -1 instead of the number of amounts followed by
+ *   start (8) | end (8) of the maintained range | bucket width (8) of a rollup, zero for an eviction
+ * A zero length marks the end of the written part of a segment, while a damaged entry marks the end of the whole log.
+ * The segments are named after the version of their first entry, so the ones covered by a snapshot can be dropped without reading them. */
+public class WriteAheadLog implements Closeable {
+
+	/* Callback receiving the logged batches in version order */
+	public interface BatchVisitor {
+		void visit(long version, long[] timestamps, double[] amounts, int nbOfAmounts);
+	}
+
+	/* Callback receiving the logged rollups and evictions of [from, to) in version order - the bucket width is zero for an eviction */
+	public interface MaintenanceVisitor {
+		void visit(long version, long from, long to, long bucketMillis);
+	}
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	//Length and CRC in front of every entry, version and number of amounts at the start of its payload
+	private static final int ENTRY_PREFIX_LENGTH = 8;
+	private static final int PAYLOAD_HEADER_LENGTH = 12;
+	private static final int AMOUNT_LENGTH = 16;
+	//Number of amounts marking a maintenance entry and length of its range and bucket width
+	private static final int MAINTENANCE_ENTRY = -1;
+	private static final int MAINTENANCE_LENGTH = 24;
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final CRC32 checksum;
+	//The segment receiving the appends
+	private FileChannel segmentChannel;
+	private MappedByteBuffer segment;
+	//Number of bytes appended so far and number of bytes known to be on the disk
+	private long appendedBytes;
+	private long durableBytes;
+
+	public WriteAheadLog(Path directory, int segmentBytes) {
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.checksum = new CRC32();
+	}
+
+	//Replay the entries following the given version and cut the log at the first damaged entry - returns the last version found
+	public synchronized long recover(long snapshotVersion, BatchVisitor batchVisitor, MaintenanceVisitor maintenanceVisitor) throws IOException {
+		long lastVersion = snapshotVersion;
+		boolean damaged = false;
+		for (Path segmentPath : listSegments()){
+			if (damaged){
+				LOGGER.warn("Dropping the log segment " + segmentPath + " following a damaged entry");
+				Files.delete(segmentPath);
+				continue;
+			}
+			int validBytes;
+			try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+				MappedByteBuffer recoveredSegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+				lastVersion = replaySegment(recoveredSegment, lastVersion, batchVisitor, maintenanceVisitor);
+				validBytes = recoveredSegment.position();
+				if (recoveredSegment.remaining() >= 4 && recoveredSegment.getInt(validBytes) != 0){
+					//Zero the damaged tail, so that the following recoveries stop at the same place
+					LOGGER.warn("Damaged log entry found inside " + segmentPath + " at offset " + validBytes + ", the log ends with version " + lastVersion);
+					while (recoveredSegment.hasRemaining()){
+						recoveredSegment.put((byte) 0);
+					}
+					recoveredSegment.force();
+					damaged = true;
+				}
+			}
+			if (validBytes == 0){
+				//Nothing worth keeping - the segment would only clash with the one opened for the next version
+				Files.delete(segmentPath);
+			}
+		}
+		return lastVersion;
+	}
+
+	//Append the given batch under the given version - returns the log position to wait for when the batch has to be durable
+	public synchronized long append(long version, long[] timestamps, double[] amounts, int nbOfAmounts) throws IOException {
+		int payloadLength = PAYLOAD_HEADER_LENGTH + nbOfAmounts * AMOUNT_LENGTH;
+		int entryStart = startEntry(version, nbOfAmounts, payloadLength);
+		for (int i = 0; i < nbOfAmounts; i++){
+			segment.putLong(timestamps[i]).putDouble(amounts[i]);
+		}
+		return completeEntry(entryStart, payloadLength);
+	}
+
+	//Append a rollup of [from, to) into buckets of the given width (zero for an eviction) under the given version - returns the log position
+	//to wait for when the maintenance has to be durable
+	public synchronized long appendMaintenance(long version, long from, long to, long bucketMillis) throws IOException {
+		int payloadLength = PAYLOAD_HEADER_LENGTH + MAINTENANCE_LENGTH;
+		int entryStart = startEntry(version, MAINTENANCE_ENTRY, payloadLength);
+		segment.putLong(from).putLong(to).putLong(bucketMillis);
+		return completeEntry(entryStart, payloadLength);
+	}
+
+	//Force the appended entries to the disk - safe to be called concurrently with the appends, returns the durable log position
+	public long sync() {
+		MappedByteBuffer currentSegment;
+		long syncedBytes;
+		synchronized (this){
+			currentSegment = segment;
+			syncedBytes = appendedBytes;
+		}
+		if (currentSegment != null && syncedBytes > getDurableBytes()){
+			currentSegment.force();
+			synchronized (this){
+				durableBytes = Math.max(durableBytes, syncedBytes);
+			}
+		}
+		return getDurableBytes();
+	}
+
+	public synchronized long getAppendedBytes() {
+		return appendedBytes;
+	}
+
+	public synchronized long getDurableBytes() {
+		return durableBytes;
+	}
+
+	//Delete the segments holding only entries up to the given version - the segment receiving the appends is always kept
+	public synchronized int deleteSegmentsUpTo(long version) throws IOException {
+		List<Path> segmentPaths = listSegments();
+		int nbOfDeletedSegments = 0;
+		for (int i = 0; i < segmentPaths.size() - 1; i++){
+			//The first version of the next segment tells the last version of the current one
+			if (parseFirstVersion(segmentPaths.get(i + 1)) > version + 1){
+				break;
+			}
+			Files.delete(segmentPaths.get(i));
+			nbOfDeletedSegments++;
+		}
+		return nbOfDeletedSegments;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (segment != null){
+			segment.force();
+			durableBytes = appendedBytes;
+			segmentChannel.close();
+			segment = null;
+		}
+	}
+
+	//Read the entries of a segment, stopping at its end or at the first damaged entry
+	private long replaySegment(MappedByteBuffer recoveredSegment, long lastVersion, BatchVisitor batchVisitor, MaintenanceVisitor maintenanceVisitor) {
+		long[] timestamps = new long[0];
+		double[] amounts = new double[0];
+		while (recoveredSegment.remaining() >= ENTRY_PREFIX_LENGTH){
+			int entryStart = recoveredSegment.position();
+			int payloadLength = recoveredSegment.getInt(entryStart);
+			if (payloadLength < PAYLOAD_HEADER_LENGTH || payloadLength > recoveredSegment.remaining() - ENTRY_PREFIX_LENGTH){
+				return lastVersion;
+			}
+			ByteBuffer payload = recoveredSegment.duplicate();
+			payload.position(entryStart + ENTRY_PREFIX_LENGTH).limit(entryStart + ENTRY_PREFIX_LENGTH + payloadLength);
+			checksum.reset();
+			checksum.update(payload.duplicate());
+			if ((int) checksum.getValue() != recoveredSegment.getInt(entryStart + 4)){
+				return lastVersion;
+			}
+			long version = payload.getLong();
+			int nbOfAmounts = payload.getInt();
+			if (nbOfAmounts == MAINTENANCE_ENTRY){
+				if (payloadLength != PAYLOAD_HEADER_LENGTH + MAINTENANCE_LENGTH){
+					return lastVersion;
+				}
+				if (version > lastVersion){
+					maintenanceVisitor.visit(version, payload.getLong(), payload.getLong(), payload.getLong());
+					lastVersion = version;
+				}
+			} else if (nbOfAmounts < 0 || (payloadLength - PAYLOAD_HEADER_LENGTH) % AMOUNT_LENGTH != 0
+					|| nbOfAmounts != (payloadLength - PAYLOAD_HEADER_LENGTH) / AMOUNT_LENGTH){
+				return lastVersion;
+			} else if (version > lastVersion){
+				if (timestamps.length < nbOfAmounts){
+					timestamps = new long[nbOfAmounts];
+					amounts = new double[nbOfAmounts];
+				}
+				for (int i = 0; i < nbOfAmounts; i++){
+					timestamps[i] = payload.getLong();
+					amounts[i] = payload.getDouble();
+				}
+				batchVisitor.visit(version, timestamps, amounts, nbOfAmounts);
+				lastVersion = version;
+			}
+			recoveredSegment.position(entryStart + ENTRY_PREFIX_LENGTH + payloadLength);
+		}
+		return lastVersion;
+	}
+
+	//Write the header of an entry, opening a new segment when the current one has no room left for it - returns the start of the entry
+	private int startEntry(long version, int nbOfAmounts, int payloadLength) throws IOException {
+		if (segment == null || segment.remaining() < ENTRY_PREFIX_LENGTH + payloadLength){
+			openSegment(version, ENTRY_PREFIX_LENGTH + payloadLength);
+		}
+		int entryStart = segment.position();
+		segment.position(entryStart + ENTRY_PREFIX_LENGTH);
+		segment.putLong(version).putInt(nbOfAmounts);
+		return entryStart;
+	}
+
+	//Write the checksum and the length of an entry whose payload was written already
+	private long completeEntry(int entryStart, int payloadLength) {
+		int payloadStart = entryStart + ENTRY_PREFIX_LENGTH;
+		ByteBuffer payload = segment.duplicate();
+		payload.position(payloadStart).limit(payloadStart + payloadLength);
+		checksum.reset();
+		checksum.update(payload);
+		//The length goes last - a reader never sees an entry without its content
+		segment.putInt(entryStart + 4, (int) checksum.getValue());
+		segment.putInt(entryStart, payloadLength);
+		appendedBytes += ENTRY_PREFIX_LENGTH + payloadLength;
+		return appendedBytes;
+	}
+
+	//Start a new segment named after the version of its first entry - the previous one is forced before being closed
+	private void openSegment(long firstVersion, int minBytes) throws IOException {
+		if (segment != null){
+			segment.force();
+			durableBytes = appendedBytes;
+			segmentChannel.close();
+		}
+		Path segmentPath = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstVersion, SEGMENT_SUFFIX));
+		segmentChannel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, minBytes));
+		LOGGER.info("Opened the log segment " + segmentPath);
+	}
+
+	//List the segment files in version order
+	private List<Path> listSegments() throws IOException {
+		List<Path> segmentPaths = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)){
+			for (Path segmentPath : directoryStream){
+				segmentPaths.add(segmentPath);
+			}
+		}
+		//The zero padded names sort in version order
+		Collections.sort(segmentPaths);
+		return segmentPaths;
+	}
+
+	private static long parseFirstVersion(Path segmentPath) {
+		String fileName = segmentPath.getFileName().toString();
+		return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+	}
+
+}
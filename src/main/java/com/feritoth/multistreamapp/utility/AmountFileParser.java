@@ -0,0 +1,205 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Parser for the amount files replayed into the server: every line holds either an amount or a timestamp (epoch millis) and an amount
+ * separated by a comma, a semicolon or blanks - the empty lines and the ones starting with # are skipped. The file is memory-mapped window
+ * by window and the numbers are parsed straight out of the mapped bytes, without creating a String per line. */
+public class AmountFileParser {
+
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(AmountFileParser.class);
+	//Size of the file window mapped at once
+	private static final long WINDOW_BYTES = 256L * 1024 * 1024;
+	//Number of malformed lines reported inside the log
+	private static final int MAX_REPORTED_LINES = 10;
+	//Exact powers of ten - a mantissa below 2^53 divided or multiplied by one of them is rounded correctly
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private final long defaultTimestamp;
+	private long nbOfAmounts;
+	private long nbOfSkippedLines;
+	private long nbOfBytes;
+	//Position and value of the number parsed last out of the current window
+	private int cursor;
+	private double parsedValue;
+
+	//The amounts given without a timestamp are all placed at the given timestamp
+	public AmountFileParser(long defaultTimestamp) {
+		this.defaultTimestamp = defaultTimestamp;
+	}
+
+	//Hand every amount of the file over to the record handler in file order
+	public void parse(Path amountFile, RecordHandler recordHandler) throws IOException {
+		try (FileChannel fileChannel = FileChannel.open(amountFile, StandardOpenOption.READ)){
+			long fileSize = fileChannel.size();
+			long windowStart = 0;
+			while (windowStart < fileSize){
+				long windowLength = Math.min(WINDOW_BYTES, fileSize - windowStart);
+				boolean lastWindow = windowStart + windowLength == fileSize;
+				MappedByteBuffer window = fileChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+				int consumedBytes = parseWindow(window, lastWindow, recordHandler);
+				if (consumedBytes == 0){
+					throw new IOException("Line longer than " + WINDOW_BYTES + " bytes found at offset " + windowStart + " of " + amountFile);
+				}
+				//The next window starts with the line cut by the end of the current one
+				windowStart += consumedBytes;
+			}
+			nbOfBytes += fileSize;
+		}
+	}
+
+	public long getNbOfAmounts() {
+		return nbOfAmounts;
+	}
+
+	public long getNbOfSkippedLines() {
+		return nbOfSkippedLines;
+	}
+
+	public long getNbOfBytes() {
+		return nbOfBytes;
+	}
+
+	//Parse the complete lines of the window - returns the number of bytes consumed
+	private int parseWindow(MappedByteBuffer window, boolean lastWindow, RecordHandler recordHandler) throws IOException {
+		int windowLength = window.limit();
+		int lineStart = 0;
+		while (lineStart < windowLength){
+			int lineEnd = lineStart;
+			while (lineEnd < windowLength && window.get(lineEnd) != '\n'){
+				lineEnd++;
+			}
+			if (lineEnd == windowLength && !lastWindow){
+				return lineStart;
+			}
+			parseLine(window, lineStart, lineEnd, recordHandler);
+			lineStart = lineEnd + 1;
+		}
+		return windowLength;
+	}
+
+	private void parseLine(MappedByteBuffer window, int lineStart, int lineEnd, RecordHandler recordHandler) throws IOException {
+		cursor = skipBlanks(window, lineStart, lineEnd);
+		if (cursor == lineEnd || window.get(cursor) == '#'){
+			return;
+		}
+		if (!parseNumber(window, lineEnd)){
+			skipLine(window, lineStart, lineEnd);
+			return;
+		}
+		double firstValue = parsedValue;
+		cursor = skipBlanks(window, cursor, lineEnd);
+		if (cursor < lineEnd && (window.get(cursor) == ',' || window.get(cursor) == ';')){
+			cursor = skipBlanks(window, cursor + 1, lineEnd);
+		}
+		if (cursor == lineEnd){
+			recordHandler.onAmount(defaultTimestamp, firstValue);
+			nbOfAmounts++;
+			return;
+		}
+		//A second number makes the first one the timestamp
+		if (!parseNumber(window, lineEnd) || skipBlanks(window, cursor, lineEnd) != lineEnd || firstValue != (long) firstValue){
+			skipLine(window, lineStart, lineEnd);
+			return;
+		}
+		recordHandler.onAmount((long) firstValue, parsedValue);
+		nbOfAmounts++;
+	}
+
+	//Parse a decimal number starting at the cursor into parsedValue - returns false if there is none
+	private boolean parseNumber(MappedByteBuffer window, int lineEnd) {
+		int numberStart = cursor;
+		boolean negative = false;
+		if (cursor < lineEnd && (window.get(cursor) == '-' || window.get(cursor) == '+')){
+			negative = window.get(cursor++) == '-';
+		}
+		long mantissa = 0;
+		int nbOfDigits = 0;
+		int decimalExponent = 0;
+		boolean exact = true;
+		for (; cursor < lineEnd && isDigit(window.get(cursor)); cursor++, nbOfDigits++){
+			exact &= accumulate(mantissa, window.get(cursor));
+			if (exact){
+				mantissa = mantissa * 10 + (window.get(cursor) - '0');
+			}
+		}
+		if (cursor < lineEnd && window.get(cursor) == '.'){
+			for (cursor++; cursor < lineEnd && isDigit(window.get(cursor)); cursor++, nbOfDigits++){
+				exact &= accumulate(mantissa, window.get(cursor));
+				if (exact){
+					mantissa = mantissa * 10 + (window.get(cursor) - '0');
+					decimalExponent--;
+				}
+			}
+		}
+		if (nbOfDigits == 0){
+			return false;
+		}
+		if (cursor < lineEnd && (window.get(cursor) == 'e' || window.get(cursor) == 'E')){
+			int exponentStart = ++cursor;
+			boolean negativeExponent = false;
+			if (cursor < lineEnd && (window.get(cursor) == '-' || window.get(cursor) == '+')){
+				negativeExponent = window.get(cursor++) == '-';
+			}
+			int exponent = 0;
+			for (; cursor < lineEnd && isDigit(window.get(cursor)); cursor++){
+				exponent = Math.min(exponent * 10 + (window.get(cursor) - '0'), 100000);
+			}
+			if (cursor == exponentStart || !isDigit(window.get(cursor - 1))){
+				return false;
+			}
+			decimalExponent += negativeExponent ? -exponent : exponent;
+		}
+		if (exact && Math.abs(decimalExponent) < POWERS_OF_TEN.length){
+			double value = decimalExponent < 0 ? mantissa / POWERS_OF_TEN[-decimalExponent] : mantissa * POWERS_OF_TEN[decimalExponent];
+			parsedValue = negative ? -value : value;
+		} else {
+			//Rare slow path for the numbers the exact arithmetic cannot cover
+			byte[] numberBytes = new byte[cursor - numberStart];
+			for (int i = 0; i < numberBytes.length; i++){
+				numberBytes[i] = window.get(numberStart + i);
+			}
+			parsedValue = Double.parseDouble(new String(numberBytes, StandardCharsets.US_ASCII));
+		}
+		return true;
+	}
+
+	//Check whether one more digit keeps the mantissa exactly representable
+	private static boolean accumulate(long mantissa, byte digit) {
+		return mantissa * 10 + (digit - '0') < MAX_EXACT_MANTISSA;
+	}
+
+	private void skipLine(MappedByteBuffer window, int lineStart, int lineEnd) {
+		nbOfSkippedLines++;
+		if (nbOfSkippedLines <= MAX_REPORTED_LINES){
+			byte[] lineBytes = new byte[Math.min(lineEnd - lineStart, 200)];
+			for (int i = 0; i < lineBytes.length; i++){
+				lineBytes[i] = window.get(lineStart + i);
+			}
+			LOGGER.warn("Skipping the malformed line: " + new String(lineBytes, StandardCharsets.UTF_8).trim());
+		}
+	}
+
+	private static int skipBlanks(MappedByteBuffer window, int position, int lineEnd) {
+		while (position < lineEnd && (window.get(position) == ' ' || window.get(position) == '\t' || window.get(position) == '\r')){
+			position++;
+		}
+		return position;
+	}
+
+	private static boolean isDigit(byte character) {
+		return character >= '0' && character <= '9';
+	}
+
+}
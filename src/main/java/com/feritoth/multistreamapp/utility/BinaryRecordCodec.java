@@ -0,0 +1,228 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+
+/* Codec for the compact binary record format, which can be used instead of the XML records and the JSON responses. Every batch starts
+ * with a header followed by fixed-width records, all values being big-endian:
+ *   header: magic byte (1) | batch type (1) | aggregate version (8) | number of records (4)
+ *   record: record type (1) | timestamp in epoch millis (8) | amount or total (8)
+ * The halt and control records only use their timestamp, their value is always zero. The stats and credit records are answered with the
+ * JSON statistics and credit grant of the server rather than with a binary batch. The updates pushed to the subscribers are batches of
+ * totals of their own type, so that they can be told apart from the replies.
+ * The magic byte can never start an XML or JSON message, so the format is recognized on each frame. */
+public class BinaryRecordCodec {
+
+	//Leading byte of every binary batch
+	public static final byte MAGIC = (byte) 0xB1;
+	//Batch types
+	public static final byte REQUEST_BATCH = 1;
+	public static final byte FULL_RESPONSE = 2;
+	public static final byte DELTA_RESPONSE = 3;
+	public static final byte PUSHED_UPDATE = 4;
+	//Record types
+	public static final byte AMOUNT_RECORD = 1;
+	public static final byte HALT_RECORD = 2;
+	public static final byte TOTAL_RECORD = 3;
+	public static final byte DELTA_MODE_RECORD = 4;
+	public static final byte FULL_MODE_RECORD = 5;
+	public static final byte SNAPSHOT_RECORD = 6;
+	public static final byte STATS_RECORD = 7;
+	public static final byte CREDIT_RECORD = 8;
+	public static final byte SUBSCRIBE_RECORD = 9;
+	public static final byte UNSUBSCRIBE_RECORD = 10;
+	public static final byte COMPRESS_RECORD = 11;
+	//Sizes of the header and of a single record
+	public static final int HEADER_LENGTH = 14;
+	public static final int RECORD_LENGTH = 17;
+
+	private BinaryRecordCodec(){}
+
+	/* Static method for recognizing the binary batches among the received payloads */
+	public static boolean isBinaryBatch(ByteBuffer payload) {
+		return payload.remaining() >= HEADER_LENGTH && payload.get(payload.position()) == MAGIC;
+	}
+
+	/* Static method for reading the batch type out of the header */
+	public static byte getBatchType(ByteBuffer batch) {
+		return batch.get(batch.position() + 1);
+	}
+
+	/* Static method for reading the aggregate version out of the header */
+	public static long getVersion(ByteBuffer batch) {
+		return batch.getLong(batch.position() + 2);
+	}
+
+	/* Static method for decoding the records straight out of the given batch - amounts and totals are both handed over as amounts */
+	public static int decodeRecords(ByteBuffer batch, RecordHandler recordHandler) throws IOException {
+		int nbOfRecords = checkRecords(batch);
+		decodeRecordRange(batch, 0, nbOfRecords, recordHandler);
+		batch.position(batch.limit());
+		return nbOfRecords;
+	}
+
+	/* Static method for validating the header of the given batch against its length - returns the number of records */
+	public static int checkRecords(ByteBuffer batch) throws IOException {
+		if (!isBinaryBatch(batch)){
+			throw new IOException("The payload is not a binary batch");
+		}
+		int nbOfRecords = batch.getInt(batch.position() + 10);
+		if (nbOfRecords < 0 || (long) nbOfRecords * RECORD_LENGTH != batch.remaining() - HEADER_LENGTH){
+			throw new IOException("The binary batch announces " + nbOfRecords + " records, but holds " + (batch.remaining() - HEADER_LENGTH) + " bytes of records");
+		}
+		return nbOfRecords;
+	}
+
+	/* Static method for decoding the given range of records of an already checked batch, without consuming the batch - the ranges of a
+	 * large batch can be decoded by several threads at once */
+	public static void decodeRecordRange(ByteBuffer batch, int fromRecord, int toRecord, RecordHandler recordHandler) throws IOException {
+		int recordPosition = batch.position() + HEADER_LENGTH + fromRecord * RECORD_LENGTH;
+		for (int i = fromRecord; i < toRecord; i++, recordPosition += RECORD_LENGTH){
+			byte recordType = batch.get(recordPosition);
+			long timestamp = batch.getLong(recordPosition + 1);
+			if (recordType == AMOUNT_RECORD || recordType == TOTAL_RECORD){
+				recordHandler.onAmount(timestamp, batch.getDouble(recordPosition + 9));
+			} else if (recordType == HALT_RECORD){
+				recordHandler.onHalt(timestamp, null);
+			} else if (recordType == DELTA_MODE_RECORD){
+				recordHandler.onControl(new ControlCommand(ControlCommand.DELTA_MODE));
+			} else if (recordType == FULL_MODE_RECORD){
+				recordHandler.onControl(new ControlCommand(ControlCommand.FULL_MODE));
+			} else if (recordType == SNAPSHOT_RECORD){
+				recordHandler.onControl(new ControlCommand(ControlCommand.SNAPSHOT));
+			} else if (recordType == STATS_RECORD){
+				recordHandler.onControl(new ControlCommand(ControlCommand.STATS));
+			} else if (recordType == CREDIT_RECORD){
+				recordHandler.onControl(new ControlCommand(ControlCommand.CREDIT));
+			} else if (recordType == SUBSCRIBE_RECORD){
+				recordHandler.onControl(new ControlCommand(ControlCommand.SUBSCRIBE));
+			} else if (recordType == UNSUBSCRIBE_RECORD){
+				recordHandler.onControl(new ControlCommand(ControlCommand.UNSUBSCRIBE));
+			} else if (recordType == COMPRESS_RECORD){
+				recordHandler.onControl(new ControlCommand(ControlCommand.COMPRESS));
+			} else {
+				throw new IOException("Unknown binary record type: " + recordType);
+			}
+		}
+	}
+
+	/* Static method for encoding a full or delta response out of the given totals */
+	public static byte[] encodeResponse(long version, boolean delta, TimeSeriesStore totals) {
+		return encodeTotals(delta ? DELTA_RESPONSE : FULL_RESPONSE, version, totals);
+	}
+
+	/* Static method for encoding the update pushed to a subscriber out of the new totals of the changed timestamps */
+	public static byte[] encodeUpdate(long version, TimeSeriesStore totals) {
+		return encodeTotals(PUSHED_UPDATE, version, totals);
+	}
+
+	private static byte[] encodeTotals(byte batchType, long version, TimeSeriesStore totals) {
+		ByteBuffer batch = ByteBuffer.allocate(HEADER_LENGTH + totals.size() * RECORD_LENGTH);
+		writeHeader(batch, batchType, version, totals.size());
+		totals.forEach((timestamp, total) -> batch.put(TOTAL_RECORD).putLong(timestamp).putDouble(total));
+		return batch.array();
+	}
+
+	private static void writeHeader(ByteBuffer batch, byte batchType, long version, int nbOfRecords) {
+		batch.put(MAGIC).put(batchType).putLong(version).putInt(nbOfRecords);
+	}
+	
+	/* Builder assembling a request batch - as a record handler it can also transcode the records decoded out of another format */
+	public static class RequestBuilder implements RecordHandler {
+		
+		private ByteBuffer records;
+		private int nbOfRecords;
+		
+		public RequestBuilder(int expectedRecords) {
+			records = ByteBuffer.allocate(Math.max(1, expectedRecords) * RECORD_LENGTH);
+		}
+		
+		public RequestBuilder addAmount(long timestamp, double amount) {
+			return addRecord(AMOUNT_RECORD, timestamp, amount);
+		}
+		
+		public RequestBuilder addHalt(long timestamp) {
+			return addRecord(HALT_RECORD, timestamp, 0);
+		}
+		
+		public RequestBuilder addControl(String command) {
+			if (ControlCommand.DELTA_MODE.equalsIgnoreCase(command)){
+				return addRecord(DELTA_MODE_RECORD, 0, 0);
+			}
+			if (ControlCommand.FULL_MODE.equalsIgnoreCase(command)){
+				return addRecord(FULL_MODE_RECORD, 0, 0);
+			}
+			if (ControlCommand.SNAPSHOT.equalsIgnoreCase(command)){
+				return addRecord(SNAPSHOT_RECORD, 0, 0);
+			}
+			if (ControlCommand.STATS.equalsIgnoreCase(command)){
+				return addRecord(STATS_RECORD, 0, 0);
+			}
+			if (ControlCommand.CREDIT.equalsIgnoreCase(command)){
+				return addRecord(CREDIT_RECORD, 0, 0);
+			}
+			if (ControlCommand.SUBSCRIBE.equalsIgnoreCase(command)){
+				return addRecord(SUBSCRIBE_RECORD, 0, 0);
+			}
+			if (ControlCommand.UNSUBSCRIBE.equalsIgnoreCase(command)){
+				return addRecord(UNSUBSCRIBE_RECORD, 0, 0);
+			}
+			if (ControlCommand.COMPRESS.equalsIgnoreCase(command)){
+				return addRecord(COMPRESS_RECORD, 0, 0);
+			}
+			throw new IllegalArgumentException("The control command " + command + " has no binary record type");
+		}
+		
+		public int getNbOfRecords() {
+			return nbOfRecords;
+		}
+		
+		//Return the complete batch ready for framing
+		public ByteBuffer build() {
+			ByteBuffer batch = ByteBuffer.allocate(HEADER_LENGTH + records.position());
+			writeHeader(batch, REQUEST_BATCH, 0, nbOfRecords);
+			records.flip();
+			batch.put(records);
+			records.compact();
+			batch.flip();
+			return batch;
+		}
+		
+		@Override
+		public void onAmount(long timestamp, double amount) {
+			addAmount(timestamp, amount);
+		}
+
+		@Override
+		public void onHalt(long timestamp, String haltMessage) {
+			addHalt(timestamp);
+		}
+
+		@Override
+		public void onControl(ControlCommand controlCommand) {
+			addControl(controlCommand.getCommand());
+		}
+
+		@Override
+		public void onQuery(QueryRequest queryRequest) throws IOException {
+			throw new IOException("The queries have no binary record type, they need to be sent as XML records");
+		}
+		
+		private RequestBuilder addRecord(byte recordType, long timestamp, double value) {
+			if (records.remaining() < RECORD_LENGTH){
+				ByteBuffer largerRecords = ByteBuffer.allocate(records.capacity() * 2);
+				records.flip();
+				records = largerRecords.put(records);
+			}
+			records.put(recordType).putLong(timestamp).putDouble(value);
+			nbOfRecords++;
+			return this;
+		}
+		
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/* Input stream view over the remaining bytes of a buffer - used for feeding the received frames to the parsers without copying them */
+public class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer source;
+
+	public ByteBufferInputStream(ByteBuffer source) {
+		this.source = source;
+	}
+
+	@Override
+	public int read() {
+		return source.hasRemaining() ? source.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] target, int offset, int length) {
+		if (length == 0){
+			return 0;
+		}
+		if (!source.hasRemaining()){
+			return -1;
+		}
+		int nbOfBytes = Math.min(length, source.remaining());
+		source.get(target, offset, nbOfBytes);
+		return nbOfBytes;
+	}
+
+	@Override
+	public int available() {
+		return source.remaining();
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/* Codec of the compressed responses, negotiated by the clients through the compress control command. A compressed frame holds a marker
+ * byte and the length of the original payload, followed by the zlib stream of the payload:
+ *   marker (1) | original length (4) | zlib stream
+ * The marker byte can start neither a UTF-8 text nor a binary batch, so the compressed frames are recognized on each frame. Every connection
+ * keeps its own codec, reusing its deflater and inflater for all of its frames. */
+public class CompressionCodec implements Closeable {
+
+	//Leading byte of every compressed frame
+	public static final byte MAGIC = (byte) 0xC1;
+	public static final int HEADER_LENGTH = 5;
+	//Size of the replies below which they are sent as they are, unless the configuration tells otherwise
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 8192;
+
+	private final Deflater deflater;
+	private final Inflater inflater;
+	//Scratch buffer the payloads are deflated into, grown on demand
+	private byte[] deflatedBuffer;
+	private boolean closed;
+
+	public CompressionCodec() {
+		//The fastest level already removes most of the repeated JSON structure of the responses
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		inflater = new Inflater();
+		deflatedBuffer = new byte[HEADER_LENGTH + 4096];
+	}
+
+	/* Static method for recognizing the compressed frames among the received payloads */
+	public static boolean isCompressed(byte[] frame) {
+		return frame != null && frame.length >= HEADER_LENGTH && frame[0] == MAGIC;
+	}
+
+	//Compress the given payload into a frame - the payload is returned as it is when the compression would not make it smaller
+	public synchronized byte[] compress(byte[] payload) {
+		if (closed){
+			return payload;
+		}
+		deflater.reset();
+		deflater.setInput(payload);
+		deflater.finish();
+		int length = HEADER_LENGTH;
+		while (!deflater.finished()){
+			if (length >= payload.length){
+				return payload;
+			}
+			if (length == deflatedBuffer.length){
+				deflatedBuffer = Arrays.copyOf(deflatedBuffer, deflatedBuffer.length * 2);
+			}
+			length += deflater.deflate(deflatedBuffer, length, deflatedBuffer.length - length);
+		}
+		if (length >= payload.length){
+			return payload;
+		}
+		ByteBuffer frame = ByteBuffer.allocate(length);
+		frame.put(MAGIC).putInt(payload.length).put(deflatedBuffer, HEADER_LENGTH, length - HEADER_LENGTH);
+		return frame.array();
+	}
+
+	//Restore the payload of a compressed frame - any other frame is returned as it is
+	public synchronized byte[] decompress(byte[] frame) throws IOException {
+		if (!isCompressed(frame)){
+			return frame;
+		}
+		if (closed){
+			throw new IOException("The compression codec has already been closed");
+		}
+		int originalLength = ByteBuffer.wrap(frame, 1, 4).getInt();
+		if (originalLength < 0){
+			throw new IOException("The compressed frame announces an invalid length of " + originalLength + " bytes");
+		}
+		byte[] payload = new byte[originalLength];
+		inflater.reset();
+		inflater.setInput(frame, HEADER_LENGTH, frame.length - HEADER_LENGTH);
+		int inflatedLength = 0;
+		try {
+			while (inflatedLength < originalLength && !inflater.finished()){
+				int nbOfBytes = inflater.inflate(payload, inflatedLength, originalLength - inflatedLength);
+				if (nbOfBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				inflatedLength += nbOfBytes;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Malformed compressed frame: " + e.getMessage(), e);
+		}
+		if (inflatedLength != originalLength || !inflater.finished()){
+			throw new IOException("The compressed frame announces " + originalLength + " bytes, but holds " + (inflater.finished() ? inflatedLength : "more"));
+		}
+		return payload;
+	}
+
+	//Release the native memory of the deflater and of the inflater
+	@Override
+	public synchronized void close() {
+		if (!closed){
+			closed = true;
+			deflater.end();
+			inflater.end();
+		}
+	}
+
+}
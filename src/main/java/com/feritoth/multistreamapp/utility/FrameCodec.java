@@ -0,0 +1,70 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/* Helper class for the length-prefixed framing shared by the clients and the server: every message travels as a 4-byte big-endian payload length followed by the payload bytes */
+public class FrameCodec {
+
+	//Size of the frame header carrying the payload length
+	public static final int HEADER_LENGTH = 4;
+	//Upper bound used whenever no explicit limit has been configured
+	public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+	private FrameCodec(){}
+
+	/* Static method for wrapping a payload into a frame which is ready for writing */
+	public static ByteBuffer encodeFrame(byte[] payload) {
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+		frame.putInt(payload.length).put(payload);
+		frame.flip();
+		return frame;
+	}
+
+	/* Static method for writing a complete frame over a blocking channel - the header and the payload go out by gathering writes, so the
+	 * payload is not copied */
+	public static void writeFrame(SocketChannel channel, byte[] payload) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(0, payload.length);
+		ByteBuffer[] frame = {header, ByteBuffer.wrap(payload)};
+		while (header.hasRemaining() || frame[1].hasRemaining()){
+			channel.write(frame);
+		}
+	}
+
+	/* Static method for reading a complete frame from a blocking channel - returns null if the peer closed the connection before a new frame started */
+	public static byte[] readFrame(SocketChannel channel) throws IOException {
+		return readFrame(channel, DEFAULT_MAX_FRAME_LENGTH);
+	}
+
+	/* Static method for reading a complete frame of at most the given length from a blocking channel - returns null if the peer closed the connection before a new frame started */
+	public static byte[] readFrame(SocketChannel channel, int maxFrameLength) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		if (!readFully(channel, header, true)){
+			return null;
+		}
+		int payloadLength = header.getInt(0);
+		if (payloadLength < 0 || payloadLength > maxFrameLength){
+			throw new IOException("Invalid frame length received from the peer: " + payloadLength);
+		}
+		ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+		readFully(channel, payload, false);
+		return payload.array();
+	}
+
+	/* Static method for filling up the given buffer from a blocking channel */
+	private static boolean readFully(SocketChannel channel, ByteBuffer target, boolean eofAllowed) throws IOException {
+		while (target.hasRemaining()){
+			if (channel.read(target) < 0){
+				if (eofAllowed && target.position() == 0){
+					return false;
+				}
+				throw new EOFException("Connection closed in the middle of a frame");
+			}
+		}
+		return true;
+	}
+
+}
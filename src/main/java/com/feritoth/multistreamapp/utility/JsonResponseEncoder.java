@@ -0,0 +1,104 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+
+/* Streaming encoder of the JSON amount responses. The entries are walked straight out of the store and written through a generator into
+ * the given stream, so no wrapper object is created per entry and no intermediate string of the whole response is built. The output is
+ * byte for byte the one of the object mapper converting the DataWrapper lists and the VersionedResponse objects:
+ *   [{"data":{"timestamp":1,"amount":2.0}},...]
+ *   {"version":3,"delta":true,"amounts":[...],"pushed":true} */
+public class JsonResponseEncoder {
+
+	//The generators are created per response, their factory being thread-safe
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final SerializedString DATA_FIELD = new SerializedString("data");
+	private static final SerializedString TIMESTAMP_FIELD = new SerializedString("timestamp");
+	private static final SerializedString AMOUNT_FIELD = new SerializedString("amount");
+	private static final SerializedString VERSION_FIELD = new SerializedString("version");
+	private static final SerializedString DELTA_FIELD = new SerializedString("delta");
+	private static final SerializedString AMOUNTS_FIELD = new SerializedString("amounts");
+	private static final SerializedString PUSHED_FIELD = new SerializedString("pushed");
+	//Separator of the elements written outside of any array
+	private static final SerializedString FRAGMENT_SEPARATOR = new SerializedString(",");
+
+	private JsonResponseEncoder(){}
+
+	/* Static method for writing the JSON array of all the amounts of the store */
+	public static void writeAmounts(TimeSeriesStore amountStore, OutputStream output) throws IOException {
+		try (JsonGenerator generator = createGenerator(output)){
+			generator.writeStartArray();
+			writeEntries(generator, amountStore);
+			generator.writeEndArray();
+		}
+	}
+
+	/* Static method for writing a versioned (delta, full snapshot or pushed) response out of the amounts of the store */
+	public static void writeVersionedAmounts(long version, boolean delta, boolean pushed, TimeSeriesStore amountStore, OutputStream output) throws IOException {
+		try (JsonGenerator generator = createGenerator(output)){
+			generator.writeStartObject();
+			generator.writeFieldName(VERSION_FIELD);
+			generator.writeNumber(version);
+			generator.writeFieldName(DELTA_FIELD);
+			generator.writeBoolean(delta);
+			generator.writeFieldName(AMOUNTS_FIELD);
+			generator.writeStartArray();
+			writeEntries(generator, amountStore);
+			generator.writeEndArray();
+			if (pushed){
+				generator.writeFieldName(PUSHED_FIELD);
+				generator.writeBoolean(true);
+			}
+			generator.writeEndObject();
+		}
+	}
+
+	/* Static method for writing the given entries as the comma separated elements of an amount array, without the enclosing brackets */
+	public static void writeAmountFragment(long[] timestamps, double[] amounts, int from, int to, OutputStream output) throws IOException {
+		try (JsonGenerator generator = createGenerator(output)){
+			generator.setRootValueSeparator(FRAGMENT_SEPARATOR);
+			for (int i = from; i < to; i++){
+				writeEntry(generator, timestamps[i], amounts[i]);
+			}
+		}
+	}
+
+	private static JsonGenerator createGenerator(OutputStream output) throws IOException {
+		//The stream belongs to the caller, closing the generator only flushes it
+		return JSON_FACTORY.createGenerator(output, JsonEncoding.UTF8).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
+
+	private static void writeEntries(JsonGenerator generator, TimeSeriesStore amountStore) throws IOException {
+		try {
+			amountStore.forEach((timestamp, amount) -> {
+				try {
+					writeEntry(generator, timestamp, amount);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void writeEntry(JsonGenerator generator, long timestamp, double amount) throws IOException {
+		generator.writeStartObject();
+		generator.writeFieldName(DATA_FIELD);
+		generator.writeStartObject();
+		generator.writeFieldName(TIMESTAMP_FIELD);
+		generator.writeNumber(timestamp);
+		generator.writeFieldName(AMOUNT_FIELD);
+		generator.writeNumber(amount);
+		generator.writeEndObject();
+		generator.writeEndObject();
+	}
+
+}
@@ -1,12 +1,21 @@
 package com.feritoth.multistreamapp.utility;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -18,13 +27,22 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.feritoth.multistreamapp.core.ControlCommand;
 import com.feritoth.multistreamapp.core.CoreData;
 import com.feritoth.multistreamapp.core.DataWrapper;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.core.QueryResult;
 import com.feritoth.multistreamapp.core.QuitCommand;
+import com.feritoth.multistreamapp.core.VersionedResponse;
+import com.feritoth.multistreamapp.storage.QuantileSketch;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+import com.feritoth.multistreamapp.storage.WindowedSketches;
 
 public class MultistreamProcessor {
 	
@@ -32,13 +50,31 @@ public class MultistreamProcessor {
 	
 	//Application logger
 	private static final Logger LOGGER = LoggerFactory.getLogger(MultistreamProcessor.class);
+	//The XML mapper is thread-safe once configured, hence shared by all the conversions
+	private static final XmlMapper XML_MAPPER = createXmlMapper();
+	//The JSON mapper is thread-safe once configured as well, hence shared by the parsing of the responses too - the amount responses are
+	//streamed by the JsonResponseEncoder instead
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper().configure(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, true)
+			.setSerializationInclusion(Include.NON_EMPTY);
+	//Number of totals returned by the top queries without any limit and the largest limit accepted
+	public static final int DEFAULT_QUERY_LIMIT = 10;
+	public static final int MAX_QUERY_LIMIT = 10000;
+	//Field of the credit grant sent by the server
+	public static final String CREDIT_BYTES_FIELD = "creditBytes";
 	
-	/* Static method for loading the server configuration */
+	/* Static method for configuring the shared XML mapper */
+	private static XmlMapper createXmlMapper() {
+		XmlMapper xmlMapper = new XmlMapper();
+		xmlMapper.configure(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, true).setSerializationInclusion(Include.NON_EMPTY);
+		return xmlMapper;
+	}
+	
+	/* Static method for loading the server configuration - the classpath is searched first, then the file system */
 	public static Properties loadEntityConfiguration(String configurationFilePath) {
 		//Initialize property map
 		Properties entityProps = new Properties();
 		//Load the given info
-		try (InputStream configInput = MultistreamProcessor.class.getClassLoader().getResourceAsStream(configurationFilePath)){			
+		try (InputStream configInput = openConfiguration(configurationFilePath)){			
 			if (configInput == null){
 				LOGGER.error("Unfortunately, the system is unable to locate configuration file on path:" + configurationFilePath);
 				return null;
@@ -51,6 +87,17 @@ public class MultistreamProcessor {
 		return entityProps;
 	}
 	
+	/* Static method for opening a configuration file - returns null if it can be found neither on the classpath nor on the file system */
+	private static InputStream openConfiguration(String configurationFilePath) throws IOException {
+		InputStream configInput = MultistreamProcessor.class.getClassLoader().getResourceAsStream(configurationFilePath);
+		if (configInput != null){
+			return configInput;
+		}
+		//Several instances of the same entity (such as the shards of a cluster) are usually started with their own files
+		Path configurationFile = Paths.get(configurationFilePath);
+		return Files.isRegularFile(configurationFile) ? Files.newInputStream(configurationFile) : null;
+	}
+	
 	/* Static method for triggering the console input reader */
 	public static List<String> returnConsoleInput(String procTermKeyword) throws IOException {
 		List<String> allAmounts = new ArrayList<>();
@@ -65,18 +112,35 @@ public class MultistreamProcessor {
 	/* Static method for global amount conversion - used for assembling the input amounts into the final data format accepted by the server */
 	public static String convertAmountValues(List<String> allElligibleAmounts) throws JsonProcessingException {
 		List<Double> matchingAmounts = new ArrayList<Double>(); 
-		allElligibleAmounts.forEach(amount -> {
+		List<String> queryRecords = new ArrayList<>();
+		for (String amount : allElligibleAmounts){
+			//the stats line asks for the server statistics
+			if (ControlCommand.STATS.equalsIgnoreCase(StringUtils.trim(amount))){
+				queryRecords.add(createControlRecord(ControlCommand.STATS));
+				continue;
+			}
+			//the query lines are sent over as query records
+			String queryRecord = createQueryRecord(amount);
+			if (queryRecord != null){
+				queryRecords.add(queryRecord);
+				continue;
+			}
 			//convert each amount value and compose the output as follows
 			Double numericalAmount = checkAndConvertAmount(amount);
 			if (numericalAmount != null){
 				matchingAmounts.add(numericalAmount);
 			}
-		});
-		if (matchingAmounts.isEmpty()){
+		}
+		if (matchingAmounts.isEmpty() && queryRecords.isEmpty()){
 			LOGGER.warn("No suitable numerical values have been found for transmission to the server!");
 			return "";
 		} else {
-			String finalAmountData = createDataRecord(matchingAmounts);
+			List<String> finalRecords = new ArrayList<>();
+			if (!matchingAmounts.isEmpty()){
+				finalRecords.add(createDataRecord(matchingAmounts));
+			}
+			finalRecords.addAll(queryRecords);
+			String finalAmountData = String.join("\n", finalRecords);
 			LOGGER.info("The final data values are:\n" + finalAmountData);
 			return finalAmountData;
 		}
@@ -103,8 +167,8 @@ public class MultistreamProcessor {
 		return finalNumericalInput;
 	}
 
-	/* Static XML generator method for the amount list */
-	private static String convertDataRecordToXMLLine(Double amount, long currentTime) throws JsonProcessingException {
+	/* Static XML generator method for a single amount of the amount list */
+	public static String convertDataRecordToXMLLine(Double amount, long currentTime) throws JsonProcessingException {
 		CoreData newCoreRecord = new CoreData(new Timestamp(currentTime), amount);
 		return generateXMLfromCoreObject(newCoreRecord);
 	}
@@ -117,42 +181,338 @@ public class MultistreamProcessor {
 
 	/* Static XML marshaller method for both core objects */
 	private static String generateXMLfromCoreObject(Serializable coreObject) throws JsonProcessingException {
-		XmlMapper xmlMapper = new XmlMapper();
-		xmlMapper.configure(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, true).setSerializationInclusion(Include.NON_EMPTY);
-		String xmlRepresentation = xmlMapper.writeValueAsString(coreObject);
+		String xmlRepresentation = XML_MAPPER.writeValueAsString(coreObject);
 		LOGGER.info("The XML representation of the data is:\n" + xmlRepresentation);
 		return xmlRepresentation;
 	}
 	
 	/* Static method for de-serialization of XML into core Java object (regular amount with timestamp) */
 	public static CoreData convertXMLDataRecordToCoreData(String data) throws JsonParseException, JsonMappingException, IOException {
-		XmlMapper xmlMapper = new XmlMapper();
-		CoreData coreData = xmlMapper.readValue(data, CoreData.class);
+		CoreData coreData = XML_MAPPER.readValue(data, CoreData.class);
 		return coreData;
 	}
 		
 	/* Static method for converting the final data result into a JSON string */
 	public static String convertAmountsToJSON(Map<Timestamp, Double> amountDataMap) throws JsonProcessingException {
-		//collect the amount data
+		//collect the amount data and convert the list in question to JSON
+		return generateJSONfromObject(collectAmountData(amountDataMap));
+	}
+	
+	/* Static method for converting the content of the primitive amount store into a JSON string - streamed straight out of the store */
+	public static String convertAmountsToJSON(TimeSeriesStore amountStore) throws IOException {
+		ByteArrayOutputStream jsonOutput = new ByteArrayOutputStream();
+		JsonResponseEncoder.writeAmounts(amountStore, jsonOutput);
+		return jsonOutput.toString(StandardCharsets.UTF_8.name());
+	}
+	
+	/* Static method for converting a versioned (delta or full snapshot) result into a JSON string */
+	public static String convertAmountsToVersionedJSON(long version, boolean delta, TimeSeriesStore amountStore) throws IOException {
+		return new String(convertAmountsToVersionedJSONBytes(version, delta, false, amountStore), StandardCharsets.UTF_8);
+	}
+	
+	/* Static method for converting a versioned result or a pushed update into the UTF-8 bytes of its JSON */
+	public static byte[] convertAmountsToVersionedJSONBytes(long version, boolean delta, boolean pushed, TimeSeriesStore amountStore) throws IOException {
+		ByteArrayOutputStream jsonOutput = new ByteArrayOutputStream();
+		JsonResponseEncoder.writeVersionedAmounts(version, delta, pushed, amountStore, jsonOutput);
+		return jsonOutput.toByteArray();
+	}
+	
+	/* Static method for converting the given entries into the comma separated elements of a JSON amount array, without the enclosing
+	 * brackets - the snapshot cache joins the fragments of consecutive timestamp ranges into complete responses */
+	public static byte[] convertAmountsToJSONFragment(long[] timestamps, double[] amounts, int from, int to) throws IOException {
+		ByteArrayOutputStream jsonOutput = new ByteArrayOutputStream((to - from) * 48);
+		JsonResponseEncoder.writeAmountFragment(timestamps, amounts, from, to, jsonOutput);
+		return jsonOutput.toByteArray();
+	}
+	
+	/* Static method for converting the update pushed to a subscriber into a JSON string */
+	public static String convertAmountsToPushedJSON(long version, TimeSeriesStore amountStore) throws IOException {
+		return new String(convertAmountsToVersionedJSONBytes(version, true, true, amountStore), StandardCharsets.UTF_8);
+	}
+	
+	/* Static method for recognizing the updates pushed by the server among the frames received by a subscribed client */
+	public static boolean isPushedUpdate(String response) {
+		return StringUtils.startsWith(response, "{") && StringUtils.contains(response, "\"pushed\":true");
+	}
+	
+	/* Static method for extracting the version out of a versioned server response - returns -1 for the regular responses */
+	public static long extractResponseVersion(String response) {
+		if (!StringUtils.startsWith(response, "{")){
+			return -1;
+		}
+		try {
+			return JSON_MAPPER.readValue(response, VersionedResponse.class).getVersion();
+		} catch (IOException e) {
+			LOGGER.warn("Unable to extract the version out of the server response due to the following exception:" + e);
+			return -1;
+		}
+	}
+	
+	/* Static method for wrapping each map entry into its core object */
+	private static List<DataWrapper> collectAmountData(Map<Timestamp, Double> amountDataMap) {
 		List<DataWrapper> amountDataList = new ArrayList<>();
 		amountDataMap.keySet().forEach(timeKey -> {
 			amountDataList.add(new DataWrapper(new CoreData(timeKey, amountDataMap.get(timeKey))));
 		});
-		//convert the list in question to JSON
-		ObjectMapper objMapper = new ObjectMapper();
-		objMapper.configure(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS, true).setSerializationInclusion(Include.NON_EMPTY);
-		String jsonRepresentation = objMapper.writeValueAsString(amountDataList);
+		return amountDataList;
+	}
+	
+	/* Static JSON marshaller method for the server responses */
+	private static String generateJSONfromObject(Object responseObject) throws JsonProcessingException {
+		String jsonRepresentation = JSON_MAPPER.writeValueAsString(responseObject);
 		LOGGER.info("The JSON representation of the data is:\n" + jsonRepresentation);
 		return jsonRepresentation;
 	}
 	
 	/* Static method for de-serialization of XML into core Java object (halt command case) */
 	public static QuitCommand convertXMLDataRecordToHaltCommand(String haltLine) throws JsonParseException, JsonMappingException, IOException {
-		XmlMapper xmlMapper = new XmlMapper();
-		QuitCommand resignation = xmlMapper.readValue(haltLine, QuitCommand.class);
+		QuitCommand resignation = XML_MAPPER.readValue(haltLine, QuitCommand.class);
 		return resignation;
 	}
 	
+	/* Static XML generator method for the control records (response mode switches and snapshot requests) */
+	public static String createControlRecord(String command) throws JsonProcessingException {
+		return generateXMLfromCoreObject(new ControlCommand(command));
+	}
+	
+	/* Static method for placing the control records in front of the data to be sent over to the server */
+	public static String prependControlRecords(String finalData, String... commands) throws JsonProcessingException {
+		StringBuilder controlledData = new StringBuilder();
+		for (String command : commands){
+			controlledData.append(createControlRecord(command)).append("\n");
+		}
+		return controlledData.append(finalData).toString();
+	}
+	
+	/* Static method for transcoding the XML records into a binary batch for the clients speaking the binary protocol */
+	public static byte[] convertXMLDataToBinary(String finalData) throws IOException {
+		BinaryRecordCodec.RequestBuilder requestBuilder = new BinaryRecordCodec.RequestBuilder(StringUtils.countMatches(finalData, '\n') + 1);
+		XmlRecordDecoder.decodeRecords(new ByteArrayInputStream(finalData.getBytes(StandardCharsets.UTF_8)), requestBuilder);
+		return requestBuilder.build().array();
+	}
+	
+	/* Static method for converting a binary server response into the versioned JSON representation */
+	public static String convertBinaryResponseToJSON(byte[] response) throws IOException {
+		ByteBuffer responseBatch = ByteBuffer.wrap(response);
+		if (!BinaryRecordCodec.isBinaryBatch(responseBatch)){
+			return new String(response, StandardCharsets.UTF_8).trim();
+		}
+		TimeSeriesStore totals = new TimeSeriesStore();
+		boolean pushed = BinaryRecordCodec.getBatchType(responseBatch) == BinaryRecordCodec.PUSHED_UPDATE;
+		boolean delta = BinaryRecordCodec.getBatchType(responseBatch) == BinaryRecordCodec.DELTA_RESPONSE;
+		long version = BinaryRecordCodec.getVersion(responseBatch);
+		BinaryRecordCodec.decodeRecords(responseBatch, new RecordHandler() {
+			@Override
+			public void onAmount(long timestamp, double amount) {
+				totals.add(timestamp, amount);
+			}
+			@Override
+			public void onHalt(long timestamp, String haltMessage) {
+				LOGGER.warn("Unexpected halt record found inside the server response");
+			}
+			@Override
+			public void onControl(ControlCommand controlCommand) {
+				LOGGER.warn("Unexpected control record found inside the server response");
+			}
+			@Override
+			public void onQuery(QueryRequest queryRequest) {
+				LOGGER.warn("Unexpected query record found inside the server response");
+			}
+		});
+		return pushed ? convertAmountsToPushedJSON(version, totals) : convertAmountsToVersionedJSON(version, delta, totals);
+	}
+	
+	/* Static method for converting a console line such as "range 1000 2000", "point 1500", "top 5 [1000 2000]", "summary 1500",
+	 * "summary 1000 2000" or "quantile 0.99 [1000 2000]" into a query record - returns null for the lines which are not queries */
+	public static String createQueryRecord(String consoleLine) throws JsonProcessingException {
+		String[] queryTokens = StringUtils.split(StringUtils.trimToEmpty(consoleLine));
+		if (queryTokens.length == 0){
+			return null;
+		}
+		QueryRequest queryRequest = new QueryRequest(queryTokens[0].toLowerCase());
+		try {
+			if (QueryRequest.RANGE.equals(queryRequest.getType()) && queryTokens.length == 3){
+				queryRequest.setFrom(Long.valueOf(queryTokens[1]));
+				queryRequest.setTo(Long.valueOf(queryTokens[2]));
+			} else if (QueryRequest.POINT.equals(queryRequest.getType()) && queryTokens.length == 2){
+				queryRequest.setTimestamp(Long.valueOf(queryTokens[1]));
+			} else if (QueryRequest.TOP.equals(queryRequest.getType()) && (queryTokens.length == 2 || queryTokens.length == 4)){
+				queryRequest.setLimit(Integer.valueOf(queryTokens[1]));
+				if (queryTokens.length == 4){
+					queryRequest.setFrom(Long.valueOf(queryTokens[2]));
+					queryRequest.setTo(Long.valueOf(queryTokens[3]));
+				}
+			} else if (QueryRequest.SUMMARY.equals(queryRequest.getType()) && queryTokens.length == 2){
+				queryRequest.setTimestamp(Long.valueOf(queryTokens[1]));
+			} else if (QueryRequest.SUMMARY.equals(queryRequest.getType()) && queryTokens.length == 3){
+				queryRequest.setFrom(Long.valueOf(queryTokens[1]));
+				queryRequest.setTo(Long.valueOf(queryTokens[2]));
+			} else if (QueryRequest.QUANTILE.equals(queryRequest.getType()) && (queryTokens.length == 2 || queryTokens.length == 4)){
+				queryRequest.setQuantile(Double.valueOf(queryTokens[1]));
+				if (queryTokens.length == 4){
+					queryRequest.setFrom(Long.valueOf(queryTokens[2]));
+					queryRequest.setTo(Long.valueOf(queryTokens[3]));
+				}
+			} else {
+				return null;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return generateXMLfromCoreObject(queryRequest);
+	}
+	
+	/* Static method for recognizing the frames holding queries, which are always sent as XML records */
+	public static boolean containsQueryRecords(String finalData) {
+		return StringUtils.contains(finalData, "<query>");
+	}
+	
+	/* Static method for answering a query out of the aggregate store and the quantile sketches (null when they are disabled) */
+	public static QueryResult executeQuery(QueryRequest queryRequest, TimeSeriesStore amountStore, WindowedSketches windowedSketches, long version) {
+		QueryResult queryResult = new QueryResult(queryRequest.getType(), version);
+		long from = queryRequest.getFrom() != null ? queryRequest.getFrom() : Long.MIN_VALUE;
+		long to = queryRequest.getTo() != null ? queryRequest.getTo() : Long.MAX_VALUE;
+		if (QueryRequest.RANGE.equals(queryRequest.getType())){
+			queryResult.setFrom(queryRequest.getFrom());
+			queryResult.setTo(queryRequest.getTo());
+			queryResult.setCount(amountStore.countRange(from, to));
+			queryResult.setSum(amountStore.sumRange(from, to));
+		} else if (QueryRequest.POINT.equals(queryRequest.getType()) && queryRequest.getTimestamp() != null){
+			queryResult.setTimestamp(queryRequest.getTimestamp());
+			if (amountStore.contains(queryRequest.getTimestamp())){
+				queryResult.setAmount(amountStore.getOrDefault(queryRequest.getTimestamp(), 0));
+			}
+		} else if (QueryRequest.TOP.equals(queryRequest.getType())){
+			int limit = Math.min(queryRequest.getLimit() != null ? queryRequest.getLimit() : DEFAULT_QUERY_LIMIT, MAX_QUERY_LIMIT);
+			queryResult.setFrom(queryRequest.getFrom());
+			queryResult.setTo(queryRequest.getTo());
+			queryResult.setLimit(limit);
+			List<DataWrapper> topAmounts = new ArrayList<>();
+			amountStore.forEachTopAmount(limit, from, to, (timestamp, amount) -> topAmounts.add(new DataWrapper(new CoreData(new Timestamp(timestamp), amount))));
+			queryResult.setAmounts(topAmounts);
+		} else if (QueryRequest.SUMMARY.equals(queryRequest.getType())){
+			if (!amountStore.hasStatistics()){
+				queryResult.setError("The timestamp statistics are not enabled on the server");
+			} else if (queryRequest.getTimestamp() != null){
+				queryResult.setTimestamp(queryRequest.getTimestamp());
+				summarizeRange(amountStore, queryRequest.getTimestamp(), queryRequest.getTimestamp(), queryResult);
+			} else {
+				queryResult.setFrom(queryRequest.getFrom());
+				queryResult.setTo(queryRequest.getTo());
+				summarizeRange(amountStore, from, to, queryResult);
+			}
+		} else if (QueryRequest.QUANTILE.equals(queryRequest.getType()) && queryRequest.getQuantile() != null){
+			queryResult.setFrom(queryRequest.getFrom());
+			queryResult.setTo(queryRequest.getTo());
+			queryResult.setQuantile(queryRequest.getQuantile());
+			if (windowedSketches == null){
+				queryResult.setError("The quantile sketches are not enabled on the server");
+			} else if (!(queryRequest.getQuantile() >= 0 && queryRequest.getQuantile() <= 1)){
+				queryResult.setError("The quantile needs to be inside [0, 1], got " + queryRequest.getQuantile());
+			} else {
+				QuantileSketch quantileSketch = windowedSketches.mergeRange(from, to);
+				queryResult.setRecords(quantileSketch.getCount());
+				if (!quantileSketch.isEmpty()){
+					queryResult.setAmount(quantileSketch.getQuantile(queryRequest.getQuantile()));
+				}
+				queryResult.setSketch(Base64.getEncoder().encodeToString(quantileSketch.toBytes()));
+			}
+		} else {
+			queryResult.setError("Unsupported or incomplete query: " + queryRequest);
+		}
+		return queryResult;
+	}
+	
+	/* Static method for collecting the statistics of the timestamps inside [from, to] into the query result - the timestamps restored out of
+	 * a snapshot without statistics count no amounts and have no extremes */
+	private static void summarizeRange(TimeSeriesStore amountStore, long from, long to, QueryResult queryResult) {
+		long[] records = new long[1];
+		double[] sumAndExtremes = {0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		amountStore.forEachStatisticsInRange(from, to, (timestamp, total, count, minimum, maximum) -> {
+			records[0] += count;
+			sumAndExtremes[0] += total;
+			if (minimum < sumAndExtremes[1]){
+				sumAndExtremes[1] = minimum;
+			}
+			if (maximum > sumAndExtremes[2]){
+				sumAndExtremes[2] = maximum;
+			}
+		});
+		if (queryResult.getTimestamp() != null){
+			if (amountStore.contains(queryResult.getTimestamp())){
+				queryResult.setAmount(sumAndExtremes[0]);
+			}
+		} else {
+			queryResult.setCount(amountStore.countRange(from, to));
+			queryResult.setSum(sumAndExtremes[0]);
+		}
+		queryResult.setRecords(records[0]);
+		if (records[0] > 0){
+			queryResult.setMinimum(sumAndExtremes[1]);
+			queryResult.setMaximum(sumAndExtremes[2]);
+			queryResult.setMean(sumAndExtremes[0] / records[0]);
+		}
+	}
+	
+	/* Static method for recognizing the frames asking for the server statistics */
+	public static boolean containsStatsRecord(String finalData) {
+		return StringUtils.contains(finalData, "<command>" + ControlCommand.STATS + "</command>");
+	}
+	
+	/* Static method for converting the server statistics into a JSON string */
+	public static String convertStatsToJSON(Map<String, Object> serverStats) throws JsonProcessingException {
+		return generateJSONfromObject(serverStats);
+	}
+	
+	/* Static method for converting the credit window granted to a connection into a JSON string */
+	public static String convertCreditToJSON(long creditBytes) throws JsonProcessingException {
+		return generateJSONfromObject(Collections.singletonMap(CREDIT_BYTES_FIELD, creditBytes));
+	}
+	
+	/* Static method for extracting the granted credit window out of a server response - returns -1 if the response holds none */
+	public static long extractCreditBytes(String response) {
+		if (!StringUtils.startsWith(response, "{")){
+			return -1;
+		}
+		try {
+			JsonNode creditNode = JSON_MAPPER.readTree(response).get(CREDIT_BYTES_FIELD);
+			return creditNode != null && creditNode.canConvertToLong() ? creditNode.asLong() : -1;
+		} catch (IOException e) {
+			LOGGER.warn("Unable to extract the credit out of the server response due to the following exception:" + e);
+			return -1;
+		}
+	}
+	
+	/* Static method for converting the query results into a JSON string */
+	public static String convertQueryResultsToJSON(List<QueryResult> queryResults) throws JsonProcessingException {
+		return generateJSONfromObject(queryResults);
+	}
+	
+	/* Static method for converting the query results received from a server back into their core objects */
+	public static List<QueryResult> convertJSONToQueryResults(String response) throws IOException {
+		return JSON_MAPPER.readValue(response, new TypeReference<List<QueryResult>>(){});
+	}
+	
+	/* Static method for converting the given queries into XML records, one per line */
+	public static String convertQueriesToXML(List<QueryRequest> queryRequests) throws JsonProcessingException {
+		List<String> queryRecords = new ArrayList<>(queryRequests.size());
+		for (QueryRequest queryRequest : queryRequests){
+			queryRecords.add(generateXMLfromCoreObject(queryRequest));
+		}
+		return String.join("\n", queryRecords);
+	}
+	
+	/* Static method for recognizing the control records among the received data lines */
+	public static boolean isControlRecord(String dataLine) {
+		return StringUtils.startsWith(StringUtils.trim(dataLine), "<control");
+	}
+	
+	/* Static method for de-serialization of XML into core Java object (control command case) */
+	public static ControlCommand convertXMLDataRecordToControlCommand(String controlLine) throws JsonParseException, JsonMappingException, IOException {
+		ControlCommand controlCommand = XML_MAPPER.readValue(controlLine, ControlCommand.class);
+		return controlCommand;
+	}
+	
 	/* Static method method for merging the data for the general case - data contains no "Quit" message in here */
 	public static String mergeDataForGeneralCase(List<String> newAmounts) throws JsonProcessingException {
 		String finalAmounts = MultistreamProcessor.convertAmountValues(newAmounts);
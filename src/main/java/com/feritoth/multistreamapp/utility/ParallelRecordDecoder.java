@@ -0,0 +1,312 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+import com.feritoth.multistreamapp.storage.TimeSeriesStore;
+
+/* Decoder of the large XML and binary payloads on a fork-join pool. The payload is cut into slices at record boundaries, every slice is
+ * decoded on its own into a partial sum per timestamp, and the partials are merged pairwise while the tasks are joined. The handler then
+ * receives the summed amounts of the whole payload at once, in timestamp order, followed by the other records (halts, controls and queries)
+ * in the order of the payload - so the quit record still closes the connection once the batch has been merged. When the aggregate keeps
+ * statistics of the single amounts, the slices keep their amounts as they are instead and the handler receives them in payload order.
+ * The payloads holding fewer records than the threshold are decoded on the calling thread as before. */
+public class ParallelRecordDecoder {
+
+	//Opening of the XML amount records, the slices of the XML payloads start right before one of them
+	private static final byte[] DATA_RECORD_START = {'<', 'd', 'a', 't', 'a'};
+	//Smallest slice worth a task of its own
+	private static final int MIN_SLICE_RECORDS = 1024;
+
+	private final ForkJoinPool decodePool;
+	private final int recordThreshold;
+	private final boolean sumAmounts;
+
+	//The payloads of at least recordThreshold records are decoded on the given pool
+	public ParallelRecordDecoder(ForkJoinPool decodePool, int recordThreshold) {
+		this(decodePool, recordThreshold, true);
+	}
+
+	//The amounts of a timestamp are only summed up inside the slices if asked to
+	public ParallelRecordDecoder(ForkJoinPool decodePool, int recordThreshold, boolean sumAmounts) {
+		this.decodePool = decodePool;
+		this.recordThreshold = recordThreshold;
+		this.sumAmounts = sumAmounts;
+	}
+
+	//Decode the XML records of the payload - returns the number of records
+	public int decodeXmlRecords(ByteBuffer payload, RecordHandler recordHandler) throws IOException {
+		//The sample counted holds enough records for a steady estimate even with a small threshold
+		int nbOfRecords = estimateDataRecords(payload, payload.position(), payload.limit(), Math.max(recordThreshold, MIN_SLICE_RECORDS));
+		if (nbOfRecords < recordThreshold){
+			return XmlRecordDecoder.decodeRecords(payload, recordHandler);
+		}
+		int[] sliceStarts = cutXmlSlices(payload, nbOfRecords);
+		PartialBatch mergedBatch = invoke(new SliceTask(payload, sliceStarts, 0, sliceStarts.length - 1, false, sumAmounts));
+		payload.position(payload.limit());
+		return mergedBatch.replay(recordHandler);
+	}
+
+	//Decode the records of the binary batch - returns the number of records
+	public int decodeBinaryRecords(ByteBuffer batch, RecordHandler recordHandler) throws IOException {
+		int nbOfRecords = BinaryRecordCodec.checkRecords(batch);
+		if (nbOfRecords < recordThreshold){
+			return BinaryRecordCodec.decodeRecords(batch, recordHandler);
+		}
+		int nbOfSlices = countSlices(nbOfRecords);
+		int[] sliceStarts = new int[nbOfSlices + 1];
+		for (int i = 0; i <= nbOfSlices; i++){
+			sliceStarts[i] = (int) ((long) nbOfRecords * i / nbOfSlices);
+		}
+		PartialBatch mergedBatch = invoke(new SliceTask(batch, sliceStarts, 0, nbOfSlices, true, sumAmounts));
+		batch.position(batch.limit());
+		return mergedBatch.replay(recordHandler);
+	}
+
+	private PartialBatch invoke(SliceTask sliceTask) throws IOException {
+		try {
+			return decodePool.invoke(sliceTask);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	//The byte offsets the slices of an XML payload holding about the given number of records start at, followed by the end of the payload
+	private int[] cutXmlSlices(ByteBuffer payload, int nbOfRecords) {
+		int start = payload.position();
+		int end = payload.limit();
+		int nbOfSlices = countSlices(nbOfRecords);
+		List<Integer> sliceStarts = new ArrayList<>(nbOfSlices + 1);
+		sliceStarts.add(start);
+		for (int i = 1; i < nbOfSlices; i++){
+			int cut = indexOfDataRecord(payload, Math.max(start + (int) ((long) (end - start) * i / nbOfSlices), sliceStarts.get(sliceStarts.size() - 1) + 1), end);
+			if (cut < 0){
+				break;
+			}
+			if (cut > sliceStarts.get(sliceStarts.size() - 1)){
+				sliceStarts.add(cut);
+			}
+		}
+		sliceStarts.add(end);
+		return sliceStarts.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	//Enough slices to keep every thread of the pool busy while the slow ones finish, without going below the smallest worthwhile slice
+	private int countSlices(int nbOfRecords) {
+		return Math.max(1, Math.min(decodePool.getParallelism() * 4, nbOfRecords / MIN_SLICE_RECORDS));
+	}
+
+	//Count the XML amount records between the given offsets - once the sample size has been reached, the count of the whole range is
+	//extrapolated out of the bytes taken by the records of the sample
+	private static int estimateDataRecords(ByteBuffer payload, int from, int to, int sampleSize) {
+		int nbOfRecords = 0;
+		int position = indexOfDataRecord(payload, from, to);
+		while (position >= 0){
+			nbOfRecords++;
+			int next = indexOfDataRecord(payload, position + DATA_RECORD_START.length, to);
+			if (nbOfRecords == sampleSize && next >= 0){
+				return (int) Math.min(Integer.MAX_VALUE, (long) nbOfRecords * (to - from) / (next - from));
+			}
+			position = next;
+		}
+		return nbOfRecords;
+	}
+
+	//Find the next opening of an amount record - the data element is never nested, so it always starts a record
+	private static int indexOfDataRecord(ByteBuffer payload, int from, int to) {
+		int last = to - DATA_RECORD_START.length - 1;
+		for (int position = from; position <= last; position++){
+			if (payload.get(position) != '<'){
+				continue;
+			}
+			int i = 1;
+			while (i < DATA_RECORD_START.length && payload.get(position + i) == DATA_RECORD_START[i]){
+				i++;
+			}
+			byte next = payload.get(position + i);
+			if (i == DATA_RECORD_START.length && (next == '>' || next == '/' || Character.isWhitespace(next))){
+				return position;
+			}
+		}
+		return -1;
+	}
+
+	/* Task decoding a range of slices - the range is split in two until a single slice is left, and the partials of both halves are merged
+	 * while joining */
+	private static class SliceTask extends RecursiveTask<PartialBatch> {
+
+		private static final long serialVersionUID = 1L;
+		private final transient ByteBuffer payload;
+		private final int[] sliceStarts;
+		private final int fromSlice;
+		private final int toSlice;
+		private final boolean binary;
+		private final boolean sumAmounts;
+
+		SliceTask(ByteBuffer payload, int[] sliceStarts, int fromSlice, int toSlice, boolean binary, boolean sumAmounts) {
+			this.payload = payload;
+			this.sliceStarts = sliceStarts;
+			this.fromSlice = fromSlice;
+			this.toSlice = toSlice;
+			this.binary = binary;
+			this.sumAmounts = sumAmounts;
+		}
+
+		@Override
+		protected PartialBatch compute() {
+			if (toSlice - fromSlice > 1){
+				int middleSlice = (fromSlice + toSlice) >>> 1;
+				SliceTask leftTask = new SliceTask(payload, sliceStarts, fromSlice, middleSlice, binary, sumAmounts);
+				leftTask.fork();
+				PartialBatch rightBatch = new SliceTask(payload, sliceStarts, middleSlice, toSlice, binary, sumAmounts).compute();
+				return leftTask.join().merge(rightBatch);
+			}
+			PartialBatch partialBatch = new PartialBatch(sumAmounts);
+			try {
+				if (binary){
+					BinaryRecordCodec.decodeRecordRange(payload, sliceStarts[fromSlice], sliceStarts[toSlice], partialBatch);
+					partialBatch.nbOfRecords = sliceStarts[toSlice] - sliceStarts[fromSlice];
+				} else {
+					ByteBuffer slice = payload.duplicate();
+					slice.limit(sliceStarts[toSlice]).position(sliceStarts[fromSlice]);
+					partialBatch.nbOfRecords = XmlRecordDecoder.decodeRecords(slice, partialBatch);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return partialBatch;
+		}
+
+	}
+
+	/* The records decoded out of one or more consecutive slices: the amounts summed per timestamp (or kept as they are) and the other records
+	 * kept in order */
+	private static class PartialBatch implements RecordHandler {
+
+		private TimeSeriesStore amountSums;
+		//The amounts in payload order when they are not summed up
+		private long[] timestamps;
+		private double[] amounts;
+		private int nbOfAmounts;
+		private List<RecordReplay> otherRecords;
+		private int nbOfRecords;
+
+		PartialBatch(boolean sumAmounts) {
+			if (sumAmounts){
+				amountSums = new TimeSeriesStore();
+			} else {
+				timestamps = new long[MIN_SLICE_RECORDS];
+				amounts = new double[MIN_SLICE_RECORDS];
+			}
+		}
+
+		@Override
+		public void onAmount(long timestamp, double amount) {
+			if (amountSums != null){
+				amountSums.add(timestamp, amount);
+				return;
+			}
+			if (nbOfAmounts == timestamps.length){
+				timestamps = Arrays.copyOf(timestamps, nbOfAmounts * 2);
+				amounts = Arrays.copyOf(amounts, nbOfAmounts * 2);
+			}
+			timestamps[nbOfAmounts] = timestamp;
+			amounts[nbOfAmounts++] = amount;
+		}
+
+		@Override
+		public void onHalt(long timestamp, String haltMessage) {
+			addOtherRecord(recordHandler -> recordHandler.onHalt(timestamp, haltMessage));
+		}
+
+		@Override
+		public void onControl(ControlCommand controlCommand) {
+			addOtherRecord(recordHandler -> recordHandler.onControl(controlCommand));
+		}
+
+		@Override
+		public void onQuery(QueryRequest queryRequest) {
+			addOtherRecord(recordHandler -> recordHandler.onQuery(queryRequest));
+		}
+
+		//Merge the partial of the following slices into this one
+		PartialBatch merge(PartialBatch followingBatch) {
+			if (amountSums == null){
+				//The amounts of the following slices are appended, keeping the payload order
+				if (nbOfAmounts + followingBatch.nbOfAmounts > timestamps.length){
+					timestamps = Arrays.copyOf(timestamps, nbOfAmounts + followingBatch.nbOfAmounts);
+					amounts = Arrays.copyOf(amounts, nbOfAmounts + followingBatch.nbOfAmounts);
+				}
+				System.arraycopy(followingBatch.timestamps, 0, timestamps, nbOfAmounts, followingBatch.nbOfAmounts);
+				System.arraycopy(followingBatch.amounts, 0, amounts, nbOfAmounts, followingBatch.nbOfAmounts);
+				nbOfAmounts += followingBatch.nbOfAmounts;
+			} else {
+				//The smaller store is added into the larger one, the order of the amounts not mattering
+				TimeSeriesStore smallerSums = followingBatch.amountSums;
+				if (smallerSums.size() > amountSums.size()){
+					smallerSums = amountSums;
+					amountSums = followingBatch.amountSums;
+				}
+				smallerSums.forEach(amountSums::add);
+			}
+			if (followingBatch.otherRecords != null){
+				if (otherRecords == null){
+					otherRecords = followingBatch.otherRecords;
+				} else {
+					otherRecords.addAll(followingBatch.otherRecords);
+				}
+			}
+			nbOfRecords += followingBatch.nbOfRecords;
+			return this;
+		}
+
+		//Hand the merged records over to the given handler - returns the number of decoded records
+		int replay(RecordHandler recordHandler) throws IOException {
+			TimeSeriesStore.AmountVisitor amountVisitor = (timestamp, amount) -> {
+				try {
+					recordHandler.onAmount(timestamp, amount);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			};
+			if (amountSums == null){
+				for (int i = 0; i < nbOfAmounts; i++){
+					recordHandler.onAmount(timestamps[i], amounts[i]);
+				}
+			} else {
+				try {
+					amountSums.forEach(amountVisitor);
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+			}
+			if (otherRecords != null){
+				for (RecordReplay otherRecord : otherRecords){
+					otherRecord.replay(recordHandler);
+				}
+			}
+			return nbOfRecords;
+		}
+
+		private void addOtherRecord(RecordReplay recordReplay) {
+			if (otherRecords == null){
+				otherRecords = new ArrayList<>();
+			}
+			otherRecords.add(recordReplay);
+		}
+
+	}
+
+	private interface RecordReplay {
+		void replay(RecordHandler recordHandler) throws IOException;
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.IOException;
+
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+
+/* Callback receiving the decoded records in the order of their arrival, whatever the wire format they came in */
+public interface RecordHandler {
+	
+	void onAmount(long timestamp, double amount) throws IOException;
+	
+	//The halt message is null for the formats which do not carry any
+	void onHalt(long timestamp, String haltMessage) throws IOException;
+	
+	void onControl(ControlCommand controlCommand) throws IOException;
+	
+	void onQuery(QueryRequest queryRequest) throws IOException;
+
+}
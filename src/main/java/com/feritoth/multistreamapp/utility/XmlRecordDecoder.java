@@ -0,0 +1,167 @@
+package com.feritoth.multistreamapp.utility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.codehaus.stax2.XMLInputFactory2;
+import org.codehaus.stax2.XMLStreamReader2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ctc.wstx.api.WstxInputProperties;
+import com.ctc.wstx.stax.WstxInputFactory;
+import com.feritoth.multistreamapp.core.ControlCommand;
+import com.feritoth.multistreamapp.core.QueryRequest;
+
+/* Streaming decoder for the XML records sent over by the clients - a whole multi-record payload is read in a single pass, 
+ * and the timestamps and amounts are handed over as primitives without building any intermediate line or core object */
+public class XmlRecordDecoder {
+	
+	//Application logger
+	private static final Logger LOGGER = LoggerFactory.getLogger(XmlRecordDecoder.class);
+	//Root and field names of the supported records
+	private static final String DATA_RECORD = "data";
+	private static final String CONTROL_RECORD = "control";
+	private static final String QUERY_RECORD = "query";
+	private static final String TIMESTAMP_FIELD = "timestamp";
+	private static final String AMOUNT_FIELD = "amount";
+	private static final String HALT_FIELD = "haltMessage";
+	private static final String COMMAND_FIELD = "command";
+	private static final String TYPE_FIELD = "type";
+	private static final String FROM_FIELD = "from";
+	private static final String TO_FIELD = "to";
+	private static final String LIMIT_FIELD = "limit";
+	private static final String QUANTILE_FIELD = "quantile";
+	//The factory is thread-safe once configured, hence shared by all the decoding calls
+	private static final XMLInputFactory2 INPUT_FACTORY = createInputFactory();
+	
+	private XmlRecordDecoder(){}
+	
+	/* Static method for decoding all the records held by the remaining bytes of the given payload */
+	public static int decodeRecords(ByteBuffer payload, RecordHandler recordHandler) throws IOException {
+		return decodeRecords(new ByteBufferInputStream(payload), recordHandler);
+	}
+	
+	/* Static method for decoding all the records coming from the given stream */
+	public static int decodeRecords(InputStream payloadStream, RecordHandler recordHandler) throws IOException {
+		int nbOfRecords = 0;
+		XMLStreamReader2 recordReader = null;
+		try {
+			recordReader = (XMLStreamReader2) INPUT_FACTORY.createXMLStreamReader(payloadStream, "UTF-8");
+			while (recordReader.hasNext()){
+				//Skip the line separators and anything else in between the records
+				if (recordReader.next() != XMLStreamConstants.START_ELEMENT){
+					continue;
+				}
+				String recordName = recordReader.getLocalName();
+				if (DATA_RECORD.equals(recordName)){
+					decodeDataRecord(recordReader, recordHandler);
+				} else if (CONTROL_RECORD.equals(recordName)){
+					decodeControlRecord(recordReader, recordHandler);
+				} else if (QUERY_RECORD.equals(recordName)){
+					decodeQueryRecord(recordReader, recordHandler);
+				} else {
+					LOGGER.warn("Skipping the unknown record received from the client: " + recordName);
+					recordReader.skipElement();
+					continue;
+				}
+				nbOfRecords++;
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Unable to decode the XML records received from the client", e);
+		} finally {
+			closeReader(recordReader);
+		}
+		return nbOfRecords;
+	}
+	
+	/* Static method for decoding a single amount or halt record - the reader is positioned on its start element */
+	private static void decodeDataRecord(XMLStreamReader2 recordReader, RecordHandler recordHandler) throws XMLStreamException, IOException {
+		long timestamp = 0;
+		double amount = 0;
+		boolean amountPresent = false;
+		String haltMessage = null;
+		while (recordReader.nextTag() == XMLStreamConstants.START_ELEMENT){
+			String fieldName = recordReader.getLocalName();
+			if (TIMESTAMP_FIELD.equals(fieldName)){
+				timestamp = recordReader.getElementAsLong();
+			} else if (AMOUNT_FIELD.equals(fieldName)){
+				amount = recordReader.getElementAsDouble();
+				amountPresent = true;
+			} else if (HALT_FIELD.equals(fieldName)){
+				haltMessage = recordReader.getElementText();
+			} else {
+				recordReader.skipElement();
+			}
+		}
+		if (haltMessage != null){
+			recordHandler.onHalt(timestamp, haltMessage);
+		} else if (amountPresent){
+			recordHandler.onAmount(timestamp, amount);
+		} else {
+			LOGGER.warn("Skipping the data record without amount received at " + timestamp);
+		}
+	}
+	
+	/* Static method for decoding a single control record - the reader is positioned on its start element */
+	private static void decodeControlRecord(XMLStreamReader2 recordReader, RecordHandler recordHandler) throws XMLStreamException, IOException {
+		ControlCommand controlCommand = new ControlCommand();
+		while (recordReader.nextTag() == XMLStreamConstants.START_ELEMENT){
+			if (COMMAND_FIELD.equals(recordReader.getLocalName())){
+				controlCommand.setCommand(recordReader.getElementText());
+			} else {
+				recordReader.skipElement();
+			}
+		}
+		recordHandler.onControl(controlCommand);
+	}
+	
+	/* Static method for decoding a single query record - the reader is positioned on its start element */
+	private static void decodeQueryRecord(XMLStreamReader2 recordReader, RecordHandler recordHandler) throws XMLStreamException, IOException {
+		QueryRequest queryRequest = new QueryRequest();
+		while (recordReader.nextTag() == XMLStreamConstants.START_ELEMENT){
+			String fieldName = recordReader.getLocalName();
+			if (TYPE_FIELD.equals(fieldName)){
+				queryRequest.setType(recordReader.getElementText().trim());
+			} else if (FROM_FIELD.equals(fieldName)){
+				queryRequest.setFrom(recordReader.getElementAsLong());
+			} else if (TO_FIELD.equals(fieldName)){
+				queryRequest.setTo(recordReader.getElementAsLong());
+			} else if (TIMESTAMP_FIELD.equals(fieldName)){
+				queryRequest.setTimestamp(recordReader.getElementAsLong());
+			} else if (LIMIT_FIELD.equals(fieldName)){
+				queryRequest.setLimit(recordReader.getElementAsInt());
+			} else if (QUANTILE_FIELD.equals(fieldName)){
+				queryRequest.setQuantile(recordReader.getElementAsDouble());
+			} else {
+				recordReader.skipElement();
+			}
+		}
+		recordHandler.onQuery(queryRequest);
+	}
+	
+	/* Static method for configuring the factory to accept a sequence of root elements instead of a single document */
+	private static XMLInputFactory2 createInputFactory() {
+		XMLInputFactory2 inputFactory = new WstxInputFactory();
+		inputFactory.configureForSpeed();
+		inputFactory.setProperty(WstxInputProperties.P_INPUT_PARSING_MODE, WstxInputProperties.PARSING_MODE_FRAGMENT);
+		return inputFactory;
+	}
+	
+	/* Static method for releasing the reader resources */
+	private static void closeReader(XMLStreamReader2 recordReader) {
+		if (recordReader == null){
+			return;
+		}
+		try {
+			recordReader.closeCompletely();
+		} catch (XMLStreamException e) {
+			LOGGER.warn("Unable to close the XML record reader due to the following exception:" + e);
+		}
+	}
+
+}